@@ -0,0 +1,94 @@
+/** An instance of this class represents a stack of char values.  It fulfills
+**  the Stack<Character> contract, but it also offers primitive versions of
+**  push(), pop(), and topOf() that neither box nor unbox, which is what
+**  clients on a hot path (e.g., RegExprBuilder) should use.
+**  The implementation is based upon storing the stack items in a char[].
+*/
+public class CharStack implements Stack<Character> {
+
+   // symbolic constant
+   // -----------------
+
+   private static final int INIT_CAPACITY_DEFAULT = 8;
+
+
+   // instance variables
+   // ------------------
+
+   protected int numItems;  // # items occupying the stack
+   protected char[] items;  // holds the items on the stack
+
+
+   // constructors
+   // ------------
+
+   /* Establishes this stack to be empty.
+   */
+   public CharStack(int initCapacity) {
+      numItems = 0;
+      items = new char[Math.max(1, initCapacity)];
+   }
+
+   public CharStack() { this(INIT_CAPACITY_DEFAULT); }
+
+
+   // observers
+   // ---------
+
+   public boolean isEmpty() { return numItems == 0; }
+
+   public boolean isFull() { return false; }
+
+   public int sizeOf() { return numItems; }
+
+   public Character topOf() { return topOfChar(); }
+
+   /** Returns the item at the top of this stack.
+   **  pre: !this.isEmpty()
+   */
+   public char topOfChar() { return items[numItems-1]; }
+
+   /** Returns a String containing the images of the items on this stack,
+   **  (going from top to bottom) enclosed between square brackets and
+   **  separated from each other by spaces.
+   */
+   public String toString() {
+      StringBuilder result = new StringBuilder("[ ");
+      for (int i = numItems - 1; i >= 0; i--) {
+         result.append(items[i]).append(' ');
+      }
+      return result.append("]").toString();
+   }
+
+
+   // mutators
+   // --------
+
+   /* Removes all the items from this stack, leaving it empty.  The
+   ** underlying array is retained so that the stack can be reused
+   ** without reallocating.
+   */
+   public void clear() { numItems = 0; }
+
+   public void push(Character item) { pushChar(item); }
+
+   /** Places the specified item onto the top of this stack.
+   */
+   public void pushChar(char item) {
+      if (numItems == items.length) {
+         items = java.util.Arrays.copyOf(items, 2 * items.length);
+      }
+      items[numItems] = item;
+      numItems = numItems + 1;
+   }
+
+   public Character pop() { return popChar(); }
+
+   /** Removes the item at the top of the stack, returning it.
+   **  pre: !isEmpty()
+   */
+   public char popChar() {
+      numItems = numItems - 1;
+      return items[numItems];
+   }
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+/** An instance of this class represents a stack of int values.  It fulfills
+**  the Stack<Integer> contract, but it also offers primitive versions of
+**  push(), pop(), and topOf() that neither box nor unbox, which is what
+**  clients on a hot path (e.g., RegExprBuilder) should use.
+**  The implementation is based upon storing the stack items in an int[].
+*/
+public class IntStack implements Stack<Integer> {
+
+   // symbolic constant
+   // -----------------
+
+   private static final int INIT_CAPACITY_DEFAULT = 8;
+
+
+   // instance variables
+   // ------------------
+
+   protected int numItems;  // # items occupying the stack
+   protected int[] items;   // holds the items on the stack
+
+
+   // constructors
+   // ------------
+
+   /* Establishes this stack to be empty.
+   */
+   public IntStack(int initCapacity) {
+      numItems = 0;
+      items = new int[Math.max(1, initCapacity)];
+   }
+
+   public IntStack() { this(INIT_CAPACITY_DEFAULT); }
+
+
+   // observers
+   // ---------
+
+   public boolean isEmpty() { return numItems == 0; }
+
+   public boolean isFull() { return false; }
+
+   public int sizeOf() { return numItems; }
+
+   public Integer topOf() { return topOfInt(); }
+
+   /** Returns the item at the top of this stack.
+   **  pre: !this.isEmpty()
+   */
+   public int topOfInt() { return items[numItems-1]; }
+
+   /** Returns the k-th item on the stack, counting from the bottom
+   **  starting at zero.
+   **  pre: 0 <= k < sizeOf()
+   */
+   public int get(int k) { return items[k]; }
+
+   /** Returns a String containing the images of the items on this stack,
+   **  (going from top to bottom) enclosed between square brackets and
+   **  separated from each other by spaces.
+   */
+   public String toString() {
+      StringBuilder result = new StringBuilder("[ ");
+      for (int i = numItems - 1; i >= 0; i--) {
+         result.append(items[i]).append(' ');
+      }
+      return result.append("]").toString();
+   }
+
+
+   // mutators
+   // --------
+
+   /* Removes all the items from this stack, leaving it empty.  The
+   ** underlying array is retained so that the stack can be reused
+   ** without reallocating.
+   */
+   public void clear() { numItems = 0; }
+
+   public void push(Integer item) { pushInt(item); }
+
+   /** Places the specified item onto the top of this stack.
+   */
+   public void pushInt(int item) {
+      if (numItems == items.length) {
+         items = java.util.Arrays.copyOf(items, 2 * items.length);
+      }
+      items[numItems] = item;
+      numItems = numItems + 1;
+   }
+
+   public Integer pop() { return popInt(); }
+
+   /** Removes the item at the top of the stack, returning it.
+   **  pre: !isEmpty()
+   */
+   public int popInt() {
+      numItems = numItems - 1;
+      return items[numItems];
+   }
+}
\ No newline at end of file
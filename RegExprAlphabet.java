@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+/* An instance of this class partitions the chars into equivalence classes
+** with respect to an NFA: two chars are in the same class if every
+** transition of the NFA either accepts both or rejects both.  Automata
+** built over the classes rather than over individual chars need only
+** one column per class.
+**
+** Classes are numbered 0..size()-1 in order of their smallest members;
+** class k consists of the chars in [start(k), start(k+1)).  classOf() is
+** a table lookup for chars below 256 and a binary search otherwise.
+*/
+public class RegExprAlphabet {
+
+   private static final int TABLE_SIZE = 256;
+
+   // instance variables
+   // ------------------
+
+   private final char[] starts;    // starts[k] is the smallest char in class k
+   private final short[] table;    // table[c] is the class of c, for c < 256
+
+   // constructor
+   // -----------
+
+   /* Establishes this alphabet as the coarsest partition of the chars that
+   ** respects every CHAR and SET transition of the given NFA.
+   */
+   public RegExprAlphabet(RegExprNfa nfa) {
+      boolean[] isStart = new boolean[Character.MAX_VALUE + 2];
+      isStart[0] = true;
+      for (int s = 0; s != nfa.size(); s++) {
+         if (nfa.kind[s] == RegExprNfa.CHAR) {
+            isStart[nfa.lo[s]] = true;
+            isStart[nfa.hi[s] + 1] = true;
+         }
+         else if (nfa.kind[s] == RegExprNfa.SET) {
+            char[] ranges = nfa.set[s];
+            for (int i = 0; i != ranges.length; i++) {
+               isStart[ranges[i] + (i % 2)] = true;   // a lo, or a hi + 1
+            }
+         }
+      }
+      int n = 0;
+      for (int c = 0; c <= Character.MAX_VALUE; c++) {
+         if (isStart[c]) { n++; }
+      }
+      starts = new char[n];
+      int k = 0;
+      for (int c = 0; c <= Character.MAX_VALUE; c++) {
+         if (isStart[c]) { starts[k++] = (char)c; }
+      }
+      table = new short[TABLE_SIZE];
+      for (int c = 0; c != TABLE_SIZE; c++) {
+         table[c] = (short)search((char)c);
+      }
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the number of classes.
+   */
+   public int size() { return starts.length; }
+
+   /* Returns the class of the given char.
+   */
+   public int classOf(char c) {
+      return c < TABLE_SIZE ? table[c] : search(c);
+   }
+
+   /* Returns the smallest char in class k.
+   */
+   public char start(int k) { return starts[k]; }
+
+   /* Returns the largest char in class k.
+   */
+   public char end(int k) {
+      return k + 1 == starts.length ? Character.MAX_VALUE
+                                    : (char)(starts[k + 1] - 1);
+   }
+
+   // private
+   // -------
+
+   private int search(char c) {
+      int i = Arrays.binarySearch(starts, c);
+      return i >= 0 ? i : -i - 2;
+   }
+
+}
\ No newline at end of file
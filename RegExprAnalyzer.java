@@ -0,0 +1,414 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* An instance of this class inspects the tree of a regular expression for
+** the ambiguity that makes the recursive isMember() take exponential
+** time, so that rules can be rejected, or sent to an automaton-based
+** engine (see RegExprPlanner), when they are loaded rather than when an
+** unlucky input arrives.
+**
+** The blowup comes from RegExprStar: to test x against r*, isMember()
+** tries every non-empty prefix of x in L(r) and recurses on the rest.  If
+** some string u splits into members of L(r) in two ways, then u^n splits
+** in 2^n ways, and on an input u^n.z that is not a member all of them
+** are tried.  (A union whose alternatives share members, as in (a + a)*,
+** is not enough: the prefixes tried are distinct strings.)  The cases to
+** look out for are
+**
+**    - nested stars, as in (a*)* or (a*.b*)*, where the inner star can
+**      match a whole iteration of the outer one;
+**    - a star over a union whose alternatives overlap, as in (a + aa)* or
+**      (a + ab + b)*;
+**    - a star over a nullable subexpression, as in (a + L)*: harmless to
+**      isMember() on its own, which ignores empty iterations, but a sign
+**      of a rule written carelessly, and exponential in other backtracking
+**      matchers.
+**
+** The analyzer decides the first two exactly, for each star, by searching
+** the pairs of states of two runs of the star's body NFA over the same
+** input for a string that both split into members, at different places,
+** and reports such a string as evidence; the structure of the body then
+** names the cause.  Bodies whose NFAs have more than maxPositions
+** consuming states, or have counters (see RegExprNfa), are judged by their
+** structure alone.
+**
+** Counted repetition (RegExprRepeat) memoizes its body's tests, and so is
+** not exponential itself; stars inside it still are, and are reported.
+*/
+public class RegExprAnalyzer {
+
+   public static final int SAFE = 0;       // severities, in increasing order
+   public static final int LOW = 1;
+   public static final int HIGH = 2;
+
+   public static final int DEFAULT_MAX_POSITIONS = 256;
+
+   private static final String[] SEVERITY_NAMES = { "safe", "low", "high" };
+
+   /* One problem found: the star at fault, why, the subexpression that
+   ** causes it, and (if confirmed) a string that its body splits in two
+   ** ways.
+   */
+   public static final class Finding {
+      private final int severity;
+      private final RegularExpression star;
+      private final String cause;
+      private final RegularExpression culprit;
+      private final String witness;
+
+      Finding(int severity, RegularExpression star, String cause,
+              RegularExpression culprit, String witness) {
+         this.severity = severity;
+         this.star = star;
+         this.cause = cause;
+         this.culprit = culprit;
+         this.witness = witness;
+      }
+
+      public int severity() { return severity; }
+
+      public RegularExpression star() { return star; }
+
+      public String cause() { return cause; }
+
+      public RegularExpression culprit() { return culprit; }
+
+      /* Returns a string that the star's body splits in two ways, or null
+      ** if none was looked for (or there is none).
+      */
+      public String witness() { return witness; }
+
+      @Override
+      public String toString() {
+         String s = severityName(severity) + ": " + star + ": " + cause;
+         if (culprit != star) { s = s + " " + culprit; }
+         if (witness != null) {
+            s = s + " (" + RegExprApp.PAD + witness + RegExprApp.PAD +
+                " splits two ways)";
+         }
+         return s;
+      }
+   }
+
+   // instance variables
+   // ------------------
+
+   private final int maxPositions;
+
+   // constructors
+   // ------------
+
+   /* Establishes this analyzer as one that searches bodies of at most
+   ** maxPositions consuming NFA states exactly.
+   */
+   public RegExprAnalyzer(int maxPositions) {
+      this.maxPositions = maxPositions;
+   }
+
+   public RegExprAnalyzer() { this(DEFAULT_MAX_POSITIONS); }
+
+   // observers
+   // ---------
+
+   /* Returns the problems found in r, most severe first (and otherwise
+   ** in the order of the stars in r), or an empty list if there are none.
+   */
+   public List<Finding> analyze(RegularExpression r) {
+      List<Finding> findings = new ArrayList<Finding>();
+      Stack<RegularExpression> nodes = new StackViaArray<RegularExpression>();
+      nodes.push(r);
+      while (!nodes.isEmpty()) {
+         RegularExpression e = nodes.pop();
+         if (e instanceof RegExprStar) {
+            Finding f = examine(e, ((RegExprStar)e).body());
+            if (f != null) { findings.add(f); }
+            nodes.push(((RegExprStar)e).body());
+         }
+         else if (e instanceof RegExprUnion) {
+            nodes.push(((RegExprUnion)e).second());
+            nodes.push(((RegExprUnion)e).first());
+         }
+         else if (e instanceof RegExprConcat) {
+            nodes.push(((RegExprConcat)e).second());
+            nodes.push(((RegExprConcat)e).first());
+         }
+         else if (e instanceof RegExprRepeat) {
+            nodes.push(((RegExprRepeat)e).body());
+         }
+         else if (e instanceof RegExprCapture) {
+            nodes.push(((RegExprCapture)e).body());
+         }
+         else if (e instanceof RegExprInstrumented) {
+            nodes.push(((RegExprInstrumented)e).unwrap());
+         }
+      }
+      // stable, so stars of equal severity stay in order
+      findings.sort((f, g) -> g.severity - f.severity);
+      return findings;
+   }
+
+   /* Returns the severity of the worst problem in r, SAFE if none.
+   */
+   public int severity(RegularExpression r) {
+      List<Finding> findings = analyze(r);
+      return findings.isEmpty() ? SAFE : findings.get(0).severity;
+   }
+
+   public static String severityName(int severity) {
+      return SEVERITY_NAMES[severity];
+   }
+
+   /* Returns a report on r, one line per problem.
+   */
+   public String report(RegularExpression r) {
+      List<Finding> findings = analyze(r);
+      if (findings.isEmpty()) {
+         return "No star can backtrack exponentially.\n";
+      }
+      StringBuilder b = new StringBuilder();
+      b.append("Severity " + severityName(findings.get(0).severity) + ":\n");
+      for (Finding f : findings) { b.append("  " + f + "\n"); }
+      return b.toString();
+   }
+
+   // private
+   // -------
+
+   /* Returns the problem with star, whose operand is body, or null if it
+   ** has none.
+   */
+   private Finding examine(RegularExpression star, RegularExpression body) {
+      if (!hasNonEmptyMember(body)) { return null; }
+      boolean nullable = body.minLength() == 0;
+      RegularExpression inner = exposedStar(body);
+      RegularExpression union = unwrap(body);
+      if (!(union instanceof RegExprUnion)) { union = null; }
+      RegExprNfa nfa = RegExprNfa.compile(body);
+      if (nfa.numCounters() == 0 && numConsuming(nfa) <= maxPositions) {
+         String witness = splitsTwoWays(nfa);
+         if (witness != null) {
+            if (inner != null) {
+               return new Finding(HIGH, star, "nested star", inner, witness);
+            }
+            if (union != null) {
+               return new Finding(HIGH, star,
+                                  "star over a union whose alternatives " +
+                                  "overlap", union, witness);
+            }
+            return new Finding(HIGH, star, "star over an ambiguous " +
+                               "subexpression", body, witness);
+         }
+      }
+      else if (inner != null) {
+         return new Finding(HIGH, star, "nested star (not confirmed)",
+                            inner, null);
+      }
+      else if (union != null) {
+         return new Finding(HIGH, star, "star over a union (not confirmed)",
+                            union, null);
+      }
+      if (nullable) {
+         return new Finding(LOW, star, "star over a nullable subexpression",
+                            body, null);
+      }
+      return null;
+   }
+
+   /* Returns a star (or unbounded repetition) in r, over a subexpression
+   ** with a non-empty member, that can match a member of r all by itself,
+   ** everything around it matching the empty string; or null if there is
+   ** none.  E.g., a* in b*.a* (but not in b.a*).
+   */
+   private static RegularExpression exposedStar(RegularExpression r) {
+      Stack<RegularExpression> nodes = new StackViaArray<RegularExpression>();
+      nodes.push(r);
+      while (!nodes.isEmpty()) {
+         RegularExpression e = nodes.pop();
+         if (e instanceof RegExprStar) {
+            if (hasNonEmptyMember(((RegExprStar)e).body())) { return e; }
+         }
+         else if (e instanceof RegExprRepeat) {
+            RegExprRepeat rep = (RegExprRepeat)e;
+            RegularExpression body = rep.body();
+            if (rep.max() == RegExprRepeat.UNBOUNDED && hasNonEmptyMember(body)) {
+               return e;
+            }
+            if (rep.min() <= 1) { nodes.push(body); }
+         }
+         else if (e instanceof RegExprUnion) {
+            nodes.push(((RegExprUnion)e).second());
+            nodes.push(((RegExprUnion)e).first());
+         }
+         else if (e instanceof RegExprConcat) {
+            RegularExpression first = ((RegExprConcat)e).first();
+            RegularExpression second = ((RegExprConcat)e).second();
+            if (first.minLength() == 0) { nodes.push(second); }
+            if (second.minLength() == 0) { nodes.push(first); }
+         }
+         else if (e instanceof RegExprCapture) {
+            nodes.push(((RegExprCapture)e).body());
+         }
+         else if (e instanceof RegExprInstrumented) {
+            nodes.push(((RegExprInstrumented)e).unwrap());
+         }
+      }
+      return null;
+   }
+
+   private static boolean hasNonEmptyMember(RegularExpression r) {
+      return !r.isEmpty() && !(r.isFinite() && r.maxLength() == 0);
+   }
+
+   private static RegularExpression unwrap(RegularExpression r) {
+      while (true) {
+         if (r instanceof RegExprCapture) { r = ((RegExprCapture)r).body(); }
+         else if (r instanceof RegExprInstrumented) {
+            r = ((RegExprInstrumented)r).unwrap();
+         }
+         else { return r; }
+      }
+   }
+
+   private static int numConsuming(RegExprNfa nfa) {
+      int n = 0;
+      for (int s = 0; s != nfa.size(); s++) {
+         if (nfa.isConsuming(s)) { n++; }
+      }
+      return n;
+   }
+
+   /* Returns a non-empty string that splits into non-empty members of the
+   ** NFA's language in two ways, or null if there is none (i.e., if those
+   ** members form a code).
+   **
+   ** Two runs of the NFA read the same input; a run that reaches the MATCH
+   ** state may "cut", starting again from the start state for the next
+   ** member.  A configuration is a pair of consuming states, about to read
+   ** a char, and whether the runs have cut at different places yet.  A
+   ** breadth-first search of the configurations looks for a char after
+   ** which both runs, having diverged, can cut at once: the input up to
+   ** there is the string wanted.  There are at most 2 * m^2
+   ** configurations, for m consuming states.
+   */
+   private static String splitsTwoWays(RegExprNfa nfa) {
+      // number the consuming states 0..m-1
+      int[] index = new int[nfa.size()];
+      int m = 0;
+      int[] states = new int[nfa.size()];
+      for (int s = 0; s != nfa.size(); s++) {
+         if (nfa.isConsuming(s)) {
+            index[s] = m;
+            states[m++] = s;
+         }
+      }
+      RegExprAlphabet alphabet = new RegExprAlphabet(nfa);
+      int numClasses = alphabet.size();
+      RegExprSparseSet set = new RegExprSparseSet(nfa.size());
+      IntStack stack = new IntStack();
+      // the consuming states at which a member can begin
+      int[] initial = consumingClosure(nfa, nfa.start, set, stack, index);
+      // next[u][k]: the consuming states after u reads class k, and
+      // cuts[u][k]: whether a member can end there
+      int[][][] next = new int[m][numClasses][];
+      boolean[][] cuts = new boolean[m][numClasses];
+      for (int u = 0; u != m; u++) {
+         for (int k = 0; k != numClasses; k++) {
+            int s = states[u];
+            if (nfa.consumes(s, alphabet.start(k))) {
+               next[u][k] = consumingClosure(nfa, nfa.out1[s], set, stack,
+                                             index);
+               cuts[u][k] = containsMatch(set, nfa);
+            }
+            else { next[u][k] = new int[0]; }
+         }
+      }
+      // configuration (u, v, diverged) is numbered (u * m + v) * 2 + d
+      int numConfigs = 2 * m * m;
+      int[] parent = new int[numConfigs];
+      int[] via = new int[numConfigs];     // the class read to get there
+      Arrays.fill(parent, -2);             // -2: not reached; -1: initial
+      int[] queue = new int[numConfigs];
+      int head = 0, tail = 0;
+      for (int u : initial) {
+         for (int v : initial) {
+            int c = (u * m + v) * 2;
+            if (parent[c] == -2) {
+               parent[c] = -1;
+               queue[tail++] = c;
+            }
+         }
+      }
+      while (head != tail) {
+         int c = queue[head++];
+         int d = c & 1;
+         int u = (c >> 1) / m, v = (c >> 1) % m;
+         for (int k = 0; k != numClasses; k++) {
+            int[] nu = next[u][k], nv = next[v][k];
+            boolean cu = cuts[u][k], cv = cuts[v][k];
+            if ((nu.length == 0 && !cu) || (nv.length == 0 && !cv)) {
+               continue;
+            }
+            if (cu && cv && d == 1) {
+               return witness(c, parent, via, alphabet) + alphabet.start(k);
+            }
+            // each run goes on with its member, or (if it can) cuts; if
+            // exactly one cuts, they diverge; if both do, and they had not
+            // diverged, they still have not
+            for (int pass = 0; pass != 4; pass++) {
+               boolean cutU = (pass & 1) != 0, cutV = (pass & 2) != 0;
+               if ((cutU && !cu) || (cutV && !cv)) { continue; }
+               int[] fu = cutU ? initial : nu, fv = cutV ? initial : nv;
+               int nd = cutU != cutV ? 1 : d;
+               for (int x : fu) {
+                  for (int y : fv) {
+                     int e = (x * m + y) * 2 + nd;
+                     if (parent[e] == -2) {
+                        parent[e] = c;
+                        via[e] = k;
+                        queue[tail++] = e;
+                     }
+                  }
+               }
+            }
+         }
+      }
+      return null;
+   }
+
+   /* Returns the input read to reach configuration c.
+   */
+   private static String witness(int c, int[] parent, int[] via,
+                                 RegExprAlphabet alphabet) {
+      StringBuilder b = new StringBuilder();
+      for (; parent[c] != -1; c = parent[c]) {
+         b.append(alphabet.start(via[c]));
+      }
+      return b.reverse().toString();
+   }
+
+   /* Returns the numbers of the consuming states in the closure of s,
+   ** leaving the closure in set.
+   */
+   private static int[] consumingClosure(RegExprNfa nfa, int s,
+                                         RegExprSparseSet set, IntStack stack,
+                                         int[] index) {
+      set.clear();
+      nfa.addClosure(set, s, stack);
+      int[] result = new int[set.size()];
+      int n = 0;
+      for (int j = 0; j != set.size(); j++) {
+         int t = set.get(j);
+         if (nfa.isConsuming(t)) { result[n++] = index[t]; }
+      }
+      return Arrays.copyOf(result, n);
+   }
+
+   private static boolean containsMatch(RegExprSparseSet set, RegExprNfa nfa) {
+      for (int j = 0; j != set.size(); j++) {
+         if (nfa.kind[set.get(j)] == RegExprNfa.MATCH) { return true; }
+      }
+      return false;
+   }
+
+}
\ No newline at end of file
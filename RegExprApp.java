@@ -1,7 +1,12 @@
+import java.util.List;
 import java.util.Scanner;
 import java.util.Random;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /* RegExprApp.java
 ** Java application that, making use of several classes that together
@@ -12,27 +17,54 @@ import java.io.FileNotFoundException;
 ** finite vs. infinite, the length of the shortest member(s), the length of 
 ** the longest member(s) (if finite), and whether a specified string is a 
 ** member.  There is also a command by which the user can request that a 
-** "random" member of the language be generated.
+** "random" member of the language be generated, and one that explains
+** how a membership test (or a file of them) goes: which engine runs, how
+** much work it and the alternatives do, and which DFA states are hot,
+** and one that reports the stars that can make the recursive membership
+** test take exponential time.
+**
+** Given the argument -server (optionally followed by a port number or by
+** unix:<socket path>), it instead runs as a RegExprServer; given -batch
+** followed by a script file (and, optionally, an output file), it runs
+** the script non-interactively via RegExprBatch.
 */
 public class RegExprApp {
 
-   private static char PAD = '|';
-   private static char QUIT = 'q';
-   private static char HELP = 'h';
-   private static char NEW_REXPR = 'n';
-   private static char DISPLAY_REXPR = 'd';
-   private static char PRINT_STATS = 's';
-   private static char GENERATE_RANDOM = 'g';
-   private static char MEMBERSHIP_TEST = 'm';
-   private static char REVERSE = 'r';
+   static final char PAD = '|';
+   static final char QUIT = 'q';
+   static final char HELP = 'h';
+   static final char NEW_REXPR = 'n';
+   static final char DISPLAY_REXPR = 'd';
+   static final char PRINT_STATS = 's';
+   static final char GENERATE_RANDOM = 'g';
+   static final char MEMBERSHIP_TEST = 'm';
+   static final char REVERSE = 'r';
+   static final char PROFILE = 'p';
+   static final char FROM_FILE = '@';
+   static final char ANALYZE = 'a';
 
-   private static String NO_EXPR = "There is no current regular expression.";
+   static final String NO_EXPR = "There is no current regular expression.";
+   private static final String SERVER_FLAG = "-server";
+   private static final String BATCH_FLAG = "-batch";
 
    private static Scanner input;
    private static boolean echo;
    private static Random rand = new Random();
+   private static RegExprProfiler profiler;   // for the current expression
 
-   public static void main(String[] args) {
+   public static void main(String[] args) throws java.io.IOException {
+      if (args.length != 0  &&  args[0].equals(SERVER_FLAG)) {
+         String[] serverArgs = new String[args.length - 1];
+         System.arraycopy(args, 1, serverArgs, 0, serverArgs.length);
+         RegExprServer.main(serverArgs);
+         return;
+      }
+      if (args.length != 0  &&  args[0].equals(BATCH_FLAG)) {
+         String[] batchArgs = new String[args.length - 1];
+         System.arraycopy(args, 1, batchArgs, 0, batchArgs.length);
+         RegExprBatch.main(batchArgs);
+         return;
+      }
       input = getScanner(args);
       RegularExpression regExpr = null;
       boolean keepGoing = true;
@@ -64,6 +96,7 @@ public class RegExprApp {
             }
             else {
                regExpr = RegExprBuilder.parse(rexprStr);
+               profiler = null;
                System.out.printf("New regular expression is %s\n", regExpr);
             }
          }
@@ -95,6 +128,17 @@ public class RegExprApp {
                                  PAD, commandArg, PAD, answer);
             }
          }
+         else if (command == PROFILE) {
+            if (regExpr == null) { System.out.println(NO_EXPR); }
+            else {
+               if (profiler == null) { profiler = new RegExprProfiler(regExpr); }
+               System.out.print(profile(profiler, commandArg));
+            }
+         }
+         else if (command == ANALYZE) {
+            if (regExpr == null) { System.out.println(NO_EXPR); }
+            else { System.out.print(new RegExprAnalyzer().report(regExpr)); }
+         }
          else if (command == REVERSE) {
             if (regExpr == null) { System.out.println(NO_EXPR); }
             else { 
@@ -131,6 +175,30 @@ public class RegExprApp {
       printCommand(GENERATE_RANDOM + " [seed]: to display a random member " +
                    "of the language.", padLen);
       printCommand(REVERSE + ": to display reverse of current rexpr.", padLen);
+      printCommand(PROFILE + " <string>: to explain the membership test " +
+                   "of string.", padLen);
+      printCommand(PROFILE + " " + FROM_FILE + "<file>: to explain those of " +
+                   "the lines of file, with the hot DFA states.", padLen);
+      printCommand(ANALYZE + ": to report stars that can backtrack " +
+                   "exponentially.", padLen);
+   }
+
+   /* Returns the profiler's report on the membership test of commandArg
+   ** or, if that is @<file>, on those of the lines of the file.
+   */
+   static String profile(RegExprProfiler profiler, String commandArg) {
+      if (commandArg.length() == 0  ||  commandArg.charAt(0) != FROM_FILE) {
+         return profiler.profile(commandArg);
+      }
+      String fileName = commandArg.substring(1).trim();
+      List<String> lines;
+      try {
+         lines = Files.readAllLines(Path.of(fileName), StandardCharsets.UTF_8);
+      }
+      catch (IOException e) {
+         return "File " + fileName + " could not be read.\n";
+      }
+      return profiler.profile(lines);
    }
 
    private static void printCommand(String s, int padLength) {
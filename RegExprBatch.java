@@ -0,0 +1,218 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/* RegExprBatch.java
+** Non-interactive counterpart of RegExprApp, for running large command
+** scripts:
+**
+**    java RegExprApp -batch <script file> [output file]
+**
+** The script uses RegExprApp's commands (n, d, s, g, m, r, p, q; h is
+** ignored), one per line, and produces the same responses, minus the
+** prompts and the echo of each command.  Runs of consecutive membership
+** tests (m) are independent of each other, so they are collected into
+** chunks and tested in parallel against the compiled current expression;
+** their responses are nevertheless written in script order.  Input is
+** read, and output written, through large buffers.  Syntax errors are
+** reported in the output, in order; a command that cannot be carried out
+** (e.g., g with a seed that is not a number) gets an error response, and
+** the script goes on.
+*/
+public class RegExprBatch {
+
+   private static final int CHUNK_SIZE = 1 << 14;
+   private static final int BUFFER_SIZE = 1 << 20;
+
+   // instance variables
+   // ------------------
+
+   private final Writer out;
+   private final Random rand = new Random();
+   private final RegExprCompileCache cache = new RegExprCompileCache();
+
+   private RegularExpression regExpr;   // the current expression
+   private RegExprPattern pattern;      // ... and its compiled form
+   private RegExprProfiler profiler;    // ... and its profiler, if needed
+
+   private final String[] pending = new String[CHUNK_SIZE];  // m arguments
+   private final boolean[] results = new boolean[CHUNK_SIZE];
+   private int numPending;
+
+   // constructor
+   // -----------
+
+   private RegExprBatch(Writer out) { this.out = out; }
+
+   public static void main(String[] args) throws IOException {
+      if (args.length == 0) {
+         System.out.println("Usage: java RegExprApp -batch <script> [output]");
+         return;
+      }
+      Path script = Path.of(args[0]);
+      if (!Files.exists(script)) {
+         System.out.printf("File %s not found; aborting execution.\n", args[0]);
+         return;
+      }
+      Writer out;
+      if (args.length > 1) {
+         out = new BufferedWriter(
+            Files.newBufferedWriter(Path.of(args[1]), StandardCharsets.UTF_8),
+            BUFFER_SIZE);
+      }
+      else {
+         out = new BufferedWriter(
+            new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+            BUFFER_SIZE);
+      }
+      try (BufferedReader in = new BufferedReader(
+              Files.newBufferedReader(script, StandardCharsets.UTF_8),
+              BUFFER_SIZE))
+      {
+         new RegExprBatch(out).run(in);
+      }
+      finally {
+         if (args.length > 1) { out.close(); } else { out.flush(); }
+      }
+   }
+
+   // private
+   // -------
+
+   /* Carries out the commands read from the given reader, up to a q
+   ** command or the end of input.
+   */
+   private void run(BufferedReader in) throws IOException {
+      boolean keepGoing = true;
+      String line;
+      while (keepGoing  &&  (line = in.readLine()) != null) {
+         line = line.trim();
+         if (line.length() == 0) { continue; }
+         char command = Character.toLowerCase(line.charAt(0));
+         String commandArg = line.substring(1).trim();
+
+         if (command == RegExprApp.MEMBERSHIP_TEST  &&  pattern != null) {
+            pending[numPending] = commandArg;
+            numPending++;
+            if (numPending == CHUNK_SIZE) { flushPending(); }
+         }
+         else {
+            flushPending();
+            keepGoing = command != RegExprApp.QUIT;
+            if (keepGoing) { execute(command, commandArg); }
+         }
+      }
+      flushPending();
+      out.write("Goodbye.\n");
+   }
+
+   /* Tests the pending membership-test arguments, in parallel, and writes
+   ** the responses, in order.
+   */
+   private void flushPending() throws IOException {
+      final int n = numPending;
+      if (n == 0) { return; }
+      final RegExprPattern p = pattern;
+      if (n == 1) { results[0] = p.matches(pending[0]); }
+      else {
+         IntStream.range(0, n).parallel()
+                  .forEach(i -> results[i] = p.matches(pending[i]));
+      }
+      for (int i = 0; i != n; i++) {
+         writeMembership(pending[i], results[i]);
+         pending[i] = null;
+      }
+      numPending = 0;
+   }
+
+   /* Carries out a command other than q or a membership test with a
+   ** current expression.
+   */
+   private void execute(char command, String commandArg) throws IOException {
+      if (command == RegExprApp.HELP) { }
+      else if (command == RegExprApp.NEW_REXPR) {
+         String errors = commandArg.length() == 0 ? "" :
+                         RegExprBuilder.syntaxErrors(commandArg);
+         if (commandArg.length() == 0 || !errors.isEmpty()) {
+            out.write(errors);
+            out.write("Invalid syntax\n");
+         }
+         else {
+            regExpr = RegExprBuilder.parse(commandArg);
+            pattern = RegExprPattern.compile(regExpr, cache);
+            profiler = null;
+            out.write("New regular expression is " + regExpr + "\n");
+         }
+      }
+      else if (regExpr == null) {
+         if (isKnown(command)) { out.write(RegExprApp.NO_EXPR + "\n"); }
+         else { out.write("Unrecognized command; enter 'h' for help\n"); }
+      }
+      else if (command == RegExprApp.DISPLAY_REXPR) {
+         out.write(regExpr + "\n");
+      }
+      else if (command == RegExprApp.PRINT_STATS) {
+         out.write("Image: " + regExpr + "\n");
+         if (regExpr.isEmpty()) { out.write("Has no members.\n"); }
+         else {
+            out.write("Shortest member has length " + regExpr.minLength() + "\n");
+            if (regExpr.isFinite()) {
+               out.write("Longest member has length " + regExpr.maxLength() +
+                         "\n");
+            }
+            else { out.write("Has infinitely many members.\n"); }
+         }
+      }
+      else if (command == RegExprApp.GENERATE_RANDOM) {
+         Random rdm = rand;
+         if (commandArg.length() != 0) {
+            try { rdm = new Random(Integer.parseInt(commandArg)); }
+            catch (NumberFormatException e) {
+               out.write("Invalid seed " + commandArg + "\n");
+               return;
+            }
+         }
+         out.write("Random member: " + RegExprApp.PAD +
+                   regExpr.randomMember(rdm) + RegExprApp.PAD + "\n");
+      }
+      else if (command == RegExprApp.REVERSE) {
+         out.write("Reverse is " + regExpr.reverse() + "\n");
+      }
+      else if (command == RegExprApp.PROFILE) {
+         if (profiler == null) { profiler = new RegExprProfiler(regExpr, cache); }
+         out.write(RegExprApp.profile(profiler, commandArg));
+      }
+      else if (command == RegExprApp.ANALYZE) {
+         out.write(new RegExprAnalyzer().report(regExpr));
+      }
+      else {
+         out.write("Unrecognized command; enter 'h' for help\n");
+      }
+   }
+
+   private static boolean isKnown(char command) {
+      return command == RegExprApp.DISPLAY_REXPR ||
+             command == RegExprApp.PRINT_STATS ||
+             command == RegExprApp.GENERATE_RANDOM ||
+             command == RegExprApp.MEMBERSHIP_TEST ||
+             command == RegExprApp.REVERSE ||
+             command == RegExprApp.PROFILE ||
+             command == RegExprApp.ANALYZE;
+   }
+
+   private void writeMembership(String x, boolean member) throws IOException {
+      out.write("The string ");
+      out.write(RegExprApp.PAD);
+      out.write(x);
+      out.write(RegExprApp.PAD);
+      out.write(member ? " is a member.\n" : " is NOT a member.\n");
+   }
+
+}
\ No newline at end of file
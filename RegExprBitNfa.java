@@ -0,0 +1,195 @@
+/* An instance of this class tests membership by simulating an NFA of at
+** most 64 "positions" (its CHAR, SET and MATCH states) with the set of
+** active positions held in one long.  Each char then costs a table
+** lookup for its alphabet class, an AND, and at most eight lookups that
+** map the positions that accepted the char, eight at a time, to the
+** positions they lead to (Navarro & Raffinot's table-driven technique).
+** That is competitive with a DFA, but with no determinization and only
+** O(64 * size of the alphabet) space, however ambiguous the expression.
+*/
+public class RegExprBitNfa implements RegExprEngine {
+
+   public static final int MAX_POSITIONS = 64;
+
+   // instance variables
+   // ------------------
+
+   private final RegExprAlphabet alphabet;
+   private final long[] classMask;  // positions that accept chars of class k
+   private final long[][] follow;   // follow[j][b]: where positions 8j..8j+7
+                                    // in the bits of b lead, after a char
+   private final long initial;      // the positions active at the start
+   private final long matchMask;     // the MATCH position(s)
+   private final int numPositions;
+
+   // constructor
+   // -----------
+
+   private RegExprBitNfa(RegExprNfa nfa, int[] position, int numPositions) {
+      this.numPositions = numPositions;
+      alphabet = new RegExprAlphabet(nfa);
+      RegExprSparseSet scratch = new RegExprSparseSet(nfa.size());
+      IntStack stack = new IntStack();
+
+      long[] successors = new long[numPositions];
+      long match = 0;
+      classMask = new long[alphabet.size()];
+      for (int s = 0; s != nfa.size(); s++) {
+         int p = position[s];
+         if (p == -1) { continue; }
+         if (nfa.kind[s] == RegExprNfa.MATCH) {
+            match |= 1L << p;
+            continue;
+         }
+         scratch.clear();
+         nfa.addClosure(scratch, nfa.out1[s], stack);
+         successors[p] = mask(scratch, position);
+         for (int k = 0; k != alphabet.size(); k++) {
+            if (nfa.consumes(s, alphabet.start(k))) { classMask[k] |= 1L << p; }
+         }
+      }
+      matchMask = match;
+      scratch.clear();
+      nfa.addClosure(scratch, nfa.start, stack);
+      initial = mask(scratch, position);
+
+      follow = new long[(numPositions + 7) / 8][256];
+      for (int j = 0; j != follow.length; j++) {
+         for (int b = 1; b != 256; b++) {
+            int low = Integer.numberOfTrailingZeros(b);
+            int p = 8 * j + low;
+            long f = p < numPositions ? successors[p] : 0;
+            follow[j][b] = follow[j][b & (b - 1)] | f;
+         }
+      }
+   }
+
+   /* Returns the bit-parallel simulation of the given NFA, or null if it
+   ** has more than MAX_POSITIONS positions, or has counters.
+   */
+   public static RegExprBitNfa build(RegExprNfa nfa) {
+      if (nfa.numCounters() != 0) { return null; }
+      int[] position = new int[nfa.size()];
+      int n = 0;
+      for (int s = 0; s != nfa.size(); s++) {
+         if (nfa.isConsuming(s) || nfa.kind[s] == RegExprNfa.MATCH) {
+            if (n == MAX_POSITIONS) { return null; }
+            position[s] = n++;
+         }
+         else {
+            position[s] = -1;
+         }
+      }
+      return new RegExprBitNfa(nfa, position, n);
+   }
+
+   /* Returns the bit-parallel simulation of the NFA for the given regular
+   ** expression, or null if that has more than MAX_POSITIONS positions,
+   ** or has counters.
+   */
+   public static RegExprBitNfa build(RegularExpression r) {
+      return build(RegExprNfa.compile(r));
+   }
+
+   // observers
+   // ---------
+
+   public int numPositions() { return numPositions; }
+
+   @Override
+   public boolean matches(CharSequence x) {
+      long d = initial;
+      final int n = x.length();
+      for (int i = 0; i != n; i++) {
+         long e = d & classMask[alphabet.classOf(x.charAt(i))];
+         if (e == 0) { return false; }
+         d = step(e);
+      }
+      return (d & matchMask) != 0;
+   }
+
+   /* Reports whether x is within k edits (insertions, deletions or
+   ** substitutions of one char) of a member of the language, by Wu and
+   ** Manber's extension of the simulation: row R[e] holds the positions
+   ** reachable with at most e edits, and reading a char c,
+   **
+   **    R'[e] = follow(R[e] & B[c])             c matched
+   **          | R[e-1]                          c inserted
+   **          | follow(R[e-1] & consuming)      c substituted
+   **          | follow(R'[e-1] & consuming)     a char deleted
+   **          | R'[e-1]
+   **
+   ** (follow distributes over |, so that is one follow() per row).  The
+   ** time is O(|x| * k) steps, each a few 64-bit operations.
+   ** pre: k >= 0
+   */
+   public boolean matchesWithin(CharSequence x, int k) {
+      final long consuming = ~matchMask &
+                             (numPositions == 64 ? -1L : (1L << numPositions) - 1);
+      long[] row = new long[k + 1];
+      row[0] = initial;
+      for (int e = 1; e <= k; e++) {
+         row[e] = row[e - 1] | step(row[e - 1] & consuming);
+      }
+      final int n = x.length();
+      for (int i = 0; i != n  &&  row[k] != 0; i++) {
+         long b = classMask[alphabet.classOf(x.charAt(i))];
+         long previous = row[0];              // R[e-1], before this char
+         row[0] = step(previous & b);
+         for (int e = 1; e <= k; e++) {
+            long old = row[e];
+            long below = previous | row[e - 1];
+            row[e] = step((old & b) | (below & consuming)) | below;
+            previous = old;
+         }
+      }
+      return (row[k] & matchMask) != 0;
+   }
+
+   @Override
+   public String name() { return "bit-parallel"; }
+
+   @Override
+   public String describe() {
+      return name() + " (" + numPositions + " positions, " +
+             alphabet.size() + " classes)";
+   }
+
+   // package-private: the pieces of the simulation
+   // ---------------------------------------------
+
+   long initial() { return initial; }
+
+   long matchMask() { return matchMask; }
+
+   RegExprAlphabet alphabet() { return alphabet; }
+
+   /* Returns the positions that accept chars of class k.
+   */
+   long classMask(int k) { return classMask[k]; }
+
+   /* Returns the positions active after the positions in e have each
+   ** accepted a char.
+   */
+   long step(long e) {
+      long result = 0;
+      for (int j = 0; e != 0; j++) {
+         result |= follow[j][(int)e & 0xFF];
+         e = e >>> 8;
+      }
+      return result;
+   }
+
+   // private
+   // -------
+
+   private static long mask(RegExprSparseSet set, int[] position) {
+      long m = 0;
+      for (int i = 0; i != set.size(); i++) {
+         int p = position[set.get(i)];
+         if (p != -1) { m |= 1L << p; }
+      }
+      return m;
+   }
+
+}
\ No newline at end of file
@@ -0,0 +1,31 @@
+/* Thrown by the recursive isMember() methods when the RegExprMatchContext
+** governing the search runs out of steps or time, or is cancelled.
+*/
+public class RegExprBudgetExceededException extends RuntimeException {
+
+   /* Why the search was stopped.
+   */
+   public enum Reason { STEPS, DEADLINE, CANCELLED }
+
+   private static final long serialVersionUID = 1L;
+
+   private final Reason reason;
+   private final long steps;
+
+   public RegExprBudgetExceededException(Reason reason, long steps) {
+      // No stack trace: this is thrown from deep recursion, routinely.
+      super("Membership test stopped (" + reason + ") after " +
+            steps + " steps", null, false, false);
+      this.reason = reason;
+      this.steps = steps;
+   }
+
+   /* Returns the reason the search was stopped.
+   */
+   public Reason reason() { return reason; }
+
+   /* Returns the number of steps taken before the search was stopped.
+   */
+   public long steps() { return steps; }
+
+}
\ No newline at end of file
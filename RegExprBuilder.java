@@ -14,75 +14,117 @@ public class RegExprBuilder {
    private static final int STAR_OP_CODE = 1;
    private static final int BINARY_OP_CODE = 2;
    private static final int LEFT_PAREN_CODE = 3;
+   private static final int CAPTURE_OPEN_CODE = 4;
+
+   /* A union of at least this many words (e.g., a blocklist) is parsed
+   ** into a RegExprDictionary rather than a tree of RegExprUnion nodes.
+   */
+   public static final int DICTIONARY_THRESHOLD = 16;
 
    /* Reports whether or not the given string is a syntactically valid
-   ** regular expression.
+   ** regular expression, printing what is wrong with it, if anything, on
+   ** System.out.
    */
    public static boolean isValid(String s) {
-      RegExprTokenizer tokenizer = new RegExprTokenizer(s);
-      Stack<Integer> stack = new StackViaArray<Integer>();
+      String errors = syntaxErrors(s);
+      System.out.print(errors);
+      return errors.isEmpty();
+   }
+
+   /* Returns what is wrong with the given string as a regular expression,
+   ** one line per error (each ending with a newline), or "" if it is
+   ** syntactically valid.
+   */
+   public static String syntaxErrors(String s) {
+      StringBuilder err = new StringBuilder();
+      int[] tokens = RegExprTokenizer.tokenize(s);
+      IntStack stack = new IntStack();
       boolean goodSoFar = true;
-      while (goodSoFar && tokenizer.hasNext()) {
-         //System.out.printf("Next token is $%s$", 
-         //                  s.substring(tokenizer.nextStart(),
-         //                              tokenizer.nextEnd())
-         //                 );
-         if (tokenizer.hasNextLeftParen()) { 
-            //System.out.println("  ... left paren");
-            goodSoFar = handleLeftParen(stack, tokenizer);
-         }
-         else if (tokenizer.hasNextWord() || 
-                  tokenizer.hasNextLambda() ||
-                  tokenizer.hasNextNullSet()) { 
-            //System.out.println("  ... word");
-            goodSoFar = handleWord(stack, tokenizer);
-         }
-         else if (tokenizer.hasNextUnionOp() || tokenizer.hasNextConcatOp()) {
-            //System.out.println("  ... binary operator");
-            goodSoFar = handleBinaryOp(stack, tokenizer);
-         }
-         else if (tokenizer.hasNextStarOp()) {
-            //System.out.println("  ... star operator");
-            goodSoFar = handleStarOp(stack, tokenizer);
-         }
-         else if (tokenizer.hasNextRightParen()) {
-            //System.out.println("  ... right paren");
-            goodSoFar = handleRightParen(stack, tokenizer);
+      int t = 0;
+      while (goodSoFar && tokens[t] != RegExprTokenizer.END_CODE) {
+         int kind = tokens[t];
+         int pos = tokens[t+1];
+         if (kind == RegExprTokenizer.LEFT_PAREN_CODE) { 
+            goodSoFar = handleLeftParen(stack, pos, LEFT_PAREN_CODE, err);
+         }
+         else if (kind == RegExprTokenizer.CAPTURE_OPEN_CODE) { 
+            goodSoFar = handleLeftParen(stack, pos, CAPTURE_OPEN_CODE, err);
+         }
+         else if (kind == RegExprTokenizer.WORD_CODE || 
+                  kind == RegExprTokenizer.LAMBDA_CODE ||
+                  kind == RegExprTokenizer.NULL_SET_CODE) { 
+            goodSoFar = handleWord(stack, pos, err);
+         }
+         else if (kind == RegExprTokenizer.UNION_CODE ||
+                  kind == RegExprTokenizer.CONCAT_CODE) {
+            goodSoFar = handleBinaryOp(stack, pos, err);
+         }
+         else if (kind == RegExprTokenizer.STAR_CODE) {
+            goodSoFar = handleStarOp(stack, pos, err);
+         }
+         else if (kind == RegExprTokenizer.CLASS_CODE) {
+            if (parseClass(s, pos, tokens[t+2]) == null) {
+               err.append("Error at [ at position " + pos).append('\n');
+               goodSoFar = false;
+            }
+            else {
+               goodSoFar = handleWord(stack, pos, err);
+            }
+         }
+         else if (kind == RegExprTokenizer.ANY_CODE) {
+            goodSoFar = handleWord(stack, pos, err);
+         }
+         else if (kind == RegExprTokenizer.REPEAT_CODE) {
+            if (parseBounds(s, pos, tokens[t+2]) == null) {
+               err.append("Error at { at position " + pos).append('\n');
+               goodSoFar = false;
+            }
+            else {
+               goodSoFar = handleStarOp(stack, pos, err);
+            }
+         }
+         else if (kind == RegExprTokenizer.RIGHT_PAREN_CODE) {
+            goodSoFar = handleRightParen(stack, pos, LEFT_PAREN_CODE, err);
+         }
+         else if (kind == RegExprTokenizer.CAPTURE_CLOSE_CODE) {
+            goodSoFar = handleRightParen(stack, pos, CAPTURE_OPEN_CODE, err);
          }
          else {
             goodSoFar = false;
-            int i = tokenizer.nextStart();
-            int j = tokenizer.nextEnd();
-            System.out.println("Unknown type of token!:" + s.substring(i,j));
+            err.append("Unknown type of token!:" + 
+                       s.substring(pos, tokens[t+2])).append('\n');
          }
-         tokenizer.findNextToken();
+         t = t + RegExprTokenizer.TOKEN_WIDTH;
       }
       if (stack.sizeOf() != 1) {
          goodSoFar = false;
-         System.out.printf("Error: Stack ends with size %d\n", stack.sizeOf());
+         err.append("Error: Stack ends with size " + stack.sizeOf() + "\n");
       }
-      else if (stack.topOf() != OPERAND_CODE) {
+      else if (stack.topOfInt() != OPERAND_CODE) {
          goodSoFar = false;
-         System.out.println("Error: Stack ends with non-operand at top");
+         err.append("Error: Stack ends with non-operand at top").append('\n');
       }
-      return goodSoFar;  // && stack.sizeOf() == 1 && stack.topOf() == OPERAND_CODE;
+      return goodSoFar ? "" : err.toString();
    }
 
    /* Reports whether, syntactically, it makes sense for a left parenthesis
-   ** to be the next token and, if so, pushes one onto the given stack.
+   ** (or, according to the given code, the opening of a capturing group)
+   ** to be the next token (found at the given position) and, if so, pushes
+   ** the code onto the given stack.
    */
-   private static boolean handleLeftParen(Stack<Integer> stk,
-                                          RegExprTokenizer tok) {
+   private static boolean handleLeftParen(IntStack stk, int pos, int code,
+                                          StringBuilder err) {
       boolean result;
       if (stk.isEmpty() || 
-          stk.topOf() == LEFT_PAREN_CODE ||
-          stk.topOf() == BINARY_OP_CODE)
+          isOpening(stk.topOfInt()) ||
+          stk.topOfInt() == BINARY_OP_CODE)
       {
          result = true;
-         stk.push(LEFT_PAREN_CODE);
+         stk.pushInt(code);
       }
       else {
-         System.out.println("Error at '(' at position " + tok.nextStart());
+         err.append("Error at '" + openingSymbol(code) +
+                    "' at position " + pos).append('\n');
          result = false;
       }
       return result;
@@ -91,27 +133,27 @@ public class RegExprBuilder {
    /* Reports whether, syntactically, it makes sense for a word to be the
    ** next token and, if so, takes appropriate action on the given stack.
    */
-   private static boolean handleWord(Stack<Integer> stk,
-                                     RegExprTokenizer tok) {
+   private static boolean handleWord(IntStack stk, int pos,
+                                     StringBuilder err) {
       boolean result;
-      if (stk.isEmpty() || stk.topOf() == LEFT_PAREN_CODE) {
+      if (stk.isEmpty() || isOpening(stk.topOfInt())) {
          result = true;
-         stk.push(OPERAND_CODE);
+         stk.pushInt(OPERAND_CODE);
       }
-      else if (stk.topOf() == BINARY_OP_CODE) {
-         stk.pop();
-         if (!stk.isEmpty() &&  stk.topOf() == OPERAND_CODE) {
+      else if (stk.topOfInt() == BINARY_OP_CODE) {
+         stk.popInt();
+         if (!stk.isEmpty() &&  stk.topOfInt() == OPERAND_CODE) {
             result = true;
-            stk.pop();
-            stk.push(OPERAND_CODE);
+            stk.popInt();
+            stk.pushInt(OPERAND_CODE);
          }
          else {
-            System.out.println("Error at word at position " + tok.nextStart());
+            err.append("Error at word at position " + pos).append('\n');
             result = false;
          }
       }
       else {
-         System.out.println("Error at word at position " + tok.nextStart());
+         err.append("Error at word at position " + pos).append('\n');
          result = false;
       }
       return result;
@@ -120,16 +162,15 @@ public class RegExprBuilder {
    /* Reports whether, syntactically, it makes sense for a binary operator
    ** to be the next token and, if so, it pushes it onto the stack.
    */
-   private static boolean handleBinaryOp(Stack<Integer> stk,
-                                         RegExprTokenizer tok) {
+   private static boolean handleBinaryOp(IntStack stk, int pos,
+                                         StringBuilder err) {
       boolean result;
-      if (!stk.isEmpty() &&  stk.topOf() == OPERAND_CODE) {
+      if (!stk.isEmpty() &&  stk.topOfInt() == OPERAND_CODE) {
          result = true;
-         stk.push(BINARY_OP_CODE);
+         stk.pushInt(BINARY_OP_CODE);
       }
       else {
-         System.out.println("Error at binary operator at position " + 
-                            tok.nextStart());
+         err.append("Error at binary operator at position " + pos).append('\n');
          result = false;
       }
       return result;
@@ -137,102 +178,162 @@ public class RegExprBuilder {
 
    /* Reports whether, syntactically, it makes sense for a star operator
    ** (which is a unary suffix operator) to be the next token and, if so, 
-   ** it takes appropriate action on the given stack.
+   ** it takes appropriate action on the given stack.  (A repetition suffix
+   ** is handled in the same way.)
    */
-   private static boolean handleStarOp(Stack<Integer> stk,
-                                       RegExprTokenizer tok) {
+   private static boolean handleStarOp(IntStack stk, int pos,
+                                       StringBuilder err) {
       boolean result;
-      if (!stk.isEmpty() &&  stk.topOf() == OPERAND_CODE) {
-         stk.pop();
-         result = handleWord(stk, tok);
-         //result = true;
+      if (!stk.isEmpty() &&  stk.topOfInt() == OPERAND_CODE) {
+         stk.popInt();
+         result = handleWord(stk, pos, err);
       }
       else {
-         System.out.println("Error at * at position " + tok.nextStart());
+         err.append("Error at * at position " + pos).append('\n');
          result = false;
       }
       return result;
    }
 
    /* Reports whether, syntactically, it makes sense for a right parenthesis
-   ** to be the next token and, if so, takes appropriate actions on the
-   ** given stack.  The stack must have an operand and a left paren, which
-   ** are replaced by an operand.
+   ** (or the closing of a capturing group) to be the next token and, if so,
+   ** takes appropriate actions on the given stack.  The stack must have an
+   ** operand and the matching opening (given by code), which are replaced
+   ** by an operand.
    */
-   private static boolean handleRightParen(Stack<Integer> stk,
-                                           RegExprTokenizer tok) {
+   private static boolean handleRightParen(IntStack stk, int pos, int code,
+                                           StringBuilder err) {
       boolean result;
-      if (!stk.isEmpty() && stk.topOf() == OPERAND_CODE) {
-         stk.pop();
-         if (!stk.isEmpty()  &&  stk.topOf() == LEFT_PAREN_CODE) { 
-            //result = true;
-            //stk.push(OPERAND_CODE);
-            stk.pop();
-            result = handleWord(stk, tok);
+      if (!stk.isEmpty() && stk.topOfInt() == OPERAND_CODE) {
+         stk.popInt();
+         if (!stk.isEmpty()  &&  stk.topOfInt() == code) { 
+            stk.popInt();
+            result = handleWord(stk, pos, err);
          }
          else {
-            System.out.println("Error at ) at position " + tok.nextStart());
+            err.append("Error at " + closingSymbol(code) + " at position " + pos).append('\n');
             result = false;
          }
       }
       else {
-         System.out.println("Error at ) at position " + tok.nextStart());
+         err.append("Error at " + closingSymbol(code) + " at position " + pos).append('\n');
          result = false;
       }
       return result;
    }
 
+   private static char openingSymbol(int code) {
+      return code == LEFT_PAREN_CODE ? RegExprSymbols.LEFT_PAREN
+                                     : RegExprSymbols.CAPTURE_OPEN;
+   }
+
+   private static char closingSymbol(int code) {
+      return code == LEFT_PAREN_CODE ? RegExprSymbols.RIGHT_PAREN
+                                     : RegExprSymbols.CAPTURE_CLOSE;
+   }
+
+   private static boolean isOpening(int code) {
+      return code == LEFT_PAREN_CODE || code == CAPTURE_OPEN_CODE;
+   }
+
    /* Returns an instance of the appropriate child class of RegularExpression
-   ** corresponding to the given string.
+   ** corresponding to the given string.  Capturing groups are numbered
+   ** 1, 2, ... in the order of their opening symbols.
    ** pre: isValid(s)
+   **
+   ** Alongside each operand, wordStk holds the list of words of which it is
+   ** the union, if it is a union of words (or a word), and otherwise null.
+   ** Once such a union reaches DICTIONARY_THRESHOLD words its RegExprUnion
+   ** nodes are no longer built (the operand is null), and when it becomes
+   ** an operand of some other operator, or the result, it is made into a
+   ** RegExprDictionary instead (see popOperand()).
    */
    public static RegularExpression parse(String s) {
       Stack<RegularExpression> operandStk = new StackViaArray<RegularExpression>();
-      Stack<Character> operatorStk = new StackViaArray<Character>();
-      RegExprTokenizer tokenizer = new RegExprTokenizer('(' + s + ')');
-      
-      while (tokenizer.hasNext()) {
-         if (tokenizer.hasNextWord()) {
-            operandStk.push(new RegExprWord(tokenizer.next()));
-         }
-         else if (tokenizer.hasNextLambda()) {
-            tokenizer.findNextToken();
-            operandStk.push(new RegExprWord(""));
-         }
-         else if (tokenizer.hasNextNullSet()) {
-            tokenizer.findNextToken();
-            operandStk.push(new RegExprNullSet());
-         }
-         else if (tokenizer.hasNextLeftParen()) { 
-            tokenizer.findNextToken();
-            operatorStk.push(RegExprSymbols.LEFT_PAREN);
-         }
-         else if (tokenizer.hasNextRightParen()) { 
-            tokenizer.findNextToken();
-            while (operatorStk.topOf() != RegExprSymbols.LEFT_PAREN)
+      Stack<java.util.Deque<String>> wordStk =
+         new StackViaArray<java.util.Deque<String>>();
+      CharStack operatorStk = new CharStack();
+      IntStack groupStk = new IntStack();    // numbers of the open groups
+      int numGroups = 0;
+      int[] tokens = RegExprTokenizer.tokenize(s);
+
+      // The whole expression is treated as though it were enclosed in
+      // parentheses; this is the implicit left one.
+      operatorStk.pushChar(RegExprSymbols.LEFT_PAREN);
+      int t = 0;
+      boolean keepGoing = true;
+      while (keepGoing) {
+         int kind = tokens[t];
+         if (kind == RegExprTokenizer.WORD_CODE) {
+            pushWord(s.substring(tokens[t+1], tokens[t+2]),
+                     operandStk, wordStk);
+         }
+         else if (kind == RegExprTokenizer.LAMBDA_CODE) {
+            pushWord("", operandStk, wordStk);
+         }
+         else if (kind == RegExprTokenizer.NULL_SET_CODE) {
+            pushOperand(new RegExprNullSet(), operandStk, wordStk);
+         }
+         else if (kind == RegExprTokenizer.CLASS_CODE) {
+            pushOperand(parseClass(s, tokens[t+1], tokens[t+2]),
+                        operandStk, wordStk);
+         }
+         else if (kind == RegExprTokenizer.ANY_CODE) {
+            pushOperand(RegExprCharClass.ANY, operandStk, wordStk);
+         }
+         else if (kind == RegExprTokenizer.LEFT_PAREN_CODE) { 
+            operatorStk.pushChar(RegExprSymbols.LEFT_PAREN);
+         }
+         else if (kind == RegExprTokenizer.CAPTURE_OPEN_CODE) { 
+            operatorStk.pushChar(RegExprSymbols.CAPTURE_OPEN);
+            numGroups++;
+            groupStk.pushInt(numGroups);
+         }
+         else if (kind == RegExprTokenizer.CAPTURE_CLOSE_CODE) { 
+            while (operatorStk.topOfChar() != RegExprSymbols.CAPTURE_OPEN) {
+               applyOp(operatorStk.popChar(), operandStk, wordStk);
+            }
+            operatorStk.popChar();  // Pop the group's opening
+            RegularExpression r = popOperand(operandStk, wordStk);
+            pushOperand(new RegExprCapture(r, groupStk.popInt()),
+                        operandStk, wordStk);
+         }
+         else if (kind == RegExprTokenizer.REPEAT_CODE) {
+            // A suffix operator of the highest precedence, so it can be 
+            // applied at once, after any stars still pending.
+            while (operatorStk.topOfChar() == RegExprSymbols.STAR_OP) {
+               applyOp(operatorStk.popChar(), operandStk, wordStk);
+            }
+            int[] bounds = parseBounds(s, tokens[t+1], tokens[t+2]);
+            RegularExpression r = popOperand(operandStk, wordStk);
+            pushOperand(new RegExprRepeat(r, bounds[0], bounds[1]),
+                        operandStk, wordStk);
+         }
+         else if (kind == RegExprTokenizer.RIGHT_PAREN_CODE ||
+                  kind == RegExprTokenizer.END_CODE) { 
+            // END_CODE plays the role of the implicit right parenthesis
+            while (operatorStk.topOfChar() != RegExprSymbols.LEFT_PAREN)
             {
-               char operator = operatorStk.pop();
-               applyOp(operator, operandStk);
+               applyOp(operatorStk.popChar(), operandStk, wordStk);
             }
-            operatorStk.pop();  // Pop the left parenthesis
+            operatorStk.popChar();  // Pop the left parenthesis
+            keepGoing = kind != RegExprTokenizer.END_CODE;
          }
-         else if (tokenizer.hasNextOperator()) {
-            char thisOp = tokenizer.next().charAt(0);
+         else {   // a binary or star operator
+            char thisOp = s.charAt(tokens[t+1]);
             while (!operatorStk.isEmpty() &&
-                   precedenceVal(operatorStk.topOf()) >= precedenceVal(thisOp))
+                   precedenceVal(operatorStk.topOfChar()) >= 
+                   precedenceVal(thisOp))
             {
-               char operator = operatorStk.pop();
-               applyOp(operator, operandStk);
+               applyOp(operatorStk.popChar(), operandStk, wordStk);
             }
-            operatorStk.push(thisOp);
-         }
-         else {
-            assert false : "This should never happen!!";
+            operatorStk.pushChar(thisOp);
          }
+         t = t + RegExprTokenizer.TOKEN_WIDTH;
       }
       assert operandStk.sizeOf() == 1 : "Operand stack size not 1 at end";
       assert operatorStk.isEmpty() : "Operator stack not empty at end";
-      return operandStk.topOf();
+      return popOperand(operandStk, wordStk);
    }
 
    // private
@@ -241,33 +342,179 @@ public class RegExprBuilder {
    /* Applies the given operator to the top one or two operands on 
    ** the given stack (according to whether the operator is unary
    ** or binary, respectively) and replaces that/those operand(s) on
-   ** the stack by the resulting regular expression. 
+   ** the stack by the resulting regular expression.  A union of two
+   ** unions of words is a union of words (see parse()).
    */
    private static void applyOp(char operator, 
-                               Stack<RegularExpression> operandStack) {
+                               Stack<RegularExpression> operandStack,
+                               Stack<java.util.Deque<String>> wordStack) {
 
       if (operator == RegExprSymbols.UNION_OP) {
+         java.util.Deque<String> sWords = wordStack.pop();
          RegularExpression s = operandStack.pop();
-         RegularExpression r = operandStack.pop();
-         operandStack.push(new RegExprUnion(r,s));
+         if (sWords != null  &&  wordStack.topOf() != null) {
+            java.util.Deque<String> rWords = wordStack.pop();
+            RegularExpression r = operandStack.pop();
+            // add the shorter list to the longer one, so that a chain of
+            // unions nested either way takes time linear in its words
+            java.util.Deque<String> words;
+            if (rWords.size() >= sWords.size()) {
+               rWords.addAll(sWords);
+               words = rWords;
+            }
+            else {
+               java.util.Iterator<String> it = rWords.descendingIterator();
+               while (it.hasNext()) { sWords.addFirst(it.next()); }
+               words = sWords;
+            }
+            if (r == null  ||  words.size() >= DICTIONARY_THRESHOLD) {
+               operandStack.push(null);   // too big for a tree
+            }
+            else {
+               operandStack.push(new RegExprUnion(r,s));
+            }
+            wordStack.push(words);
+         }
+         else {
+            if (s == null) { s = RegExprDictionary.of(sWords); }
+            RegularExpression r = popOperand(operandStack, wordStack);
+            pushOperand(new RegExprUnion(r,s), operandStack, wordStack);
+         }
       }
       else if (operator == RegExprSymbols.CONCAT_OP) {
-         RegularExpression s = operandStack.pop();
-         RegularExpression r = operandStack.pop();
-         operandStack.push(new RegExprConcat(r,s));
+         RegularExpression s = popOperand(operandStack, wordStack);
+         RegularExpression r = popOperand(operandStack, wordStack);
+         pushOperand(new RegExprConcat(r,s), operandStack, wordStack);
       }
       else if (operator == RegExprSymbols.STAR_OP) {
-         RegularExpression r = operandStack.pop();
-         operandStack.push(new RegExprStar(r));
+         RegularExpression r = popOperand(operandStack, wordStack);
+         pushOperand(new RegExprStar(r), operandStack, wordStack);
       } 
    }
 
-   private static int precedenceVal(char op) {
-      String PRECEDENCE = 
-         "" + RegExprSymbols.LEFT_PAREN + RegExprSymbols.UNION_OP + 
-              RegExprSymbols.CONCAT_OP + RegExprSymbols.STAR_OP;
+   private static void pushWord(String w, Stack<RegularExpression> operandStack,
+                                Stack<java.util.Deque<String>> wordStack) {
+      java.util.Deque<String> words = new java.util.ArrayDeque<String>();
+      words.add(w);
+      operandStack.push(new RegExprWord(w));
+      wordStack.push(words);
+   }
+
+   private static void pushOperand(RegularExpression r,
+                                   Stack<RegularExpression> operandStack,
+                                   Stack<java.util.Deque<String>> wordStack) {
+      operandStack.push(r);
+      wordStack.push(null);
+   }
 
-      return PRECEDENCE.indexOf(op);
+   /* Pops and returns the top operand, making a RegExprDictionary of it if
+   ** it is a union of words too big to have been built as a tree.
+   */
+   private static RegularExpression popOperand(
+                                   Stack<RegularExpression> operandStack,
+                                   Stack<java.util.Deque<String>> wordStack) {
+      RegularExpression r = operandStack.pop();
+      java.util.Deque<String> words = wordStack.pop();
+      return r != null ? r : RegExprDictionary.of(words);
+   }
+
+   /* Returns the bounds {n, m} described by the repetition suffix in
+   ** s[from..to), which is of the form {n}, {n,}, or {n,m}; m is -1 in the
+   ** case {n,}, and n in the case {n}.  Returns null if the suffix is not
+   ** of one of those forms, if n > m, or if a bound exceeds MAX_BOUND.
+   */
+   static int[] parseBounds(String s, int from, int to) {
+      if (to - from < 3  ||  s.charAt(from) != RegExprSymbols.LEFT_BRACE ||
+          s.charAt(to - 1) != RegExprSymbols.RIGHT_BRACE)
+      {
+         return null;
+      }
+      String body = s.substring(from + 1, to - 1).trim();
+      int comma = body.indexOf(RegExprSymbols.BOUNDS_SEPARATOR);
+      int min, max;
+      try {
+         if (comma == -1) {
+            min = max = parseBound(body);
+         }
+         else {
+            min = parseBound(body.substring(0, comma).trim());
+            String maxStr = body.substring(comma + 1).trim();
+            max = maxStr.length() == 0 ? -1 : parseBound(maxStr);
+         }
+      }
+      catch (NumberFormatException e) {
+         return null;
+      }
+      if (max != -1  &&  min > max) { return null; }
+      return new int[] { min, max };
+   }
+
+   /* Returns the character class described by s[from..to), which is of the
+   ** form [items] or [^items], where each item is a single char or a range
+   ** lo-hi with lo <= hi.  A ']' first among the items, and a '-' first or
+   ** last, stand for themselves.  Returns null if s[from..to) is not of
+   ** that form (e.g., it is unterminated, or has no items).
+   */
+   static RegExprCharClass parseClass(String s, int from, int to) {
+      if (to - from < 3  ||  s.charAt(from) != RegExprSymbols.LEFT_BRACKET ||
+          s.charAt(to - 1) != RegExprSymbols.RIGHT_BRACKET)
+      {
+         return null;
+      }
+      int i = from + 1;
+      final int end = to - 1;
+      boolean negated = s.charAt(i) == RegExprSymbols.CLASS_NEGATION;
+      if (negated) { i++; }
+      if (i == end) { return null; }
+      char[] ranges = new char[2 * (end - i)];
+      int n = 0;
+      while (i != end) {
+         char lo = s.charAt(i);
+         char hi = lo;
+         if (i + 2 < end  &&  s.charAt(i + 1) == RegExprSymbols.CLASS_RANGE) {
+            hi = s.charAt(i + 2);
+            if (hi < lo) { return null; }
+            i = i + 3;
+         }
+         else {
+            i = i + 1;
+         }
+         ranges[n++] = lo;
+         ranges[n++] = hi;
+      }
+      return new RegExprCharClass(java.util.Arrays.copyOf(ranges, n), negated);
+   }
+
+   private static final int MAX_BOUND = 100000;
+
+   private static int parseBound(String digits) {
+      for (int i = 0; i != digits.length(); i++) {
+         if (!Character.isDigit(digits.charAt(i))) {
+            throw new NumberFormatException(digits);
+         }
+      }
+      int n = Integer.parseInt(digits);
+      if (n > MAX_BOUND) { throw new NumberFormatException(digits); }
+      return n;
+   }
+
+   /* PRECEDENCE[c] is the precedence of operator c (higher binds tighter),
+   ** with the left parenthesis lowest so that it is never popped by an
+   ** arriving operator.
+   */
+   private static final int[] PRECEDENCE = new int[128];
+
+   static {
+      java.util.Arrays.fill(PRECEDENCE, -1);
+      PRECEDENCE[RegExprSymbols.LEFT_PAREN] = 0;
+      PRECEDENCE[RegExprSymbols.CAPTURE_OPEN] = 0;
+      PRECEDENCE[RegExprSymbols.UNION_OP] = 1;
+      PRECEDENCE[RegExprSymbols.CONCAT_OP] = 2;
+      PRECEDENCE[RegExprSymbols.STAR_OP] = 3;
+   }
+
+   private static int precedenceVal(char op) {
+      return op < PRECEDENCE.length ? PRECEDENCE[op] : -1;
    }
    
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+import java.util.Random;
+
+/* An instance of this class models a capturing group, <r>: it describes
+** the same language as r, but a RegExprMatcher (see matchGroups()) also
+** reports which part of a matched string r matched.  Groups are numbered
+** from 1; group 0 stands for the whole string.
+*/
+public class RegExprCapture extends RegularExpression {
+
+   // instance variables
+   // ------------------
+
+   private RegularExpression r;
+   private final int group;
+   private final int hash;
+
+   // constructor
+   // -----------
+
+   /* Establishes this regular expression as group number 'group', <r>.
+   ** pre: group >= 1
+   */
+   public RegExprCapture(RegularExpression regExpr, int group) {
+      r = regExpr;
+      this.group = group;
+      hash = 31 * (31 * RegExprCapture.class.hashCode() +
+                   regExpr.hashCode()) + group;
+   }
+
+   // observers
+   // ---------
+
+   /* Returns r, the operand.
+   */
+   RegularExpression body() { return r; }
+
+   /* Returns the number of this group.
+   */
+   public int group() { return group; }
+
+   @Override
+   public boolean isMember(String x, RegExprMatchContext ctx) {
+      ctx.step();
+      return r.isMember(x, ctx);
+   }
+
+   @Override
+   public boolean isFinite() { return r.isFinite(); }
+
+   @Override
+   public boolean isEmpty() { return r.isEmpty(); }
+
+   @Override
+   public int minLength() { return r.minLength(); }
+
+   @Override
+   public int maxLength() { return r.maxLength(); }
+
+   @Override
+   public String randomMember(Random rand) { return r.randomMember(rand); }
+
+   @Override
+   public String toString() {
+      return RegExprSymbols.CAPTURE_OPEN + r.toString() +
+             RegExprSymbols.CAPTURE_CLOSE;
+   }
+
+   /* Two regular expressions are equal if they have the same structure
+   ** (not merely the same language); for groups, that includes their
+   ** numbers.
+   */
+   @Override
+   public boolean equals(Object o) {
+      if (o == this) { return true; }
+      if (!(o instanceof RegExprCapture)) { return false; }
+      RegExprCapture other = (RegExprCapture)o;
+      return hash == other.hash && group == other.group && r.equals(other.r);
+   }
+
+   @Override
+   public int hashCode() { return hash; }
+
+   @Override
+   public RegularExpression reverse() {
+      return new RegExprCapture(r.reverse(), group);
+   }
+
+   /* Compiles to r's states between two SAVE states, which record the
+   ** positions at which the group begins and ends.
+   */
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) {
+      int end = nfa.addSave(2 * group + 1, next);
+      return nfa.addSave(2 * group, nfa.compile(r, end));
+   }
+
+}
\ No newline at end of file
@@ -0,0 +1,281 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/* An instance of this class models a regular expression that represents
+** a set of one-character strings: a character class such as [a-z] or
+** [aeiou0-9], a negated class such as [^a-z] (every char not in the
+** class), or the wildcard ~ (every char).  E.g., [a-z] describes the same
+** language as (a + b + ... + z), but as a single node, which compiles to
+** a single NFA state rather than to 26 states and 25 splits.
+**
+** The class is kept as a range set: a sorted array of disjoint, non-
+** adjacent [lo..hi] pairs, lo0, hi0, lo1, hi1, ...  Membership of the
+** ASCII chars is also recorded in a 128-bit bitset, so that for them it
+** is a bit test rather than a binary search.
+*/
+public class RegExprCharClass extends RegularExpression {
+
+   /* The wildcard, which matches any one char.
+   */
+   public static final RegExprCharClass ANY =
+      new RegExprCharClass(new char[0], true);
+
+   // instance variables
+   // ------------------
+
+   private final char[] ranges;     // the items, as written (normalized)
+   private final boolean negated;
+   private final char[] members;    // the chars matched, as a range set
+   private final long ascii0, ascii1;   // bitset of the members below 128
+   private final int hash;
+
+   // constructor
+   // -----------
+
+   /* Establishes this regular expression as the class of the chars in the
+   ** given [lo..hi] pairs (which may overlap, and be in any order), or, if
+   ** negated, of the chars in none of them.
+   ** pre: ranges.length is even && ranges[2i] <= ranges[2i+1] for each i
+   */
+   public RegExprCharClass(char[] ranges, boolean negated) {
+      this.ranges = normalize(ranges);
+      this.negated = negated;
+      this.members = negated ? complement(this.ranges) : this.ranges;
+      long a0 = 0, a1 = 0;
+      for (int c = 0; c != 128; c++) {
+         if (contains(members, (char)c)) {
+            if (c < 64) { a0 |= 1L << c; } else { a1 |= 1L << (c - 64); }
+         }
+      }
+      ascii0 = a0;
+      ascii1 = a1;
+      hash = 31 * (31 * RegExprCharClass.class.hashCode() +
+                   Arrays.hashCode(this.ranges)) + (negated ? 1 : 0);
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the chars in this class as a range set (not to be modified).
+   */
+   char[] members() { return members; }
+
+   /* Returns the items of this class as written (normalized), which are
+   ** the chars not in it if it is negated.
+   */
+   char[] ranges() { return ranges; }
+
+   boolean isNegated() { return negated; }
+
+   @Override
+   public boolean isMember(String x, RegExprMatchContext ctx) {
+      ctx.step();
+      return x.length() == 1  &&  matches(x.charAt(0));
+   }
+
+   /* Reports whether the given char is in this class.
+   */
+   public boolean matches(char c) {
+      if (c < 64) { return (ascii0 & (1L << c)) != 0; }
+      else if (c < 128) { return (ascii1 & (1L << (c - 64))) != 0; }
+      else { return contains(members, c); }
+   }
+
+   /* Returns the number of chars in this class.
+   */
+   public int size() { return count(members); }
+
+   @Override
+   public boolean isFinite() { return true; }
+
+   @Override
+   public boolean isEmpty() { return members.length == 0; }
+
+   @Override
+   public int minLength() { return isEmpty() ? -1 : 1; }
+
+   @Override
+   public int maxLength() { return isEmpty() ? -1 : 1; }
+
+   /* Returns a pseudo-randomly chosen char of this class, as a string.
+   ** The printable ASCII chars of the class are preferred, if it has any,
+   ** so that (for instance) the wildcard does not produce control chars
+   ** or unpaired surrogates.
+   */
+   @Override
+   public String randomMember(Random rand) {
+      final char[] PRINTABLE = { ' ', '~' };
+      char[] choices = intersect(members, PRINTABLE);
+      if (choices.length == 0) { choices = members; }
+      int k = rand.nextInt(count(choices));
+      int i = 0;
+      while (k > choices[i+1] - choices[i]) {
+         k = k - (choices[i+1] - choices[i] + 1);
+         i = i + 2;
+      }
+      return String.valueOf((char)(choices[i] + k));
+   }
+
+   /* Returns the class as written: the items in increasing order, except
+   ** that ']' comes first, and '-' first or last, where they stand for
+   ** themselves.  A class of the char '^' alone is written as the word ^.
+   */
+   @Override
+   public String toString() {
+      if (negated  &&  ranges.length == 0) {
+         return "" + RegExprSymbols.ANY_CHAR;
+      }
+      final char[] SPECIAL = { RegExprSymbols.RIGHT_BRACKET,
+                               RegExprSymbols.CLASS_NEGATION,
+                               RegExprSymbols.CLASS_RANGE };
+      boolean hasBracket = contains(ranges, RegExprSymbols.RIGHT_BRACKET);
+      boolean hasCaret = contains(ranges, RegExprSymbols.CLASS_NEGATION);
+      boolean hasDash = contains(ranges, RegExprSymbols.CLASS_RANGE);
+      char[] plain = ranges;
+      for (char c : SPECIAL) { plain = subtract(plain, c); }
+      if (!negated && !hasBracket && !hasDash && plain.length == 0) {
+         return "" + RegExprSymbols.CLASS_NEGATION;
+      }
+
+      StringBuilder b = new StringBuilder();
+      b.append(RegExprSymbols.LEFT_BRACKET);
+      if (negated) { b.append(RegExprSymbols.CLASS_NEGATION); }
+      if (hasBracket) { b.append(RegExprSymbols.RIGHT_BRACKET); }
+      else if (hasDash) { b.append(RegExprSymbols.CLASS_RANGE); }
+      for (int i = 0; i != plain.length; i = i + 2) {
+         b.append(plain[i]);
+         if (plain[i+1] != plain[i]) {
+            if (plain[i+1] != plain[i] + 1) { b.append(RegExprSymbols.CLASS_RANGE); }
+            b.append(plain[i+1]);
+         }
+      }
+      if (hasCaret) { b.append(RegExprSymbols.CLASS_NEGATION); }
+      if (hasBracket && hasDash) { b.append(RegExprSymbols.CLASS_RANGE); }
+      return b.append(RegExprSymbols.RIGHT_BRACKET).toString();
+   }
+
+   /* Two regular expressions are equal if they have the same structure
+   ** (not merely the same language); for classes, the same items (after
+   ** normalization) and the same negation.
+   */
+   @Override
+   public boolean equals(Object o) {
+      if (o == this) { return true; }
+      if (!(o instanceof RegExprCharClass)) { return false; }
+      RegExprCharClass other = (RegExprCharClass)o;
+      return hash == other.hash && negated == other.negated &&
+             Arrays.equals(ranges, other.ranges);
+   }
+
+   @Override
+   public int hashCode() { return hash; }
+
+   @Override
+   public RegularExpression reverse() { return this; }
+
+   /* Compiles to a single SET state, on whose range set the alphabet
+   ** construction (RegExprAlphabet) then draws its class boundaries.
+   */
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) {
+      if (members.length == 2  &&  members[0] == members[1]) {
+         return nfa.addChar(members[0], members[1], next);
+      }
+      return nfa.addSet(members, next);
+   }
+
+   // range sets
+   // ----------
+
+   /* Reports whether c is in the given range set.
+   */
+   static boolean contains(char[] set, char c) {
+      // Binary search over the pairs for the last lo <= c.
+      int low = 0, high = set.length / 2 - 1;
+      while (low <= high) {
+         int mid = (low + high) >>> 1;
+         if (set[2 * mid] <= c) { low = mid + 1; } else { high = mid - 1; }
+      }
+      return high >= 0  &&  c <= set[2 * high + 1];
+   }
+
+   /* Returns the range set of the chars in the given pairs: sorted, with
+   ** overlapping and adjacent pairs merged.
+   */
+   static char[] normalize(char[] pairs) {
+      final int n = pairs.length / 2;
+      long[] packed = new long[n];
+      for (int i = 0; i != n; i++) {
+         packed[i] = ((long)pairs[2*i] << 16) | pairs[2*i+1];
+      }
+      Arrays.sort(packed);
+      char[] result = new char[pairs.length];
+      int m = 0;
+      for (int i = 0; i != n; i++) {
+         char lo = (char)(packed[i] >>> 16);
+         char hi = (char)packed[i];
+         if (m != 0  &&  lo <= result[m-1] + 1) {
+            if (hi > result[m-1]) { result[m-1] = hi; }
+         }
+         else {
+            result[m++] = lo;
+            result[m++] = hi;
+         }
+      }
+      return Arrays.copyOf(result, m);
+   }
+
+   /* Returns the range set of the chars not in the given one.
+   */
+   static char[] complement(char[] set) {
+      char[] result = new char[set.length + 2];
+      int m = 0;
+      int next = 0;    // smallest char not yet accounted for
+      for (int i = 0; i != set.length; i = i + 2) {
+         if (set[i] > next) {
+            result[m++] = (char)next;
+            result[m++] = (char)(set[i] - 1);
+         }
+         next = set[i+1] + 1;
+      }
+      if (next <= Character.MAX_VALUE) {
+         result[m++] = (char)next;
+         result[m++] = Character.MAX_VALUE;
+      }
+      return Arrays.copyOf(result, m);
+   }
+
+   /* Returns the range set of the chars in both given ones.
+   */
+   static char[] intersect(char[] a, char[] b) {
+      char[] result = new char[a.length + b.length];
+      int m = 0;
+      int i = 0, j = 0;
+      while (i != a.length  &&  j != b.length) {
+         char lo = (char)Math.max(a[i], b[j]);
+         char hi = (char)Math.min(a[i+1], b[j+1]);
+         if (lo <= hi) {
+            result[m++] = lo;
+            result[m++] = hi;
+         }
+         if (a[i+1] < b[j+1]) { i = i + 2; } else { j = j + 2; }
+      }
+      return Arrays.copyOf(result, m);
+   }
+
+   // private
+   // -------
+
+   private static int count(char[] set) {
+      int n = 0;
+      for (int i = 0; i != set.length; i = i + 2) {
+         n = n + set[i+1] - set[i] + 1;
+      }
+      return n;
+   }
+
+   private static char[] subtract(char[] set, char c) {
+      return intersect(set, complement(new char[] { c, c }));
+   }
+
+}
\ No newline at end of file
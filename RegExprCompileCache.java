@@ -0,0 +1,121 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/* An instance of this class remembers the NFA fragments compiled for
+** subexpressions, keyed by the subexpressions' structure (equals() and
+** hashCode() of the RegularExpression classes), so that compiling an
+** expression that shares subtrees with one compiled earlier (e.g., an
+** edited rule, or a rulebase being reloaded) copies the fragments for
+** the shared subtrees instead of compiling them again.  Only some
+** subtrees are cached (the cache points of RegExprNfa.Builder.compile():
+** whole expressions, alternatives, factors and repeated bodies), so that
+** compiling a deep tree copies each state into the cache a bounded number
+** of times.
+**
+** A fragment is stored with its states renumbered from zero and with its
+** exits (transitions to whatever follows it) marked as NEXT, so that it
+** can be spliced into any NFA with a single pass of array copying; see
+** RegExprNfa.Builder.compile().  Fragments smaller than MIN_STATES are not
+** worth caching and are simply recompiled.
+**
+** The cache holds at most a given number of states in total, discarding
+** the least recently used fragments beyond that.  It may be shared among
+** threads.
+*/
+public class RegExprCompileCache {
+
+   /* Marks, in a cached fragment, a transition to the fragment's successor.
+   */
+   static final int NEXT = -2;
+
+   static final int MIN_STATES = 8;
+
+   private static final int DEFAULT_MAX_STATES = 1 << 20;
+
+   /* A compiled NFA fragment, in the same form as RegExprNfa's arrays.
+   */
+   static class Fragment {
+      final int[] kind, out1, out2;
+      final char[] lo, hi;
+      final char[][] set;
+      final int start;   // relative to the fragment, or NEXT
+
+      Fragment(int[] kind, int[] out1, int[] out2, char[] lo, char[] hi,
+               char[][] set, int start) {
+         this.kind = kind;
+         this.out1 = out1;
+         this.out2 = out2;
+         this.lo = lo;
+         this.hi = hi;
+         this.set = set;
+         this.start = start;
+      }
+
+      int size() { return kind.length; }
+   }
+
+   // instance variables
+   // ------------------
+
+   private final int maxStates;
+   private int numStates;     // total size of the cached fragments
+   private long hits, misses;
+   private final LinkedHashMap<RegularExpression, Fragment> map;
+
+   // constructors
+   // ------------
+
+   /* Establishes this cache as empty, able to hold fragments totalling
+   ** maxStates NFA states.
+   */
+   public RegExprCompileCache(int maxStates) {
+      this.maxStates = maxStates;
+      this.map = new LinkedHashMap<RegularExpression, Fragment>(64, 0.75f, true);
+   }
+
+   public RegExprCompileCache() { this(DEFAULT_MAX_STATES); }
+
+   // observers
+   // ---------
+
+   public synchronized int size() { return map.size(); }
+
+   public synchronized int numStates() { return numStates; }
+
+   public synchronized long hits() { return hits; }
+
+   public synchronized long misses() { return misses; }
+
+   // package-private: used by RegExprNfa.Builder
+   // -------------------------------------------
+
+   /* Returns the fragment cached for an expression structurally equal to r,
+   ** or null if there is none.
+   */
+   synchronized Fragment get(RegularExpression r) {
+      Fragment f = map.get(r);
+      if (f == null) { misses++; } else { hits++; }
+      return f;
+   }
+
+   /* Caches the given fragment as the compiled form of r, then discards
+   ** least recently used fragments until the cache is within its bound
+   ** (a large fragment may displace several small ones).
+   */
+   synchronized void put(RegularExpression r, Fragment f) {
+      if (f.size() < MIN_STATES  ||  f.size() > maxStates) { return; }
+      Fragment old = map.put(r, f);
+      numStates = numStates + f.size() - (old == null ? 0 : old.size());
+      Iterator<Fragment> eldest = map.values().iterator();
+      while (numStates > maxStates) {
+         numStates = numStates - eldest.next().size();
+         eldest.remove();
+      }
+   }
+
+   public synchronized void clear() {
+      map.clear();
+      numStates = 0;
+   }
+
+}
\ No newline at end of file
@@ -12,6 +12,7 @@ public class RegExprConcat extends RegularExpression {
    // ------------------
 
    private RegularExpression alpha, beta;
+   private final int hash;
 
    // constructor
    // -----------
@@ -23,12 +24,22 @@ public class RegExprConcat extends RegularExpression {
                         RegularExpression second) {
       alpha = first;
       beta = second;
+      hash = 31 * (31 * RegExprConcat.class.hashCode() + first.hashCode()) + 
+             second.hashCode();
    }
 
 
    // observers
    // ---------
 
+   /* Returns alpha, the first operand.
+   */
+   RegularExpression first() { return alpha; }
+
+   /* Returns beta, the second operand.
+   */
+   RegularExpression second() { return beta; }
+
    /* Reports whether or not the given string is a member of the language
    ** represented by this regular expression.
    ** A string x is a member of L(alpha.beta) iff there exist strings 
@@ -38,14 +49,15 @@ public class RegExprConcat extends RegularExpression {
    ** (3) z is a member of L(beta).
    */
    @Override
-   public boolean isMember(String x) {
+   public boolean isMember(String x, RegExprMatchContext ctx) {
       boolean member = false;
       String firstSeg, lastSeg;
       
-      for(int i = 0; i < x.length(); i++){
+      ctx.step();
+      for(int i = 0; !member && i <= x.length(); i++){
          firstSeg = x.substring(0, i);
          lastSeg = x.substring(i);
-         if(alpha.isMember(firstSeg) && beta.isMember(lastSeg)){
+         if(alpha.isMember(firstSeg, ctx) && beta.isMember(lastSeg, ctx)){
             member = true;
          }
       }
@@ -53,39 +65,30 @@ public class RegExprConcat extends RegularExpression {
       return member;
    }
 
+   /* L(alpha.beta) is finite iff it is empty or both L(alpha) and L(beta)
+   ** are finite.  (Scanning the image for a star operator is not enough
+   ** now that counted repetition r{n,} can also make a language infinite.)
+   */
    @Override
    public boolean isFinite() {
-      String newExpression = alpha.toString() + beta.toString();
-      boolean noStarFound = true;
-      
-      for(int i = 0; i < newExpression.length(); i++){
-         if(newExpression.charAt(i) == RegExprSymbols.STAR_OP){
-            noStarFound = false;
-         }
-      }
-      return noStarFound;
+      return isEmpty() || (alpha.isFinite() && beta.isFinite());
    }
 
    @Override
    public boolean isEmpty() {
-      String newExpression = alpha.toString() + beta.toString();
-      boolean empty = true;
-      
-      if(newExpression.length() > 0){
-         empty = false;
-      }
-      
-      return empty;
+      return alpha.isEmpty() || beta.isEmpty();
    }
 
    @Override
    public int minLength() {
-      return alpha.minLength() + beta.minLength();
+      if (isEmpty()) { return -1; }
+      return addLengths(alpha.minLength(), beta.minLength());
    }
 
    @Override
    public int maxLength() {
-      return alpha.maxLength() + beta.maxLength();
+      if (isEmpty()) { return -1; }
+      return addLengths(alpha.maxLength(), beta.maxLength());
    }
 
    @Override
@@ -98,8 +101,28 @@ public class RegExprConcat extends RegularExpression {
       return alpha.toString() + RegExprSymbols.CONCAT_OP + beta.toString();
    }
    
+   /* Two regular expressions are equal if they have the same structure
+   ** (not merely the same language).
+   */
+   @Override
+   public boolean equals(Object o) {
+      if (o == this) { return true; }
+      if (!(o instanceof RegExprConcat)) { return false; }
+      RegExprConcat other = (RegExprConcat)o;
+      return hash == other.hash && 
+             alpha.equals(other.alpha) && beta.equals(other.beta);
+   }
+
+   @Override
+   public int hashCode() { return hash; }
+   
    @Override
    public RegularExpression reverse() {
       return new RegExprConcat(beta.reverse(), alpha.reverse());
    }
+
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) {
+      return nfa.compile(alpha, nfa.compile(beta, next));
+   }
 }
\ No newline at end of file
@@ -0,0 +1,434 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/* An instance of this class is a deterministic finite automaton built from
+** a RegExprNfa by the subset construction, over the NFA's alphabet classes
+** (see RegExprAlphabet).  The transition table is one int[] holding a row
+** of size() columns per state.  State DEAD (0) is the rejecting state that
+** cannot be left; every DFA built here has it, so that the transition
+** function is total.
+**
+** The number of DFA states can be exponential in the size of the NFA, so
+** build() takes a budget and gives up (returning null) if it is exceeded.
+**
+** States that loop back to themselves on most chars are "accelerated":
+** once run() has taken such a state's self-loop it skips ahead over the
+** chars that keep it there instead of looking each one up in the table.
+** If only a few chars leave the state (as in ~*.ERROR.~*, whose start
+** state is left only on E), it searches for them, with String.indexOf()
+** (which the JIT compiles to a vectorized scan) if there is just one,
+** and if none leave it, it skips to the end; if the state loops on a
+** few ranges of chars (as the start state of (a + b)*.c does), it skips
+** the span of chars in those ranges with a plain comparison per char.
+*/
+public class RegExprDfa {
+
+   public static final int DEAD = 0;
+
+   private static final int MAX_ESCAPES = 3;       // see accelerate()
+   private static final int MAX_LOOP_RANGES = 2;
+
+   // instance variables
+   // ------------------
+
+   final RegExprAlphabet alphabet;
+   final int numClasses;
+   final int[] table;          // table[s * numClasses + k] = next state
+   final boolean[] accepting;
+   final int[] tags;           // null unless built with tags
+   final int start;
+   private final boolean[] accelerated;
+   private final char[][] escapes;    // the chars that leave state s, if few
+   private final char[][] loops;      // else the ranges on which s loops, if few
+
+   // constructor
+   // -----------
+
+   private RegExprDfa(RegExprAlphabet alphabet, int[] table,
+                      boolean[] accepting, int[] tags, int start) {
+      this.alphabet = alphabet;
+      this.numClasses = alphabet.size();
+      this.table = table;
+      this.accepting = accepting;
+      this.tags = tags;
+      this.start = start;
+      int n = accepting.length;
+      accelerated = new boolean[n];
+      escapes = new char[n][];
+      loops = new char[n][];
+      for (int s = 0; s != n; s++) {
+         if (s != DEAD) { accelerate(s); }
+      }
+   }
+
+   /* Returns the DFA equivalent to the given NFA, or null if it would have
+   ** more than maxStates states.
+   */
+   public static RegExprDfa build(RegExprNfa nfa, int maxStates) {
+      return new Construction(nfa, null).run(maxStates);
+   }
+
+   /* Returns the DFA equivalent to the given NFA, which may have several
+   ** MATCH states, or null if it would have more than maxStates states.
+   ** matchTags[s] is the tag of MATCH state s; the tag of an accepting DFA
+   ** state is the least of the tags of the MATCH states it stands for (see
+   ** tag()).  Used by RegExprLexer, where the tag is a rule's priority.
+   */
+   static RegExprDfa build(RegExprNfa nfa, int maxStates, int[] matchTags) {
+      return new Construction(nfa, matchTags).run(maxStates);
+   }
+
+   /* Returns the DFA for the given regular expression, or null if it would
+   ** have more than maxStates states.
+   */
+   public static RegExprDfa build(RegularExpression r, int maxStates) {
+      return build(RegExprNfa.compile(r), maxStates);
+   }
+
+   // observers
+   // ---------
+
+   public int numStates() { return accepting.length; }
+
+   public int numClasses() { return numClasses; }
+
+   public RegExprAlphabet alphabet() { return alphabet; }
+
+   public int start() { return start; }
+
+   public boolean isAccepting(int s) { return accepting[s]; }
+
+   /* Reports whether run() skips ahead in state s (see the class comment).
+   */
+   public boolean isAccelerated(int s) { return accelerated[s]; }
+
+   /* Returns the tag of state s, or -1 if it is not accepting.  (Unless the
+   ** DFA was built with tags, the tag of an accepting state is 0.)
+   */
+   public int tag(int s) {
+      if (!accepting[s]) { return -1; }
+      return tags == null ? 0 : tags[s];
+   }
+
+   /* Returns the state reached from state s on a char of class k.
+   */
+   public int next(int s, int k) { return table[s * numClasses + k]; }
+
+   /* Returns the state reached from state s on char c.
+   */
+   public int step(int s, char c) {
+      return table[s * numClasses + alphabet.classOf(c)];
+   }
+
+   /* Returns the state reached from state s on the chars x[from..to).
+   */
+   public int run(int s, CharSequence x, int from, int to) {
+      int i = from;
+      while (i != to  &&  s != DEAD) {
+         int t = table[s * numClasses + alphabet.classOf(x.charAt(i))];
+         i++;
+         if (t == s  &&  accelerated[s]  &&  i != to) {
+            i = escapes[s] != null ? skipTo(escapes[s], x, i, to)
+                                   : skipOver(loops[s], x, i, to);
+         }
+         s = t;
+      }
+      return s;
+   }
+
+   /* Reports whether the given string is accepted by this DFA.
+   */
+   public boolean accepts(CharSequence x) {
+      return accepting[run(start, x, 0, x.length())];
+   }
+
+   // private
+   // -------
+
+   /* Flags state s as accelerated if it loops on all but at most
+   ** MAX_ESCAPES chars, or on at most MAX_LOOP_RANGES ranges of chars
+   ** (merging the classes on which it loops).
+   */
+   private void accelerate(int s) {
+      char[] ranges = new char[2 * numClasses];
+      int n = 0;
+      int count = 0;
+      for (int k = 0; k != numClasses; k++) {
+         if (table[s * numClasses + k] != s) { continue; }
+         char lo = alphabet.start(k), hi = alphabet.end(k);
+         if (n != 0  &&  ranges[n - 1] + 1 == lo) { ranges[n - 1] = hi; }
+         else {
+            ranges[n++] = lo;
+            ranges[n++] = hi;
+         }
+         count += hi - lo + 1;
+      }
+      if (n == 0) { return; }
+      ranges = Arrays.copyOf(ranges, n);
+      if (Character.MAX_VALUE + 1 - count <= MAX_ESCAPES) {
+         char[] others = RegExprCharClass.complement(ranges);
+         char[] chars = new char[Character.MAX_VALUE + 1 - count];
+         int m = 0;
+         for (int i = 0; i != others.length; i = i + 2) {
+            for (int c = others[i]; c <= others[i + 1]; c++) {
+               chars[m++] = (char)c;
+            }
+         }
+         escapes[s] = chars;
+         accelerated[s] = true;
+      }
+      else if (n / 2 <= MAX_LOOP_RANGES) {
+         loops[s] = ranges;
+         accelerated[s] = true;
+      }
+   }
+
+   /* Returns the position of the first of the given chars in x[from..to),
+   ** or to if there is none.  A single char in a String searched to its end
+   ** is found by String.indexOf(); with more chars, one indexOf() per char
+   ** could scan far past the answer, so they are compared one by one.
+   */
+   private static int skipTo(char[] chars, CharSequence x, int from, int to) {
+      if (chars.length == 0) { return to; }
+      if (chars.length == 1  &&  x instanceof String  &&  to == x.length()) {
+         int j = ((String)x).indexOf(chars[0], from);
+         return j == -1 ? to : j;
+      }
+      for (int i = from; i != to; i++) {
+         char c = x.charAt(i);
+         for (char e : chars) {
+            if (c == e) { return i; }
+         }
+      }
+      return to;
+   }
+
+   /* Returns the position of the first char in x[from..to) that is not in
+   ** the given ranges (at most MAX_LOOP_RANGES of them), or to if there is
+   ** none.
+   */
+   private static int skipOver(char[] ranges, CharSequence x, int from, int to) {
+      final char lo0 = ranges[0], hi0 = ranges[1];
+      if (ranges.length == 2) {
+         for (int i = from; i != to; i++) {
+            char c = x.charAt(i);
+            if (c < lo0  ||  c > hi0) { return i; }
+         }
+         return to;
+      }
+      final char lo1 = ranges[2], hi1 = ranges[3];
+      for (int i = from; i != to; i++) {
+         char c = x.charAt(i);
+         if ((c < lo0  ||  c > hi0)  &&  (c < lo1  ||  c > hi1)) { return i; }
+      }
+      return to;
+   }
+
+   /* The subset construction.  DFA states are identified with the sets of
+   ** NFA CHAR, SET and MATCH states that they stand for (SPLIT and FAIL states
+   ** affect only which of those are reachable).  If the NFA has counters,
+   ** they are sets of configurations of those states instead (see
+   ** RegExprNfa.Config), each written in the StateSet as the state, the
+   ** number of counter values, and the (counter, value) pairs.
+   */
+   private static class Construction {
+
+      private final RegExprNfa nfa;
+      private final int[] matchTags;    // may be null
+      private final RegExprAlphabet alphabet;
+      private final int numClasses;
+      private final HashMap<StateSet, Integer> ids = new HashMap<StateSet, Integer>();
+      private StateSet[] sets = new StateSet[16];
+      private RegExprNfa.Config[][] configs;   // null unless counting
+      private int[] table = new int[16];
+      private int numStates = 0;
+
+      private final RegExprSparseSet scratch;
+      private final IntStack stack = new IntStack();
+
+      Construction(RegExprNfa nfa, int[] matchTags) {
+         this.nfa = nfa;
+         this.matchTags = matchTags;
+         this.alphabet = new RegExprAlphabet(nfa);
+         this.numClasses = alphabet.size();
+         this.scratch = new RegExprSparseSet(nfa.size());
+         if (nfa.numCounters() != 0) {
+            configs = new RegExprNfa.Config[16][];
+         }
+      }
+
+      RegExprDfa run(int maxStates) {
+         if (configs != null) { return runCounting(maxStates); }
+         stateFor(new StateSet(new int[0]));       // DEAD
+         scratch.clear();
+         nfa.addClosure(scratch, nfa.start, stack);
+         int start = stateFor(toStateSet());
+         for (int d = 0; d < numStates; d++) {     // numStates grows
+            if (numStates > maxStates) { return null; }
+            int[] members = sets[d].members;
+            for (int k = 0; k != numClasses; k++) {
+               char c = alphabet.start(k);
+               scratch.clear();
+               for (int s : members) {
+                  if (nfa.consumes(s, c)) {
+                     nfa.addClosure(scratch, nfa.out1[s], stack);
+                  }
+               }
+               int target = stateFor(toStateSet());
+               table[d * numClasses + k] = target;
+            }
+         }
+         return finish(maxStates, start);
+      }
+
+      /* As run(), for an NFA with counters.
+      */
+      private RegExprDfa runCounting(int maxStates) {
+         ArrayList<RegExprNfa.Config> list =
+            new ArrayList<RegExprNfa.Config>();
+         HashSet<RegExprNfa.Config> seen = new HashSet<RegExprNfa.Config>();
+         stateFor(list);                           // DEAD
+         nfa.addClosure(list, seen, nfa.start, RegExprNfa.NO_COUNTS, null, 0);
+         int start = stateFor(list);
+         for (int d = 0; d < numStates; d++) {     // numStates grows
+            if (numStates > maxStates) { return null; }
+            for (int k = 0; k != numClasses; k++) {
+               char c = alphabet.start(k);
+               list.clear();
+               seen.clear();
+               for (RegExprNfa.Config q : configs[d]) {
+                  if (nfa.consumes(q.state, c)) {
+                     nfa.addClosure(list, seen, nfa.out1[q.state], q.counts,
+                                    null, 0);
+                  }
+               }
+               int target = stateFor(list);
+               table[d * numClasses + k] = target;
+            }
+         }
+         return finish(maxStates, start);
+      }
+
+      /* Returns the DFA whose states have been constructed, or null if
+      ** there are more than maxStates of them.
+      */
+      private RegExprDfa finish(int maxStates, int start) {
+         if (numStates > maxStates) { return null; }
+         boolean[] accepting = new boolean[numStates];
+         int[] tags = matchTags == null ? null : new int[numStates];
+         for (int d = 0; d != numStates; d++) {
+            if (tags != null) { tags[d] = Integer.MAX_VALUE; }
+            for (int s : nfaStates(d)) {
+               if (nfa.kind[s] == RegExprNfa.MATCH) {
+                  accepting[d] = true;
+                  if (tags != null) { tags[d] = Math.min(tags[d], matchTags[s]); }
+               }
+            }
+            if (tags != null  &&  !accepting[d]) { tags[d] = -1; }
+         }
+         return new RegExprDfa(alphabet, 
+                               Arrays.copyOf(table, numStates * numClasses),
+                               accepting, tags, start);
+      }
+
+      /* Returns the NFA states of DFA state d.
+      */
+      private int[] nfaStates(int d) {
+         if (configs == null) { return sets[d].members; }
+         int[] result = new int[configs[d].length];
+         for (int i = 0; i != result.length; i++) {
+            result[i] = configs[d][i].state;
+         }
+         return result;
+      }
+
+      /* Returns the DFA state for the given configurations (of CHAR, SET
+      ** and MATCH states), creating it if need be.
+      */
+      private int stateFor(List<RegExprNfa.Config> list) {
+         RegExprNfa.Config[] qs = list.toArray(new RegExprNfa.Config[0]);
+         Arrays.sort(qs, (p, q) -> p.state != q.state
+                                   ? Integer.compare(p.state, q.state)
+                                   : Arrays.compare(p.counts, q.counts));
+         int length = 0;
+         for (RegExprNfa.Config q : qs) { length += 2 + q.counts.length; }
+         int[] members = new int[length];
+         int n = 0;
+         for (RegExprNfa.Config q : qs) {
+            members[n++] = q.state;
+            members[n++] = q.counts.length;
+            System.arraycopy(q.counts, 0, members, n, q.counts.length);
+            n += q.counts.length;
+         }
+         int before = numStates;
+         int d = stateFor(new StateSet(members));
+         if (numStates != before) {
+            if (d == configs.length) {
+               configs = Arrays.copyOf(configs, 2 * d);
+            }
+            configs[d] = qs;
+         }
+         return d;
+      }
+
+      /* Returns the set of CHAR, SET and MATCH states in scratch.
+      */
+      private StateSet toStateSet() {
+         int n = 0;
+         int[] members = new int[scratch.size()];
+         for (int i = 0; i != scratch.size(); i++) {
+            int s = scratch.get(i);
+            if (nfa.isConsuming(s) || nfa.kind[s] == RegExprNfa.MATCH) {
+               members[n++] = s;
+            }
+         }
+         members = Arrays.copyOf(members, n);
+         Arrays.sort(members);
+         return new StateSet(members);
+      }
+
+      /* Returns the DFA state for the given set, creating it if need be.
+      */
+      private int stateFor(StateSet set) {
+         Integer id = ids.get(set);
+         if (id != null) { return id; }
+         if (numStates == sets.length) {
+            sets = Arrays.copyOf(sets, 2 * numStates);
+         }
+         if ((numStates + 1) * numClasses > table.length) {
+            table = Arrays.copyOf(table, 
+                                  Math.max(2 * table.length,
+                                           (numStates + 1) * numClasses));
+         }
+         sets[numStates] = set;
+         ids.put(set, numStates);
+         numStates++;
+         return numStates - 1;
+      }
+   }
+
+   /* A sorted set of NFA states, usable as a hash key.
+   */
+   static final class StateSet {
+      final int[] members;
+      private final int hash;
+
+      StateSet(int[] members) {
+         this.members = members;
+         this.hash = Arrays.hashCode(members);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         return o instanceof StateSet && 
+                Arrays.equals(members, ((StateSet)o).members);
+      }
+
+      @Override
+      public int hashCode() { return hash; }
+   }
+
+}
\ No newline at end of file
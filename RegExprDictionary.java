@@ -0,0 +1,429 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/* An instance of this class models a regular expression that represents
+** a finite set of words given explicitly, e.g., { if, then, else, while }.
+** It describes the same language as the union of the words, but instead
+** of a tree of RegExprUnion nodes it holds the minimal acyclic DFA for the
+** words, so that membership takes time O(|x|) however many words there
+** are, and words with common prefixes or suffixes share states.
+**
+** The DFA is built by the incremental algorithm for sorted input of
+** Daciuk, Mihov, Watson & Watson (2000): words are added in order, and
+** the states that no later word can reach are replaced by an equivalent
+** state already registered, if there is one, as soon as they are left
+** behind.  Since a state is registered only after its successors, states
+** are numbered so that transitions lead from higher to lower numbers, and
+** the transitions are stored in compressed-row form: those of state q are
+** labels[first[q]..first[q+1]) (in increasing order) and the corresponding
+** targets.  The root is the highest-numbered state.
+**
+** RegExprBuilder.parse() produces an instance of this class for a union of
+** DICTIONARY_THRESHOLD or more words.
+*/
+public class RegExprDictionary extends RegularExpression {
+
+   private static final int LINEAR_SEARCH_MAX = 8;
+
+   // instance variables
+   // ------------------
+
+   private final int[] first;         // transitions of q are first[q]..first[q+1]
+   private final char[] labels;
+   private final int[] targets;
+   private final boolean[] accepting;
+   private final int[] counts;        // counts[q] = number of words from q
+   private final int root;
+   private final int minLength, maxLength;
+   private final int hash;
+
+   // constructor
+   // -----------
+
+   private RegExprDictionary(Construction c) {
+      first = Arrays.copyOf(c.first, c.numStates + 1);
+      labels = Arrays.copyOf(c.labels, c.numEdges);
+      targets = Arrays.copyOf(c.targets, c.numEdges);
+      accepting = Arrays.copyOf(c.accepting, c.numStates);
+      counts = Arrays.copyOf(c.counts, c.numStates);
+      root = c.numStates - 1;
+      minLength = c.minLengths[root];
+      maxLength = c.maxLengths[root];
+      hash = 31 * (31 * RegExprDictionary.class.hashCode() +
+                   Arrays.hashCode(labels)) + Arrays.hashCode(targets);
+   }
+
+   /* Returns the dictionary of the given words (in any order, possibly
+   ** with repetitions).
+   */
+   public static RegExprDictionary of(Collection<String> words) {
+      String[] sorted = words.toArray(new String[0]);
+      Arrays.sort(sorted);
+      Construction c = new Construction();
+      for (int i = 0; i != sorted.length; i++) {
+         if (i == 0 || !sorted[i].equals(sorted[i-1])) { c.add(sorted[i]); }
+      }
+      return new RegExprDictionary(c.finish());
+   }
+
+   // observers
+   // ---------
+
+   @Override
+   public boolean isMember(String x, RegExprMatchContext ctx) {
+      ctx.step();
+      return contains(x);
+   }
+
+   /* Reports whether the given string is one of the words.
+   */
+   public boolean contains(CharSequence x) {
+      int q = root;
+      final int n = x.length();
+      for (int i = 0; i != n; i++) {
+         q = next(q, x.charAt(i));
+         if (q == -1) { return false; }
+      }
+      return accepting[q];
+   }
+
+   /* Returns the number of words.
+   */
+   public int size() { return counts[root]; }
+
+   /* Returns the number of states of the DFA.
+   */
+   public int numStates() { return accepting.length; }
+
+   /* Returns the words, in increasing order.
+   */
+   public List<String> words() {
+      List<String> result = new ArrayList<String>(size());
+      collect(root, new StringBuilder(), result);
+      return result;
+   }
+
+   @Override
+   public boolean isFinite() { return true; }
+
+   @Override
+   public boolean isEmpty() { return counts[root] == 0; }
+
+   @Override
+   public int minLength() { return minLength; }
+
+   @Override
+   public int maxLength() { return maxLength; }
+
+   /* Returns one of the words, each being equally likely.  (A union of the
+   ** words would favour those near the top of its tree.)  The number of
+   ** words reachable from each state directs the walk.
+   */
+   @Override
+   public String randomMember(Random rand) {
+      StringBuilder b = new StringBuilder();
+      int q = root;
+      int k = rand.nextInt(counts[q]);
+      while (true) {
+         if (accepting[q]) {
+            if (k == 0) { return b.toString(); }
+            k--;
+         }
+         int e = first[q];
+         while (k >= counts[targets[e]]) {
+            k = k - counts[targets[e]];
+            e++;
+         }
+         b.append(labels[e]);
+         q = targets[e];
+      }
+   }
+
+   /* Returns the words as a union, parenthesized as RegExprUnion does.
+   */
+   @Override
+   public String toString() {
+      List<String> words = words();
+      if (words.isEmpty()) { return "" + RegExprSymbols.NULL_SET; }
+      StringBuilder b = new StringBuilder();
+      for (String w : words) {
+         b.append(b.length() == 0 ? "(" : " " + RegExprSymbols.UNION_OP + " ");
+         b.append(w.length() == 0 ? "" + RegExprSymbols.LAMBDA : w);
+      }
+      if (words.size() == 1) { return b.substring(1); }
+      return b.append(')').toString();
+   }
+
+   /* Two regular expressions are equal if they have the same structure
+   ** (not merely the same language); two dictionaries have the same
+   ** structure exactly when they have the same words.
+   */
+   @Override
+   public boolean equals(Object o) {
+      if (o == this) { return true; }
+      if (!(o instanceof RegExprDictionary)) { return false; }
+      RegExprDictionary other = (RegExprDictionary)o;
+      return hash == other.hash &&
+             Arrays.equals(accepting, other.accepting) &&
+             Arrays.equals(first, other.first) &&
+             Arrays.equals(labels, other.labels) &&
+             Arrays.equals(targets, other.targets);
+   }
+
+   @Override
+   public int hashCode() { return hash; }
+
+   @Override
+   public RegularExpression reverse() {
+      List<String> reversed = new ArrayList<String>(size());
+      for (String w : words()) {
+         reversed.add(new StringBuilder(w).reverse().toString());
+      }
+      return of(reversed);
+   }
+
+   /* Compiles the DFA into the NFA state for state, in increasing order
+   ** (so that successors come first): a state is a chain of splits among
+   ** a CHAR state per transition and, if it is accepting, 'next'.  Shared
+   ** suffixes stay shared.
+   */
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) {
+      int[] start = new int[accepting.length];
+      for (int q = 0; q != accepting.length; q++) {
+         int s = accepting[q] ? next : -1;
+         for (int e = first[q+1] - 1; e >= first[q]; e--) {
+            int c = nfa.addChar(labels[e], labels[e], start[targets[e]]);
+            s = s == -1 ? c : nfa.addSplit(c, s);
+         }
+         start[q] = s == -1 ? nfa.addFail() : s;
+      }
+      return start[root];
+   }
+
+   // private
+   // -------
+
+   /* Returns the target of the transition from q on c, or -1 if there is
+   ** none.
+   */
+   private int next(int q, char c) {
+      int low = first[q], high = first[q+1] - 1;
+      if (high - low < LINEAR_SEARCH_MAX) {
+         for (int e = low; e <= high; e++) {
+            if (labels[e] == c) { return targets[e]; }
+         }
+         return -1;
+      }
+      while (low <= high) {
+         int mid = (low + high) >>> 1;
+         if (labels[mid] < c) { low = mid + 1; }
+         else if (labels[mid] > c) { high = mid - 1; }
+         else { return targets[mid]; }
+      }
+      return -1;
+   }
+
+   private void collect(int q, StringBuilder prefix, List<String> result) {
+      if (accepting[q]) { result.add(prefix.toString()); }
+      for (int e = first[q]; e != first[q+1]; e++) {
+         prefix.append(labels[e]);
+         collect(targets[e], prefix, result);
+         prefix.setLength(prefix.length() - 1);
+      }
+   }
+
+
+   /* The incremental construction.  The states on the path of the last
+   ** word added are not yet registered; pathLabels[d] and pathTargets[d]
+   ** hold the transitions of the one at depth d, the last of which leads
+   ** to the one at depth d+1 (its target is filled in when that state is
+   ** registered).  Registered states are written straight into the
+   ** compressed-row arrays, and the register itself is an open-addressing
+   ** hash table of state numbers, whose entries are compared with a path
+   ** state by their rows, so that registering allocates nothing.
+   */
+   private static class Construction {
+
+      int[] first = new int[16];
+      char[] labels = new char[16];
+      int[] targets = new int[16];
+      boolean[] accepting = new boolean[16];
+      int[] counts = new int[16];
+      int[] minLengths = new int[16];
+      int[] maxLengths = new int[16];
+      int numStates = 0, numEdges = 0;
+
+      private int[] register = newTable(64);   // state numbers, or -1
+      private int[] hashes = new int[16];      // hashes[q] = hash of q
+
+      private final List<StringBuilder> pathLabels = new ArrayList<StringBuilder>();
+      private final List<IntStack> pathTargets = new ArrayList<IntStack>();
+      private boolean[] pathAccepting = new boolean[16];
+      private String previous = null;
+
+      Construction() { openPath(0); }
+
+      /* Adds the given word.
+      ** pre: word is greater than every word added so far
+      */
+      void add(String word) {
+         int p = 0;
+         if (previous != null) {
+            int limit = Math.min(previous.length(), word.length());
+            while (p != limit  &&  previous.charAt(p) == word.charAt(p)) { p++; }
+            closePath(previous.length(), p);
+         }
+         for (int d = p; d != word.length(); d++) {
+            pathLabels.get(d).append(word.charAt(d));
+            pathTargets.get(d).pushInt(-1);
+            openPath(d + 1);
+         }
+         pathAccepting[word.length()] = true;
+         previous = word;
+      }
+
+      /* Registers the remaining states, the root last.
+      */
+      Construction finish() {
+         closePath(previous == null ? 0 : previous.length(), 0);
+         registerPath(0);
+         return this;
+      }
+
+      /* Registers the path states at depths deepest..above+1, deepest
+      ** first, and makes each the target of its parent's last transition.
+      */
+      private void closePath(int deepest, int above) {
+         for (int d = deepest; d > above; d--) {
+            int q = registerPath(d);
+            IntStack parentTargets = pathTargets.get(d - 1);
+            parentTargets.popInt();
+            parentTargets.pushInt(q);
+         }
+      }
+
+      /* Makes the path state at depth d fresh: no transitions, not
+      ** accepting.
+      */
+      private void openPath(int d) {
+         while (pathLabels.size() <= d) {
+            pathLabels.add(new StringBuilder());
+            pathTargets.add(new IntStack());
+         }
+         pathLabels.get(d).setLength(0);
+         pathTargets.get(d).clear();
+         if (d >= pathAccepting.length) {
+            pathAccepting = Arrays.copyOf(pathAccepting, 2 * d + 1);
+         }
+         pathAccepting[d] = false;
+      }
+
+      /* Returns the registered state equivalent to the path state at
+      ** depth d, registering it if there is none.
+      */
+      private int registerPath(int d) {
+         StringBuilder ls = pathLabels.get(d);
+         IntStack ts = pathTargets.get(d);
+         final int k = ls.length();
+         int h = pathAccepting[d] ? 1 : 0;
+         for (int i = 0; i != k; i++) {
+            h = 31 * (31 * h + ls.charAt(i)) + ts.get(i);
+         }
+         int mask = register.length - 1;
+         int slot = mix(h) & mask;
+         while (register[slot] != -1) {
+            int q = register[slot];
+            if (hashes[q] == h  &&  sameRow(q, d)) { return q; }
+            slot = (slot + 1) & mask;
+         }
+
+         int q = numStates;
+         ensureCapacity(q + 2, numEdges + k);
+         accepting[q] = pathAccepting[d];
+         counts[q] = accepting[q] ? 1 : 0;
+         minLengths[q] = accepting[q] ? 0 : Integer.MAX_VALUE;
+         maxLengths[q] = accepting[q] ? 0 : -1;
+         first[q] = numEdges;
+         for (int i = 0; i != k; i++) {
+            int t = ts.get(i);
+            labels[numEdges] = ls.charAt(i);
+            targets[numEdges] = t;
+            numEdges++;
+            counts[q] = counts[q] + counts[t];
+            minLengths[q] = Math.min(minLengths[q], minLengths[t] + 1);
+            maxLengths[q] = Math.max(maxLengths[q], maxLengths[t] + 1);
+         }
+         first[q + 1] = numEdges;
+         if (minLengths[q] == Integer.MAX_VALUE) {   // the empty dictionary
+            minLengths[q] = maxLengths[q] = -1;
+         }
+         numStates++;
+         hashes[q] = h;
+         register[slot] = q;
+         if (2 * numStates > register.length) { growRegister(); }
+         return q;
+      }
+
+      /* Reports whether registered state q has the same acceptance and
+      ** transitions as the path state at depth d.
+      */
+      private boolean sameRow(int q, int d) {
+         StringBuilder ls = pathLabels.get(d);
+         IntStack ts = pathTargets.get(d);
+         if (accepting[q] != pathAccepting[d]  ||
+             first[q+1] - first[q] != ls.length())
+         {
+            return false;
+         }
+         for (int i = 0, e = first[q]; i != ls.length(); i++, e++) {
+            if (labels[e] != ls.charAt(i) || targets[e] != ts.get(i)) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      private void growRegister() {
+         register = newTable(2 * register.length);
+         int mask = register.length - 1;
+         for (int q = 0; q != numStates; q++) {
+            int slot = mix(hashes[q]) & mask;
+            while (register[slot] != -1) { slot = (slot + 1) & mask; }
+            register[slot] = q;
+         }
+      }
+
+      private static int[] newTable(int size) {
+         int[] table = new int[size];
+         Arrays.fill(table, -1);
+         return table;
+      }
+
+      private static int mix(int h) {
+         h = h * 0x9E3779B9;
+         return h ^ (h >>> 16);
+      }
+
+      private void ensureCapacity(int states, int edges) {
+         if (states > first.length) {
+            int len = Math.max(states, 2 * first.length);
+            first = Arrays.copyOf(first, len);
+            accepting = Arrays.copyOf(accepting, len);
+            counts = Arrays.copyOf(counts, len);
+            minLengths = Arrays.copyOf(minLengths, len);
+            maxLengths = Arrays.copyOf(maxLengths, len);
+            hashes = Arrays.copyOf(hashes, len);
+         }
+         if (edges > labels.length) {
+            int len = Math.max(edges, 2 * labels.length);
+            labels = Arrays.copyOf(labels, len);
+            targets = Arrays.copyOf(targets, len);
+         }
+      }
+   }
+
+}
\ No newline at end of file
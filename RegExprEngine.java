@@ -0,0 +1,22 @@
+/* An instance of a class implementing this interface is a compiled
+** membership tester for one regular expression.  The implementations
+** differ in how they test membership, and so in which expressions they
+** suit; RegExprPlanner picks one for a given expression.
+*/
+public interface RegExprEngine {
+
+   /* Reports whether the given string is a member of the language
+   ** described by the expression from which this engine was compiled.
+   */
+   boolean matches(CharSequence x);
+
+   /* Returns the (short, fixed) name of this kind of engine, e.g., "dfa".
+   */
+   String name();
+
+   /* Returns a one-line description of this engine: its name, its size,
+   ** and, for an engine chosen by RegExprPlanner, why it was chosen.
+   */
+   String describe();
+
+}
\ No newline at end of file
@@ -0,0 +1,1116 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/* An instance of this class is a regular expression stored not as a tree
+** of node objects but "flat", in parallel primitive arrays: one entry per
+** node giving its kind and two ints (child indices, or the offset and
+** length of its payload), with the chars of all the words in one shared
+** char[], the items of all the character classes in another, and the
+** bounds of all the counted repetitions in an int[].  The nodes are laid
+** out children first, so that each subexpression occupies a contiguous
+** run of entries, and an analysis (isEmpty(), minLength(), ...) is a
+** single forward pass over them rather than a walk chasing pointers.
+**
+** A rule base converted with of(List) (as RegExprIndex does) shares one
+** set of arrays among all its expressions.  It then costs about nine bytes per node plus two per
+** char of literal text, against several objects (and their headers) per
+** node for the tree; e.g., a word of 8 chars costs 25 bytes rather than
+** about 70.
+**
+** The flat form supports everything the tree does.  Membership
+** (isMember) is tested not by backtracking but by propagating sets of
+** positions through the nodes, which takes time polynomial in the
+** length of the string whatever the expression.  Subexpressions of kinds
+** other than the basic ones (e.g., a RegExprDictionary) are kept as
+** objects.  RegExprInstrumented wrappers are dropped.  toExpression()
+** rebuilds the tree.
+**
+** No walk over the nodes recurses on their depth, so that an expression
+** as deep as it is long (e.g., a concatenation of 20,000 words) is
+** handled like any other; only the compilation of a counted repetition
+** nested in another recurses, once per level of such nesting.  (The
+** tree that toExpression() rebuilds, and so toString(), has no such
+** guarantee.)
+*/
+public final class RegExprFlat extends RegularExpression {
+
+   // node kinds
+   static final byte WORD = 0;            // a: offset in chars, b: length
+   static final byte NULL_SET = 1;
+   static final byte CLASS = 2;           // a: offset in classes, b: length
+   static final byte NEGATED_CLASS = 3;   //    (of the items as written)
+   static final byte UNION = 4;           // a, b: the operands
+   static final byte CONCAT = 5;          // a, b: the operands
+   static final byte STAR = 6;            // a: the operand
+   static final byte REPEAT = 7;          // a: the operand, b: offset in bounds
+   static final byte CAPTURE = 8;         // a: the operand, b: the group
+   static final byte OTHER = 9;           // a: index in others
+
+   // instance variables
+   // ------------------
+
+   private final Store store;
+   private final int from, root;   // this expression's nodes are [from..root]
+   private final boolean finite, empty;
+   private final int minLength, maxLength;
+   private int hash;               // 0 until computed
+
+   // constructor
+   // -----------
+
+   private RegExprFlat(Store store, int from, int root, boolean finite,
+                       boolean empty, int minLength, int maxLength) {
+      this.store = store;
+      this.from = from;
+      this.root = root;
+      this.finite = finite;
+      this.empty = empty;
+      this.minLength = minLength;
+      this.maxLength = maxLength;
+   }
+
+   /* Returns the flat form of the given regular expression.
+   */
+   public static RegExprFlat of(RegularExpression r) {
+      return of(Collections.singletonList(r)).get(0);
+   }
+
+   /* Returns the flat forms of the given regular expressions, which share
+   ** one set of arrays.
+   */
+   public static List<RegExprFlat> of(List<? extends RegularExpression> rules) {
+      Layout layout = new Layout();
+      int[] froms = new int[rules.size()];
+      int[] roots = new int[rules.size()];
+      for (int i = 0; i != roots.length; i++) {
+         froms[i] = layout.size;
+         roots[i] = layout.add(rules.get(i));
+      }
+      return analyze(layout.store(), froms, roots);
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the number of nodes of this expression.
+   */
+   public int numNodes() { return root - from + 1; }
+
+   /* Returns this expression as a tree of node objects.
+   */
+   public RegularExpression toExpression() {
+      final Store s = store;
+      RegularExpression[] node = new RegularExpression[numNodes()];
+      for (int v = from; v <= root; v++) {
+         int a = s.a[v], b = s.b[v];
+         RegularExpression e;
+         switch (s.kind[v]) {
+            case WORD:
+               e = new RegExprWord(new String(s.chars, a, b));
+               break;
+            case NULL_SET:
+               e = new RegExprNullSet();
+               break;
+            case CLASS:
+            case NEGATED_CLASS:
+               e = new RegExprCharClass(Arrays.copyOfRange(s.classes, a, a + b),
+                                        s.kind[v] == NEGATED_CLASS);
+               break;
+            case UNION:
+               e = new RegExprUnion(node[a - from], node[b - from]);
+               break;
+            case CONCAT:
+               e = new RegExprConcat(node[a - from], node[b - from]);
+               break;
+            case STAR:
+               e = new RegExprStar(node[a - from]);
+               break;
+            case REPEAT:
+               e = new RegExprRepeat(node[a - from], s.bounds[b],
+                                     s.bounds[b + 1]);
+               break;
+            case CAPTURE:
+               e = new RegExprCapture(node[a - from], b);
+               break;
+            default:
+               e = s.others[a];
+         }
+         node[v - from] = e;
+      }
+      return node[root - from];
+   }
+
+   /* Reports whether x is a member of the language, by computing, for
+   ** each node met on the way down from the root, the set of positions at
+   ** which a member of its language that begins at one of a given set of
+   ** positions can end.  Each node visited charges a step to ctx.
+   */
+   @Override
+   public boolean isMember(String x, RegExprMatchContext ctx) {
+      long[] start = new long[(x.length() >> 6) + 1];
+      start[0] = 1L;
+      long[] end = ends(root, start, x, ctx);
+      return get(end, x.length());
+   }
+
+   @Override
+   public boolean isFinite() { return finite; }
+
+   @Override
+   public boolean isEmpty() { return empty; }
+
+   @Override
+   public int minLength() { return minLength; }
+
+   @Override
+   public int maxLength() { return maxLength; }
+
+   @Override
+   public String randomMember(Random rand) {
+      if (empty) { return null; }
+      StringBuilder result = new StringBuilder();
+      appendRandomMember(root, rand, new Analysis(store, from, root), result);
+      return result.toString();
+   }
+
+   @Override
+   public String toString() { return toExpression().toString(); }
+
+   /* Two flat expressions are equal if they have the same structure (not
+   ** merely the same language), whether or not they share arrays.
+   */
+   @Override
+   public boolean equals(Object o) {
+      if (o == this) { return true; }
+      if (!(o instanceof RegExprFlat)) { return false; }
+      RegExprFlat other = (RegExprFlat)o;
+      if (numNodes() != other.numNodes() || hashCode() != other.hashCode()) {
+         return false;
+      }
+      final Store s = store, t = other.store;
+      IntStack pairs = new IntStack();
+      pairs.pushInt(root);
+      pairs.pushInt(other.root);
+      while (!pairs.isEmpty()) {
+         int w = pairs.popInt(), v = pairs.popInt();
+         byte k = s.kind[v];
+         if (k != t.kind[w]) { return false; }
+         int a = s.a[v], b = s.b[v], c = t.a[w], d = t.b[w];
+         switch (k) {
+            case WORD:
+               if (!Arrays.equals(s.chars, a, a + b, t.chars, c, c + d)) {
+                  return false;
+               }
+               break;
+            case CLASS:
+            case NEGATED_CLASS:
+               if (!Arrays.equals(s.classes, a, a + b, t.classes, c, c + d)) {
+                  return false;
+               }
+               break;
+            case UNION:
+            case CONCAT:
+               pairs.pushInt(a);
+               pairs.pushInt(c);
+               pairs.pushInt(b);
+               pairs.pushInt(d);
+               break;
+            case REPEAT:
+               if (s.bounds[b] != t.bounds[d] ||
+                   s.bounds[b + 1] != t.bounds[d + 1]) {
+                  return false;
+               }
+               pairs.pushInt(a);
+               pairs.pushInt(c);
+               break;
+            case CAPTURE:
+               if (b != d) { return false; }
+               pairs.pushInt(a);
+               pairs.pushInt(c);
+               break;
+            case STAR:
+               pairs.pushInt(a);
+               pairs.pushInt(c);
+               break;
+            case OTHER:
+               if (!s.others[a].equals(t.others[c])) { return false; }
+               break;
+            default:
+               break;
+         }
+      }
+      return true;
+   }
+
+   /* The hash depends only on the structure, not on where in the arrays
+   ** the nodes lie.
+   */
+   @Override
+   public int hashCode() {
+      int h = hash;
+      if (h == 0) {
+         final Store s = store;
+         int[] hashOf = new int[numNodes()];
+         for (int v = from; v <= root; v++) {
+            int a = s.a[v], b = s.b[v];
+            int x = s.kind[v];
+            switch (s.kind[v]) {
+               case WORD:
+                  for (int i = a; i != a + b; i++) { x = 31 * x + s.chars[i]; }
+                  break;
+               case CLASS:
+               case NEGATED_CLASS:
+                  for (int i = a; i != a + b; i++) { x = 31 * x + s.classes[i]; }
+                  break;
+               case UNION:
+               case CONCAT:
+                  x = 31 * (31 * x + hashOf[a - from]) + hashOf[b - from];
+                  break;
+               case REPEAT:
+                  x = 31 * (31 * (31 * x + hashOf[a - from]) + s.bounds[b]) +
+                      s.bounds[b + 1];
+                  break;
+               case STAR:
+               case CAPTURE:
+                  x = 31 * (31 * x + hashOf[a - from]) + b;
+                  break;
+               case OTHER:
+                  x = 31 * x + s.others[a].hashCode();
+                  break;
+               default:
+                  break;
+            }
+            hashOf[v - from] = x;
+         }
+         h = hashOf[root - from];
+         hash = h == 0 ? 1 : h;
+      }
+      return hash;
+   }
+
+   /* Returns the reverse, as a flat expression with arrays of its own: the
+   ** operands of each concatenation are swapped and each word reversed.
+   */
+   @Override
+   public RegularExpression reverse() {
+      Layout layout = new Layout();
+      int root = layout.addReverse(this);
+      return analyze(layout.store(), new int[] { 0 }, new int[] { root }).get(0);
+   }
+
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) {
+      return compile(root, nfa, next);
+   }
+
+   // nodes
+   // -----
+   // For analyses made outside this class (e.g., RegExprIndex's), which,
+   // like those here, are forward passes over the nodes.
+
+   /* Returns the first node of this expression.  Its nodes are
+   ** [firstNode()..rootNode()], each after its operands.
+   */
+   int firstNode() { return from; }
+
+   int rootNode() { return root; }
+
+   byte kind(int v) { return store.kind[v]; }
+
+   /* Returns the operand of a STAR, REPEAT or CAPTURE node, or the first
+   ** of a UNION or CONCAT node.
+   */
+   int operand(int v) { return store.a[v]; }
+
+   /* Returns the second operand of a UNION or CONCAT node.
+   */
+   int secondOperand(int v) { return store.b[v]; }
+
+   String word(int v) { return new String(store.chars, store.a[v], store.b[v]); }
+
+   /* Returns the chars in a CLASS or NEGATED_CLASS node, as a range set.
+   */
+   char[] members(int v) {
+      char[] items = Arrays.copyOfRange(store.classes, store.a[v],
+                                        store.a[v] + store.b[v]);
+      return new RegExprCharClass(items, store.kind[v] == NEGATED_CLASS)
+                .members();
+   }
+
+   int repeatMin(int v) { return store.bounds[store.b[v]]; }
+
+   int repeatMax(int v) { return store.bounds[store.b[v] + 1]; }
+
+   RegularExpression other(int v) { return store.others[store.a[v]]; }
+
+   // private
+   // -------
+
+   /* Compiles node v as the tree node of the same kind would.  The walk
+   ** keeps its own stack of frames (node, successor, phase, and a state
+   ** made before the operands), so that deep trees do not overflow the
+   ** Java stack; only a counted repetition compiles its operand by a
+   ** nested call, through RegExprNfa.Builder.compileRepeat().
+   */
+   private int compile(int v, RegExprNfa.Builder nfa, int next) {
+      final Store s = store;
+      IntStack frames = new IntStack();
+      int result = -1;                  // the start of the last node done
+      pushFrame(frames, v, next, 0, -1);
+      while (!frames.isEmpty()) {
+         int saved = frames.popInt(), phase = frames.popInt();
+         int succ = frames.popInt(), u = frames.popInt();
+         int a = s.a[u], b = s.b[u];
+         switch (s.kind[u]) {
+            case WORD:
+               result = succ;
+               for (int i = a + b - 1; i >= a; i--) {
+                  result = nfa.addChar(s.chars[i], s.chars[i], result);
+               }
+               break;
+            case NULL_SET:
+               result = nfa.addFail();
+               break;
+            case CLASS:
+            case NEGATED_CLASS: {
+               char[] members = Arrays.copyOfRange(s.classes, a, a + b);
+               if (s.kind[u] == NEGATED_CLASS) {
+                  members = RegExprCharClass.complement(members);
+               }
+               if (members.length == 2  &&  members[0] == members[1]) {
+                  result = nfa.addChar(members[0], members[1], succ);
+               }
+               else {
+                  result = nfa.addSet(members, succ);
+               }
+               break;
+            }
+            case UNION:
+               if (phase == 0) {
+                  pushFrame(frames, u, succ, 1, -1);
+                  pushFrame(frames, a, succ, 0, -1);
+               }
+               else if (phase == 1) {
+                  pushFrame(frames, u, succ, 2, result);   // the first
+                  pushFrame(frames, b, succ, 0, -1);
+               }
+               else {
+                  result = nfa.addSplit(saved, result);
+               }
+               break;
+            case CONCAT:
+               if (phase == 0) {
+                  pushFrame(frames, u, succ, 1, -1);
+                  pushFrame(frames, b, succ, 0, -1);
+               }
+               else if (phase == 1) {
+                  pushFrame(frames, u, succ, 2, -1);
+                  pushFrame(frames, a, result, 0, -1);
+               }
+               break;                   // phase 2: result is a's start
+            case STAR:
+               if (phase == 0) {
+                  int loop = nfa.addSplit(-1, succ);
+                  pushFrame(frames, u, succ, 1, loop);
+                  pushFrame(frames, a, loop, 0, -1);
+               }
+               else {
+                  nfa.setOut1(saved, result);
+                  result = saved;
+               }
+               break;
+            case REPEAT:
+               result = nfa.compileRepeat(s.bounds[b], s.bounds[b + 1],
+                                          t -> compile(a, nfa, t), succ);
+               break;
+            case CAPTURE:
+               if (phase == 0) {
+                  int end = nfa.addSave(2 * b + 1, succ);
+                  pushFrame(frames, u, succ, 1, -1);
+                  pushFrame(frames, a, end, 0, -1);
+               }
+               else {
+                  result = nfa.addSave(2 * b, result);
+               }
+               break;
+            default:
+               result = nfa.compile(s.others[a], succ);
+         }
+      }
+      return result;
+   }
+
+   private static void pushFrame(IntStack frames, int v, int next, int phase,
+                                 int saved) {
+      frames.pushInt(v);
+      frames.pushInt(next);
+      frames.pushInt(phase);
+      frames.pushInt(saved);
+   }
+
+   /* Returns the set of positions j such that x[i..j) is a member of the
+   ** language of node v for some position i in the set start.  Sets of
+   ** positions are bitsets over 0..x.length().  The walk keeps its own
+   ** stack of Frames, so that deep trees do not overflow the Java stack.
+   */
+   private long[] ends(int v, long[] start, String x, RegExprMatchContext ctx) {
+      final Store s = store;
+      ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+      long[] result = null;             // the ends of the last node done
+      frames.push(new Frame(v, start));
+      ctx.step();
+      while (!frames.isEmpty()) {
+         Frame f = frames.peek();
+         int a = s.a[f.v], b = s.b[f.v];
+         long[] done = null;            // set when f is finished
+         switch (s.kind[f.v]) {
+            case UNION:
+               if (f.phase == 0) {
+                  f.phase = 1;
+                  call(frames, a, f.start, ctx);
+               }
+               else if (f.phase == 1) {
+                  f.phase = 2;
+                  f.seen = result;
+                  call(frames, b, f.start, ctx);
+               }
+               else {
+                  for (int w = 0; w != result.length; w++) {
+                     result[w] |= f.seen[w];
+                  }
+                  done = result;
+               }
+               break;
+            case CONCAT:
+               if (f.phase == 0) {
+                  f.phase = 1;
+                  call(frames, a, f.start, ctx);
+               }
+               else if (f.phase == 1) {
+                  f.phase = 2;
+                  call(frames, b, result, ctx);
+               }
+               else {
+                  done = result;
+               }
+               break;
+            case STAR:
+               if (f.phase == 0) {
+                  f.phase = 1;
+                  f.seen = f.start.clone();
+                  call(frames, a, f.start, ctx);
+               }
+               else {
+                  done = closureStep(frames, f, a, result, ctx);
+               }
+               break;
+            case REPEAT: {
+               int min = s.bounds[b], max = s.bounds[b + 1];
+               if (f.phase == 0) {
+                  f.phase = 1;
+                  f.reach = f.start;
+                  f.k = 0;
+               }
+               else if (f.phase == 1) {
+                  // round f.k of the first min; a fixed point ends them
+                  if (Arrays.equals(result, f.reach)) { f.k = min; }
+                  else { f.reach = result; }
+               }
+               if (f.phase == 1) {
+                  if (f.k < min) {
+                     f.k++;
+                     call(frames, a, f.reach, ctx);
+                     break;
+                  }
+                  f.seen = f.reach.clone();
+                  if (max == RegExprRepeat.UNBOUNDED) {
+                     f.phase = 2;
+                     call(frames, a, f.reach, ctx);
+                  }
+                  else if (f.k == max) {
+                     done = f.seen;
+                  }
+                  else {
+                     f.phase = 3;
+                     call(frames, a, f.reach, ctx);
+                  }
+               }
+               else if (f.phase == 2) {
+                  done = closureStep(frames, f, a, result, ctx);
+               }
+               else {
+                  // the positions reached after min..max rounds; once a
+                  // round adds nothing new, neither will any later one
+                  boolean grew = false;
+                  for (int w = 0; w != f.seen.length; w++) {
+                     grew = grew || (result[w] & ~f.seen[w]) != 0;
+                     f.seen[w] |= result[w];
+                  }
+                  f.k++;
+                  if (!grew || f.k == max) { done = f.seen; }
+                  else { call(frames, a, result, ctx); }
+               }
+               break;
+            }
+            case CAPTURE:
+               if (f.phase == 0) {
+                  f.phase = 1;
+                  call(frames, a, f.start, ctx);
+               }
+               else {
+                  done = result;
+               }
+               break;
+            default:
+               done = leafEnds(f.v, f.start, x, ctx);
+         }
+         if (done != null) {
+            frames.pop();
+            result = done;
+         }
+      }
+      return result;
+   }
+
+   /* A node whose ends are being computed: the node, the positions it
+   ** starts from, how far it has got, and what it has found so far.
+   */
+   private static final class Frame {
+      final int v;
+      final long[] start;
+      int phase;
+      int k;                    // rounds done (REPEAT)
+      long[] reach, seen;
+
+      Frame(int v, long[] start) {
+         this.v = v;
+         this.start = start;
+      }
+   }
+
+   private static void call(ArrayDeque<Frame> frames, int v, long[] start,
+                            RegExprMatchContext ctx) {
+      ctx.step();
+      frames.push(new Frame(v, start));
+   }
+
+   /* Takes one step of the closure of operand a in frame f, whose seen
+   ** holds the positions reached so far, given next, those reached by one
+   ** more round: returns seen if that adds nothing new, and otherwise
+   ** starts the next round from the new positions and returns null.
+   */
+   private static long[] closureStep(ArrayDeque<Frame> frames, Frame f, int a,
+                                     long[] next, RegExprMatchContext ctx) {
+      boolean grew = false;
+      for (int w = 0; w != f.seen.length; w++) {
+         next[w] &= ~f.seen[w];
+         f.seen[w] |= next[w];
+         grew = grew || next[w] != 0;
+      }
+      if (!grew) { return f.seen; }
+      call(frames, a, next, ctx);
+      return null;
+   }
+
+   /* Returns the ends of node v, which has no operands, from start.
+   */
+   private long[] leafEnds(int v, long[] start, String x,
+                           RegExprMatchContext ctx) {
+      final Store s = store;
+      final int n = x.length();
+      int a = s.a[v], b = s.b[v];
+      long[] end = new long[start.length];
+      switch (s.kind[v]) {
+         case WORD:
+            for (int i = next(start, 0); i != -1 && i + b <= n;
+                 i = next(start, i + 1)) {
+               int k = 0;
+               while (k != b && x.charAt(i + k) == s.chars[a + k]) { k++; }
+               if (k == b) { set(end, i + b); }
+            }
+            return end;
+         case NULL_SET:
+            return end;
+         case CLASS:
+         case NEGATED_CLASS: {
+            final boolean negated = s.kind[v] == NEGATED_CLASS;
+            for (int i = next(start, 0); i != -1 && i < n;
+                 i = next(start, i + 1)) {
+               if (contains(s.classes, a, b, x.charAt(i)) != negated) {
+                  set(end, i + 1);
+               }
+            }
+            return end;
+         }
+         default: {
+            RegularExpression r = s.others[a];
+            for (int i = next(start, 0); i != -1; i = next(start, i + 1)) {
+               for (int j = i; j <= n; j++) {
+                  if (!get(end, j) && r.isMember(x.substring(i, j), ctx)) {
+                     set(end, j);
+                  }
+               }
+            }
+            return end;
+         }
+      }
+   }
+
+   /* Appends a member of the language of node v (which is not empty), as
+   ** the tree node of the same kind would choose it, drawing from rand in
+   ** the same order.  an holds the analyses of this expression's nodes.
+   ** The nodes still to append are kept on a stack, the next on top.
+   */
+   private void appendRandomMember(int v, Random rand, Analysis an,
+                                   StringBuilder out) {
+      final Store s = store;
+      IntStack todo = new IntStack();
+      todo.pushInt(v);
+      while (!todo.isEmpty()) {
+         int u = todo.popInt();
+         int a = s.a[u], b = s.b[u];
+         switch (s.kind[u]) {
+            case WORD:
+               out.append(s.chars, a, b);
+               break;
+            case CLASS:
+            case NEGATED_CLASS:
+               out.append(new RegExprCharClass(
+                             Arrays.copyOfRange(s.classes, a, a + b),
+                             s.kind[u] == NEGATED_CLASS).randomMember(rand));
+               break;
+            case UNION: {
+               boolean firstEmpty = an.empty[a - from];
+               boolean secondEmpty = an.empty[b - from];
+               if (secondEmpty || (!firstEmpty && rand.nextBoolean())) {
+                  todo.pushInt(a);
+               }
+               else {
+                  todo.pushInt(b);
+               }
+               break;
+            }
+            case CONCAT:
+               todo.pushInt(b);
+               todo.pushInt(a);
+               break;
+            case STAR: {
+               final int MAX_REPETITIONS = 6;
+               if (an.empty[a - from]) { break; }
+               int k = rand.nextInt(MAX_REPETITIONS + 1);
+               for (int i = 0; i != k; i++) { todo.pushInt(a); }
+               break;
+            }
+            case REPEAT: {
+               final int MAX_EXTRA_REPETITIONS = 6;
+               if (an.empty[a - from]) { break; }
+               int min = s.bounds[b], max = s.bounds[b + 1];
+               int upper = max == RegExprRepeat.UNBOUNDED ?
+                           min + MAX_EXTRA_REPETITIONS : max;
+               int k = min + rand.nextInt(upper - min + 1);
+               for (int i = 0; i != k; i++) { todo.pushInt(a); }
+               break;
+            }
+            case CAPTURE:
+               todo.pushInt(a);
+               break;
+            case OTHER:
+               out.append(s.others[a].randomMember(rand));
+               break;
+            default:
+               break;
+         }
+      }
+   }
+
+   /* Returns flat expressions for the subexpressions [froms[i]..roots[i]]
+   ** of the given store.
+   */
+   private static List<RegExprFlat> analyze(Store store, int[] froms,
+                                            int[] roots) {
+      Analysis an = new Analysis(store, 0, store.kind.length - 1);
+      List<RegExprFlat> result = new ArrayList<RegExprFlat>(roots.length);
+      for (int i = 0; i != roots.length; i++) {
+         int v = roots[i];
+         result.add(new RegExprFlat(store, froms[i], v, an.finite[v],
+                                    an.empty[v], an.minLength[v],
+                                    an.maxLength[v]));
+      }
+      return result;
+   }
+
+   /* Reports whether c is in the range set set[off..off+len).
+   */
+   private static boolean contains(char[] set, int off, int len, char c) {
+      int low = 0, high = len / 2 - 1;
+      while (low <= high) {
+         int mid = (low + high) >>> 1;
+         if (set[off + 2 * mid] <= c) { low = mid + 1; } else { high = mid - 1; }
+      }
+      return high >= 0  &&  c <= set[off + 2 * high + 1];
+   }
+
+   // bitsets of positions
+   // --------------------
+
+   private static boolean get(long[] set, int i) {
+      return (set[i >> 6] & (1L << i)) != 0;
+   }
+
+   private static void set(long[] set, int i) { set[i >> 6] |= 1L << i; }
+
+   /* Returns the least position >= i in the set, or -1 if there is none.
+   */
+   private static int next(long[] set, int i) {
+      int w = i >> 6;
+      if (w >= set.length) { return -1; }
+      long bits = set[w] & (-1L << i);
+      while (bits == 0) {
+         if (++w == set.length) { return -1; }
+         bits = set[w];
+      }
+      return (w << 6) + Long.numberOfTrailingZeros(bits);
+   }
+
+   // the arrays
+   // ----------
+
+   /* The arrays holding one or more flat expressions.
+   */
+   private static final class Store {
+      final byte[] kind;
+      final int[] a, b;
+      final char[] chars;        // the words, end to end
+      final char[] classes;      // the classes' items, end to end
+      final int[] bounds;        // (min, max) of each repetition
+      final RegularExpression[] others;
+
+      Store(byte[] kind, int[] a, int[] b, char[] chars, char[] classes,
+            int[] bounds, RegularExpression[] others) {
+         this.kind = kind;
+         this.a = a;
+         this.b = b;
+         this.chars = chars;
+         this.classes = classes;
+         this.bounds = bounds;
+         this.others = others;
+      }
+   }
+
+   /* The results of the analyses for the nodes [from..to] of a store, all
+   ** computed in one forward pass, as each node follows its operands.  The
+   ** rules are those of the tree classes.
+   */
+   private static final class Analysis {
+      final int from;
+      final boolean[] finite, empty;
+      final int[] minLength, maxLength;
+
+      Analysis(Store s, int from, int to) {
+         this.from = from;
+         int n = to - from + 1;
+         finite = new boolean[n];
+         empty = new boolean[n];
+         minLength = new int[n];
+         maxLength = new int[n];
+         for (int i = 0; i != n; i++) {
+            int v = from + i;
+            int a = s.a[v] - from, b = s.b[v] - from;
+            switch (s.kind[v]) {
+               case WORD:
+                  finite[i] = true;
+                  minLength[i] = maxLength[i] = s.b[v];
+                  break;
+               case NULL_SET:
+                  finite[i] = empty[i] = true;
+                  minLength[i] = maxLength[i] = -1;
+                  break;
+               case CLASS:
+               case NEGATED_CLASS: {
+                  int off = s.a[v], len = s.b[v];
+                  boolean none = s.kind[v] == CLASS ? len == 0 :
+                                 len == 2 && s.classes[off] == 0 &&
+                                 s.classes[off + 1] == Character.MAX_VALUE;
+                  finite[i] = true;
+                  empty[i] = none;
+                  minLength[i] = maxLength[i] = none ? -1 : 1;
+                  break;
+               }
+               case UNION:
+                  finite[i] = finite[a] && finite[b];
+                  empty[i] = empty[a] && empty[b];
+                  minLength[i] = empty[a] ? minLength[b] :
+                                 empty[b] ? minLength[a] :
+                                 Math.min(minLength[a], minLength[b]);
+                  maxLength[i] = Math.max(maxLength[a], maxLength[b]);
+                  break;
+               case CONCAT:
+                  empty[i] = empty[a] || empty[b];
+                  finite[i] = empty[i] || (finite[a] && finite[b]);
+                  minLength[i] = empty[i] ? -1 :
+                     RegularExpression.addLengths(minLength[a], minLength[b]);
+                  maxLength[i] = empty[i] ? -1 :
+                     RegularExpression.addLengths(maxLength[a], maxLength[b]);
+                  break;
+               case STAR:
+                  finite[i] = empty[a] || (finite[a] && maxLength[a] == 0);
+                  minLength[i] = 0;
+                  maxLength[i] = finite[i] ? 0 : -1;
+                  break;
+               case REPEAT: {
+                  int min = s.bounds[s.b[v]], max = s.bounds[s.b[v] + 1];
+                  boolean unbounded = max == RegExprRepeat.UNBOUNDED;
+                  empty[i] = min > 0 && empty[a];
+                  finite[i] = empty[i] || max == 0 ||
+                              (unbounded ? empty[a] ||
+                                           (finite[a] && maxLength[a] == 0)
+                                         : finite[a]);
+                  minLength[i] = empty[i] ? -1 :
+                                 min == 0 ? 0 :
+                                 RegularExpression.multiplyLength(min,
+                                                                  minLength[a]);
+                  maxLength[i] = empty[i] ? -1 :
+                                 (empty[a] || unbounded || max == 0) ? 0 :
+                                 RegularExpression.multiplyLength(max,
+                                                                  maxLength[a]);
+                  break;
+               }
+               case CAPTURE:
+                  finite[i] = finite[a];
+                  empty[i] = empty[a];
+                  minLength[i] = minLength[a];
+                  maxLength[i] = maxLength[a];
+                  break;
+               default: {
+                  RegularExpression r = s.others[s.a[v]];
+                  finite[i] = r.isFinite();
+                  empty[i] = r.isEmpty();
+                  minLength[i] = r.minLength();
+                  maxLength[i] = r.maxLength();
+               }
+            }
+         }
+      }
+   }
+
+   /* Lays out expressions in growing arrays, which store() then trims.
+   */
+   private static final class Layout {
+      byte[] kind = new byte[64];
+      int[] a = new int[64], b = new int[64];
+      int size = 0;
+      char[] chars = new char[256];
+      int numChars = 0;
+      char[] classes = new char[16];
+      int numClassChars = 0;
+      int[] bounds = new int[8];
+      int numBounds = 0;
+      List<RegularExpression> others = new ArrayList<RegularExpression>();
+
+      /* Appends the nodes of r, operands first, and returns the index of
+      ** its root.  The walk uses explicit stacks, as trees built from long
+      ** concatenations and unions are deep.
+      */
+      int add(RegularExpression r) {
+         Stack<RegularExpression> todo = new StackViaArray<RegularExpression>();
+         IntStack visited = new IntStack();   // 1 once the operands are done
+         IntStack done = new IntStack();      // indices of finished nodes
+         todo.push(r);
+         visited.pushInt(0);
+         while (!todo.isEmpty()) {
+            RegularExpression e = todo.pop();
+            boolean operandsDone = visited.popInt() == 1;
+            if (e instanceof RegExprInstrumented) {
+               todo.push(((RegExprInstrumented)e).unwrap());
+               visited.pushInt(0);
+            }
+            else if (e instanceof RegExprWord) {
+               String w = ((RegExprWord)e).word();
+               int off = appendChars(w);
+               done.pushInt(emit(WORD, off, w.length()));
+            }
+            else if (e instanceof RegExprNullSet) {
+               done.pushInt(emit(NULL_SET, 0, 0));
+            }
+            else if (e instanceof RegExprCharClass) {
+               RegExprCharClass c = (RegExprCharClass)e;
+               int off = appendClass(c.ranges(), 0, c.ranges().length);
+               done.pushInt(emit(c.isNegated() ? NEGATED_CLASS : CLASS,
+                                 off, c.ranges().length));
+            }
+            else if (e instanceof RegExprUnion || e instanceof RegExprConcat) {
+               if (operandsDone) {
+                  int second = done.popInt(), first = done.popInt();
+                  done.pushInt(emit(e instanceof RegExprUnion ? UNION : CONCAT,
+                                    first, second));
+               }
+               else {
+                  todo.push(e);
+                  visited.pushInt(1);
+                  if (e instanceof RegExprUnion) {
+                     todo.push(((RegExprUnion)e).second());
+                     todo.push(((RegExprUnion)e).first());
+                  }
+                  else {
+                     todo.push(((RegExprConcat)e).second());
+                     todo.push(((RegExprConcat)e).first());
+                  }
+                  visited.pushInt(0);
+                  visited.pushInt(0);
+               }
+            }
+            else if (e instanceof RegExprStar || e instanceof RegExprRepeat ||
+                     e instanceof RegExprCapture) {
+               if (operandsDone) {
+                  int operand = done.popInt();
+                  if (e instanceof RegExprStar) {
+                     done.pushInt(emit(STAR, operand, 0));
+                  }
+                  else if (e instanceof RegExprRepeat) {
+                     RegExprRepeat rep = (RegExprRepeat)e;
+                     int off = appendBounds(rep.min(), rep.max());
+                     done.pushInt(emit(REPEAT, operand, off));
+                  }
+                  else {
+                     done.pushInt(emit(CAPTURE, operand,
+                                       ((RegExprCapture)e).group()));
+                  }
+               }
+               else {
+                  todo.push(e);
+                  visited.pushInt(1);
+                  todo.push(e instanceof RegExprStar ?
+                               ((RegExprStar)e).body() :
+                            e instanceof RegExprRepeat ?
+                               ((RegExprRepeat)e).body() :
+                               ((RegExprCapture)e).body());
+                  visited.pushInt(0);
+               }
+            }
+            else {
+               others.add(e);
+               done.pushInt(emit(OTHER, others.size() - 1, 0));
+            }
+         }
+         return done.popInt();
+      }
+
+      /* Appends the nodes of the reverse of f and returns the index of its
+      ** root.  The nodes are copied in order, so each still follows its
+      ** operands.
+      */
+      int addReverse(RegExprFlat f) {
+         final Store s = f.store;
+         final int shift = size - f.from;
+         for (int v = f.from; v <= f.root; v++) {
+            int x = s.a[v], y = s.b[v];
+            switch (s.kind[v]) {
+               case WORD: {
+                  int off = appendChars(s.chars, x, y);
+                  for (int i = 0; i != y / 2; i++) {
+                     char c = chars[off + i];
+                     chars[off + i] = chars[off + y - 1 - i];
+                     chars[off + y - 1 - i] = c;
+                  }
+                  emit(WORD, off, y);
+                  break;
+               }
+               case NULL_SET:
+                  emit(NULL_SET, 0, 0);
+                  break;
+               case CLASS:
+               case NEGATED_CLASS:
+                  emit(s.kind[v], appendClass(s.classes, x, y), y);
+                  break;
+               case UNION:
+                  emit(UNION, x + shift, y + shift);
+                  break;
+               case CONCAT:
+                  emit(CONCAT, y + shift, x + shift);
+                  break;
+               case STAR:
+                  emit(STAR, x + shift, 0);
+                  break;
+               case REPEAT:
+                  emit(REPEAT, x + shift,
+                       appendBounds(s.bounds[y], s.bounds[y + 1]));
+                  break;
+               case CAPTURE:
+                  emit(CAPTURE, x + shift, y);
+                  break;
+               default:
+                  others.add(s.others[x].reverse());
+                  emit(OTHER, others.size() - 1, 0);
+            }
+         }
+         return size - 1;
+      }
+
+      Store store() {
+         return new Store(Arrays.copyOf(kind, size), Arrays.copyOf(a, size),
+                          Arrays.copyOf(b, size),
+                          Arrays.copyOf(chars, numChars),
+                          Arrays.copyOf(classes, numClassChars),
+                          Arrays.copyOf(bounds, numBounds),
+                          others.toArray(new RegularExpression[0]));
+      }
+
+      private int emit(byte k, int x, int y) {
+         if (size == kind.length) {
+            kind = Arrays.copyOf(kind, 2 * size);
+            a = Arrays.copyOf(a, 2 * size);
+            b = Arrays.copyOf(b, 2 * size);
+         }
+         kind[size] = k;
+         a[size] = x;
+         b[size] = y;
+         return size++;
+      }
+
+      private int appendChars(String w) {
+         ensureChars(w.length());
+         w.getChars(0, w.length(), chars, numChars);
+         numChars += w.length();
+         return numChars - w.length();
+      }
+
+      private int appendChars(char[] w, int off, int len) {
+         ensureChars(len);
+         System.arraycopy(w, off, chars, numChars, len);
+         numChars += len;
+         return numChars - len;
+      }
+
+      private void ensureChars(int len) {
+         if (numChars + len > chars.length) {
+            chars = Arrays.copyOf(chars,
+                                  Math.max(2 * chars.length, numChars + len));
+         }
+      }
+
+      private int appendClass(char[] items, int off, int len) {
+         if (numClassChars + len > classes.length) {
+            classes = Arrays.copyOf(classes,
+                                    Math.max(2 * classes.length, numClassChars + len));
+         }
+         System.arraycopy(items, off, classes, numClassChars, len);
+         numClassChars += len;
+         return numClassChars - len;
+      }
+
+      private int appendBounds(int min, int max) {
+         if (numBounds + 2 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+         }
+         bounds[numBounds] = min;
+         bounds[numBounds + 1] = max;
+         numBounds += 2;
+         return numBounds - 2;
+      }
+   }
+
+}
\ No newline at end of file
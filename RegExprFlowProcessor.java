@@ -0,0 +1,324 @@
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+/* An instance of this class is a stage of a reactive pipeline
+** (java.util.concurrent.Flow) that tests each record passing through it
+** against a compiled regular expression, and either passes on only the
+** records that match (filter()) or passes on every record tagged with
+** whether it matched (tag()).  Records may be strings or other
+** CharSequences, or UTF-8 bytes (matched by a RegExprUtf8Dfa).
+**
+** Matching runs on a given Executor, never on the threads of the
+** publisher or the subscriber.  Records that arrive while a batch is
+** being matched are queued and matched as the next batch, so under load
+** each task on the executor handles many records.  One processor uses at
+** most one thread at a time, and passes records on in the order in
+** which they arrived.
+**
+** Demand is honoured in both directions.  At most 'capacity' records are
+** ever requested from the publisher and not yet passed on (or filtered
+** out), so a slow subscriber slows the publisher down rather than making
+** this stage buffer without limit; requests to the publisher are made in
+** chunks of half the capacity.
+**
+** A processor has a single subscriber; a second one is sent onError().
+*/
+public class RegExprFlowProcessor<T, R> implements Flow.Processor<T, R> {
+
+   public static final int DEFAULT_BATCH_SIZE = 256;
+   public static final int DEFAULT_CAPACITY = 4 * DEFAULT_BATCH_SIZE;
+
+   /* A record together with whether it matched.
+   */
+   public static final class Tagged<T> {
+      private final T record;
+      private final boolean matched;
+
+      public Tagged(T record, boolean matched) {
+         this.record = record;
+         this.matched = matched;
+      }
+
+      public T record() { return record; }
+
+      public boolean matched() { return matched; }
+
+      @Override
+      public String toString() { return (matched ? "+ " : "- ") + record; }
+   }
+
+   // instance variables
+   // ------------------
+
+   private final Predicate<? super T> matcher;
+   private final BiFunction<? super T, Boolean, ? extends R> result;
+   private final Executor executor;
+   private final int batchSize;
+   private final int capacity;
+
+   private final ConcurrentLinkedQueue<T> input = new ConcurrentLinkedQueue<T>();
+   private final AtomicLong demand = new AtomicLong();   // from downstream
+   private final AtomicInteger wip = new AtomicInteger();  // drain requests
+
+   private volatile Flow.Subscription upstream;
+   private volatile Flow.Subscriber<? super R> downstream;
+   private volatile boolean subscribed;     // downstream.onSubscribe() done
+   private volatile boolean done;           // upstream has terminated
+   private volatile Throwable error;        // ... and why, if it failed
+   private volatile boolean cancelled;      // by downstream
+
+   // touched only by drain(), which never runs on two threads at once
+   private final ArrayDeque<R> output = new ArrayDeque<R>();
+   private boolean started;       // initial request made upstream
+   private boolean terminated;    // downstream told onComplete()/onError()
+   private int consumed;          // records gone since the last request
+
+   // constructors
+   // ------------
+
+   /* Establishes this processor as one that tests each record t with
+   ** matcher.test(t), passes on result.apply(t, <the outcome>) unless
+   ** that is null, and runs matching on the given executor, in batches of
+   ** at most batchSize records, with at most capacity records held.
+   ** pre: 0 < batchSize <= capacity
+   */
+   public RegExprFlowProcessor(Predicate<? super T> matcher,
+                               BiFunction<? super T, Boolean, ? extends R> result,
+                               Executor executor, int batchSize, int capacity) {
+      if (batchSize <= 0 || capacity < batchSize) {
+         throw new IllegalArgumentException(
+            "Need 0 < batchSize <= capacity: " + batchSize + ", " + capacity);
+      }
+      this.matcher = Objects.requireNonNull(matcher);
+      this.result = Objects.requireNonNull(result);
+      this.executor = Objects.requireNonNull(executor);
+      this.batchSize = batchSize;
+      this.capacity = capacity;
+   }
+
+   /* Returns a processor that passes on the records that match the given
+   ** pattern.
+   */
+   public static <T extends CharSequence>
+   RegExprFlowProcessor<T, T> filter(RegExprPattern p, Executor executor) {
+      return new RegExprFlowProcessor<T, T>(p::matches,
+                                            (t, matched) -> matched ? t : null,
+                                            executor, DEFAULT_BATCH_SIZE,
+                                            DEFAULT_CAPACITY);
+   }
+
+   /* Returns a processor that passes on the records, taken as UTF-8, that
+   ** the given automaton accepts.
+   */
+   public static RegExprFlowProcessor<byte[], byte[]>
+   filter(RegExprUtf8Dfa dfa, Executor executor) {
+      return new RegExprFlowProcessor<byte[], byte[]>(
+                    dfa::accepts, (t, matched) -> matched ? t : null,
+                    executor, DEFAULT_BATCH_SIZE, DEFAULT_CAPACITY);
+   }
+
+   /* Returns a processor that passes on every record, tagged with whether
+   ** it matches the given pattern.
+   */
+   public static <T extends CharSequence>
+   RegExprFlowProcessor<T, Tagged<T>> tag(RegExprPattern p, Executor executor) {
+      return new RegExprFlowProcessor<T, Tagged<T>>(
+                    p::matches, (t, matched) -> new Tagged<T>(t, matched),
+                    executor, DEFAULT_BATCH_SIZE, DEFAULT_CAPACITY);
+   }
+
+   // Flow.Publisher
+   // --------------
+
+   @Override
+   public void subscribe(Flow.Subscriber<? super R> subscriber) {
+      Objects.requireNonNull(subscriber);
+      boolean first;
+      synchronized (this) {
+         first = downstream == null;
+         if (first) { downstream = subscriber; }
+      }
+      if (!first) {
+         subscriber.onSubscribe(new Flow.Subscription() {
+            public void request(long n) { }
+            public void cancel() { }
+         });
+         subscriber.onError(new IllegalStateException(
+            "RegExprFlowProcessor allows only one subscriber"));
+         return;
+      }
+      subscriber.onSubscribe(new Flow.Subscription() {
+         @Override
+         public void request(long n) {
+            if (n <= 0) {
+               fail(new IllegalArgumentException(
+                  "Non-positive request: " + n));
+               return;
+            }
+            long d, e;
+            do {
+               d = demand.get();
+               e = d + n < 0 ? Long.MAX_VALUE : d + n;
+            } while (!demand.compareAndSet(d, e));
+            signal();
+         }
+
+         @Override
+         public void cancel() {
+            cancelled = true;
+            signal();
+         }
+      });
+      subscribed = true;
+      signal();
+   }
+
+   // Flow.Subscriber
+   // ---------------
+
+   @Override
+   public void onSubscribe(Flow.Subscription subscription) {
+      if (upstream != null) {
+         subscription.cancel();
+         return;
+      }
+      upstream = subscription;
+      signal();
+   }
+
+   @Override
+   public void onNext(T item) {
+      input.offer(Objects.requireNonNull(item));
+      signal();
+   }
+
+   @Override
+   public void onError(Throwable throwable) {
+      error = Objects.requireNonNull(throwable);
+      done = true;
+      signal();
+   }
+
+   @Override
+   public void onComplete() {
+      done = true;
+      signal();
+   }
+
+   // private
+   // -------
+
+   /* Records a failure of this stage: upstream is cancelled and
+   ** downstream told onError() (after the records already matched).
+   */
+   private void fail(Throwable t) {
+      if (error == null) { error = t; }
+      done = true;
+      Flow.Subscription s = upstream;
+      if (s != null) { s.cancel(); }
+      signal();
+   }
+
+   /* Makes sure that drain() runs (again) after this call.
+   */
+   private void signal() {
+      if (wip.getAndIncrement() == 0) {
+         try {
+            executor.execute(this::drain);
+         }
+         catch (RejectedExecutionException e) {
+            // fail, draining on this thread, which now owns the drain
+            if (error == null) { error = e; }
+            done = true;
+            Flow.Subscription s = upstream;
+            if (s != null) { s.cancel(); }
+            drain();
+         }
+      }
+   }
+
+   /* Does all the work there is to do: matches queued records, passes on
+   ** results as far as demand allows, requests more records, and passes
+   ** on termination.  Runs on one thread at a time (see signal()).
+   */
+   private void drain() {
+      int missed = 1;
+      do {
+         boolean progress = true;
+         while (progress && !terminated) {
+            progress = false;
+            if (cancelled) {
+               terminate();
+               break;
+            }
+            Flow.Subscription up = upstream;
+            if (!started && up != null && subscribed) {
+               started = true;
+               up.request(capacity);
+            }
+            // match a batch
+            T t;
+            for (int n = 0; n != batchSize && (t = input.poll()) != null; n++) {
+               progress = true;
+               R r;
+               try {
+                  r = result.apply(t, matcher.test(t));
+               }
+               catch (RuntimeException e) {
+                  fail(e);
+                  input.clear();
+                  break;
+               }
+               if (r == null) { consumed++; } else { output.add(r); }
+            }
+            // pass on results
+            if (subscribed) {
+               long d = demand.get();
+               long emitted = 0;
+               while (emitted != d && !output.isEmpty() && !cancelled) {
+                  downstream.onNext(output.poll());
+                  emitted++;
+               }
+               if (emitted != 0) {
+                  progress = true;
+                  consumed += (int)emitted;
+                  if (d != Long.MAX_VALUE) { demand.addAndGet(-emitted); }
+               }
+               if (done && input.isEmpty() && output.isEmpty() && !cancelled) {
+                  terminated = true;
+                  Throwable e = error;
+                  if (e == null) { downstream.onComplete(); }
+                  else { downstream.onError(e); }
+                  break;
+               }
+            }
+            // ask for more
+            if (up != null && !done && consumed != 0 &&
+                consumed >= Math.max(1, capacity / 2)) {
+               up.request(consumed);
+               consumed = 0;
+            }
+         }
+         missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+   }
+
+   /* Stops this stage after downstream has cancelled.
+   */
+   private void terminate() {
+      terminated = true;
+      Flow.Subscription s = upstream;
+      if (s != null) { s.cancel(); }
+      input.clear();
+      output.clear();
+   }
+
+}
\ No newline at end of file
@@ -0,0 +1,271 @@
+import java.util.Random;
+
+/* An instance of this class holds an editable string (a "document") and
+** keeps track of whether it is a member of the language described by a
+** given regular expression, updating the answer after each edit without
+** rescanning the document.
+**
+** The document is split into chunks, which are kept, in order, in a
+** balanced binary tree (a treap).  For each chunk the matcher stores the
+** transition function of the expression's DFA over that chunk (for each
+** state s, the state reached from s by reading the chunk), and for each
+** subtree the composition of the functions of its chunks.  The function
+** at the root thus tells which state the whole document leads to from
+** the start state.  An edit recomputes the functions of the chunks it
+** touches and recomposes those on the paths from them to the root, so
+** it costs O(chunk size * S + S * log n) for a DFA with S states and a
+** document of n chars, independent of where the edit is made.
+*/
+public class RegExprIncrementalMatcher {
+
+   private static final int DEFAULT_CHUNK_SIZE = 256;
+   private static final int DEFAULT_MAX_STATES = 4096;
+
+   // instance variables
+   // ------------------
+
+   private final RegExprDfa dfa;
+   private final int numStates;
+   private final int chunkSize;
+   private final Random rand = new Random(260);  // treap priorities
+   private Node root;
+
+   // constructors
+   // ------------
+
+   /* Establishes this matcher for the given regular expression, with an
+   ** empty document.
+   ** Throws IllegalArgumentException if the expression's DFA would have
+   ** more than maxStates states.
+   */
+   public RegExprIncrementalMatcher(RegularExpression r, int maxStates,
+                                    int chunkSize) {
+      dfa = RegExprDfa.build(r, maxStates);
+      if (dfa == null) {
+         throw new IllegalArgumentException(
+            "DFA for " + r + " has more than " + maxStates + " states");
+      }
+      numStates = dfa.numStates();
+      this.chunkSize = chunkSize;
+   }
+
+   public RegExprIncrementalMatcher(RegularExpression r) {
+      this(r, DEFAULT_MAX_STATES, DEFAULT_CHUNK_SIZE);
+   }
+
+   // observers
+   // ---------
+
+   /* Reports whether the document is a member of the language.
+   */
+   public boolean isMember() {
+      int s = root == null ? dfa.start() : root.agg[dfa.start()];
+      return dfa.isAccepting(s);
+   }
+
+   /* Returns the length of the document.
+   */
+   public int length() { return size(root); }
+
+   /* Returns the document.
+   */
+   @Override
+   public String toString() {
+      StringBuilder b = new StringBuilder(length());
+      appendTo(root, b);
+      return b.toString();
+   }
+
+   // mutators
+   // --------
+
+   /* Inserts the given chars into the document, before position pos.
+   ** pre: 0 <= pos <= length()
+   */
+   public void insert(int pos, CharSequence s) {
+      checkPosition(pos, length());
+      if (s.length() == 0) { return; }
+      if (root != null  &&  insertInPlace(root, pos, s)) { return; }
+      Node[] parts = split(root, pos);
+      root = merge(merge(parts[0], build(s)), parts[1]);
+   }
+
+   /* Deletes the chars in positions [from, to) from the document.
+   ** pre: 0 <= from <= to <= length()
+   */
+   public void delete(int from, int to) {
+      checkPosition(from, to);
+      checkPosition(to, length());
+      if (from == to) { return; }
+      Node[] right = split(root, to);
+      Node[] left = split(right[0], from);
+      root = merge(left[0], right[1]);
+   }
+
+   /* Replaces the chars in positions [from, to) by the given chars.
+   ** pre: 0 <= from <= to <= length()
+   */
+   public void replace(int from, int to, CharSequence s) {
+      delete(from, to);
+      insert(from, s);
+   }
+
+   /* Replaces the whole document by the given chars.
+   */
+   public void setText(CharSequence s) {
+      root = build(s);
+   }
+
+
+   // private: the treap
+   // ------------------
+
+   /* A node holds one chunk of the document.
+   */
+   private class Node {
+      char[] text;      // text[0..len) is the chunk
+      int len;
+      final int[] fn;   // transition function of the chunk
+      final int[] agg;  // composition of the functions of the subtree
+      int size;         // number of chars in the subtree
+      final int prio;
+      Node left, right;
+
+      Node(CharSequence s, int from, int to) {
+         text = new char[Math.max(2 * chunkSize, to - from)];
+         len = to - from;
+         for (int i = 0; i != len; i++) { text[i] = s.charAt(from + i); }
+         fn = new int[numStates];
+         agg = new int[numStates];
+         prio = rand.nextInt();
+         recomputeChunk();
+         update();
+      }
+
+      /* Recomputes fn from the chunk's text.
+      */
+      void recomputeChunk() {
+         for (int s = 0; s != numStates; s++) {
+            int t = s;
+            for (int i = 0; i != len  &&  t != RegExprDfa.DEAD; i++) {
+               t = dfa.step(t, text[i]);
+            }
+            fn[s] = t;
+         }
+      }
+
+      /* Recomputes size and agg from the children.
+      */
+      void update() {
+         size = size(left) + len + size(right);
+         for (int s = 0; s != numStates; s++) {
+            int t = left == null ? s : left.agg[s];
+            t = fn[t];
+            agg[s] = right == null ? t : right.agg[t];
+         }
+      }
+   }
+
+   private static int size(Node n) { return n == null ? 0 : n.size; }
+
+   /* Returns a treap holding the given chars in chunks of chunkSize.
+   */
+   private Node build(CharSequence s) {
+      Node result = null;
+      for (int i = 0; i < s.length(); i = i + chunkSize) {
+         result = merge(result, new Node(s, i, Math.min(s.length(), i + chunkSize)));
+      }
+      return result;
+   }
+
+   /* If the chunk into which pos falls (or, at a chunk boundary, the one
+   ** ending there) has room for s, inserts s into it, updates the functions
+   ** on the path to it, and returns true; otherwise returns false.
+   */
+   private boolean insertInPlace(Node n, int pos, CharSequence s) {
+      int leftSize = size(n.left);
+      boolean done;
+      if (pos < leftSize) {
+         done = insertInPlace(n.left, pos, s);
+      }
+      else if (pos <= leftSize + n.len) {
+         int at = pos - leftSize;
+         if (n.len + s.length() > n.text.length) { return false; }
+         System.arraycopy(n.text, at, n.text, at + s.length(), n.len - at);
+         for (int i = 0; i != s.length(); i++) { n.text[at + i] = s.charAt(i); }
+         n.len = n.len + s.length();
+         n.recomputeChunk();
+         done = true;
+      }
+      else {
+         done = insertInPlace(n.right, pos - leftSize - n.len, s);
+      }
+      if (done) { n.update(); }
+      return done;
+   }
+
+   /* Splits the given treap into those holding its first pos chars and the
+   ** rest, splitting a chunk if necessary.
+   */
+   private Node[] split(Node n, int pos) {
+      if (n == null) { return new Node[] { null, null }; }
+      int leftSize = size(n.left);
+      if (pos <= leftSize) {
+         Node[] parts = split(n.left, pos);
+         n.left = parts[1];
+         n.update();
+         parts[1] = n;
+         return parts;
+      }
+      else if (pos >= leftSize + n.len) {
+         Node[] parts = split(n.right, pos - leftSize - n.len);
+         n.right = parts[0];
+         n.update();
+         parts[0] = n;
+         return parts;
+      }
+      else {   // pos falls strictly inside this node's chunk
+         int at = pos - leftSize;
+         Node tail = new Node(new String(n.text, at, n.len - at), 0, n.len - at);
+         Node oldRight = n.right;
+         n.len = at;
+         n.right = null;
+         n.recomputeChunk();
+         n.update();
+         return new Node[] { n, merge(tail, oldRight) };
+      }
+   }
+
+   /* Returns the treap holding the chars of a followed by those of b.
+   */
+   private Node merge(Node a, Node b) {
+      if (a == null) { return b; }
+      if (b == null) { return a; }
+      if (a.prio > b.prio) {
+         a.right = merge(a.right, b);
+         a.update();
+         return a;
+      }
+      else {
+         b.left = merge(a, b.left);
+         b.update();
+         return b;
+      }
+   }
+
+   private static void appendTo(Node n, StringBuilder b) {
+      if (n != null) {
+         appendTo(n.left, b);
+         b.append(n.text, 0, n.len);
+         appendTo(n.right, b);
+      }
+   }
+
+   private static void checkPosition(int pos, int limit) {
+      if (pos < 0 || pos > limit) {
+         throw new IndexOutOfBoundsException("position " + pos + 
+                                             ", limit " + limit);
+      }
+   }
+
+}
\ No newline at end of file
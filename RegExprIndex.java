@@ -0,0 +1,505 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/* An instance of this class is an index over a large collection of
+** regular expressions (a rulebase), which, given an input, quickly rules
+** out most of the expressions of which it cannot be a member, so that
+** full matching need only be done against the few that remain (the
+** candidates).
+**
+** Each expression is summarized, when the index is built, by
+**
+**    - the interval [minLength, maxLength] of the lengths of its members;
+**    - the set of chars with which its non-empty members can begin;
+**    - a set of literals, taken from its RegExprWord nodes, one of which
+**      every member contains (e.g., { ERROR, FATAL } for
+**      ~*.(ERROR + FATAL).~*), if it has one.
+**
+** and is filed under one key: its literals, if they are long enough to
+** be selective, or else its first chars, if there are few enough of
+** them, or else under neither (an unkeyed expression, e.g., ~*.[0-9]).
+** For an input x, one scan of x by an Aho-Corasick automaton for all the
+** literals finds the expressions filed under literals that x contains,
+** one lookup those filed under x's first char, and the unkeyed
+** expressions are kept sorted by minLength so that those too long for x
+** are never looked at; each of those found must also pass the other
+** tests of its summary.  So the time per input is O(|x|) plus the number
+** of expressions looked at, which for a rulebase of mostly literal-
+** bearing rules is a handful, not the size of the rulebase.
+**
+** The expressions are kept in flat form (RegExprFlat.of(List)), sharing
+** one set of arrays, which for a large rulebase takes a fraction of the
+** memory of the trees; the summaries are computed by forward passes over
+** their nodes, and so are safe for however deep an expression.
+**
+** Expressions are numbered by their position in the list the index is
+** built from.  An index may be shared among threads.
+*/
+public class RegExprIndex {
+
+   public static final int MIN_LITERAL_LENGTH = 2;  // to file under literals
+   public static final int MAX_FIRST_CHARS = 64;    // to file under first chars
+
+   private static final int MAX_ALTERNATIVES = 16;  // literals per expression
+   private static final char[] NO_CHARS = new char[0];
+
+   // instance variables
+   // ------------------
+
+   private final RegExprFlat[] exprs;
+   private final int[] minLength, maxLength;     // maxLength: MAX_VALUE if
+                                                 // unbounded
+   private final char[][] first;                 // null: any char
+   private final Literals literals;
+   private final int[][] byLiteral;              // by literal number
+   private final Map<Character, int[]> byFirst;
+   private final int[] unkeyed;                  // by minLength
+   private final int[] nullable;                 // those with member ""
+   private final AtomicReferenceArray<RegExprPattern> patterns;
+   private final RegExprCompileCache cache = new RegExprCompileCache();
+   private final ThreadLocal<Scratch> scratch;
+
+   // constructor
+   // -----------
+
+   /* Establishes this index as the one for the given expressions.
+   */
+   public RegExprIndex(List<RegularExpression> rules) {
+      final int n = rules.size();
+      exprs = RegExprFlat.of(rules).toArray(new RegExprFlat[0]);
+      minLength = new int[n];
+      maxLength = new int[n];
+      first = new char[n][];
+      patterns = new AtomicReferenceArray<RegExprPattern>(n);
+      Map<String, Integer> literalNumbers = new HashMap<String, Integer>();
+      List<String> literalList = new ArrayList<String>();
+      List<IntStack> literalRules = new ArrayList<IntStack>();
+      Map<Character, IntStack> firstRules = new HashMap<Character, IntStack>();
+      IntStack unkeyedRules = new IntStack();
+      IntStack nullableRules = new IntStack();
+      for (int i = 0; i != n; i++) {
+         RegExprFlat r = exprs[i];
+         if (r.isEmpty()) {          // never a candidate
+            minLength[i] = Integer.MAX_VALUE;
+            continue;
+         }
+         minLength[i] = r.minLength();
+         maxLength[i] = r.isFinite() ? r.maxLength() : Integer.MAX_VALUE;
+         Summary summary = new Summary(r);
+         first[i] = summary.first;
+         if (minLength[i] == 0) { nullableRules.pushInt(i); }
+         if (maxLength[i] == 0) { continue; }
+         String[] required = summary.literals;
+         int numFirst = first[i] == null ? Integer.MAX_VALUE : count(first[i]);
+         if (required != null &&
+             (shortest(required) >= MIN_LITERAL_LENGTH ||
+              numFirst > MAX_FIRST_CHARS)) {
+            for (String w : required) {
+               Integer k = literalNumbers.get(w);
+               if (k == null) {
+                  k = literalList.size();
+                  literalNumbers.put(w, k);
+                  literalList.add(w);
+                  literalRules.add(new IntStack());
+               }
+               literalRules.get(k).pushInt(i);
+            }
+         }
+         else if (numFirst <= MAX_FIRST_CHARS) {
+            char[] set = first[i];
+            for (int j = 0; j != set.length; j += 2) {
+               for (int c = set[j]; c <= set[j + 1]; c++) {
+                  IntStack s = firstRules.get((char)c);
+                  if (s == null) {
+                     s = new IntStack();
+                     firstRules.put((char)c, s);
+                  }
+                  s.pushInt(i);
+               }
+            }
+         }
+         else { unkeyedRules.pushInt(i); }
+      }
+      literals = new Literals(literalList);
+      byLiteral = new int[literalList.size()][];
+      for (int k = 0; k != byLiteral.length; k++) {
+         byLiteral[k] = toArray(literalRules.get(k));
+      }
+      byFirst = new HashMap<Character, int[]>();
+      for (Map.Entry<Character, IntStack> e : firstRules.entrySet()) {
+         byFirst.put(e.getKey(), toArray(e.getValue()));
+      }
+      Integer[] sorted = new Integer[unkeyedRules.sizeOf()];
+      for (int j = 0; j != sorted.length; j++) { sorted[j] = unkeyedRules.get(j); }
+      Arrays.sort(sorted, (a, b) -> Integer.compare(minLength[a], minLength[b]));
+      unkeyed = new int[sorted.length];
+      for (int j = 0; j != sorted.length; j++) { unkeyed[j] = sorted[j]; }
+      nullable = toArray(nullableRules);
+      scratch = ThreadLocal.withInitial(() -> new Scratch(n, byLiteral.length));
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the number of expressions indexed.
+   */
+   public int size() { return exprs.length; }
+
+   /* Returns expression number i, in flat form.
+   */
+   public RegularExpression expression(int i) { return exprs[i]; }
+
+   /* Returns the number of distinct literals under which expressions are
+   ** filed.
+   */
+   public int numLiterals() { return byLiteral.length; }
+
+   /* Returns the number of expressions filed under no key, which are
+   ** looked at for every input long enough for them.
+   */
+   public int numUnkeyed() { return unkeyed.length; }
+
+   /* Returns, in increasing order, the numbers of the expressions of which
+   ** x may be a member: all those of which it is, and typically few
+   ** others.
+   */
+   public int[] candidates(CharSequence x) {
+      Scratch sc = scratch.get();
+      sc.begin();
+      final int n = x.length();
+      if (n == 0) { return nullable.clone(); }
+      // expressions filed under literals in x
+      int q = 0;
+      for (int i = 0; i != n; i++) {
+         q = literals.step(q, x.charAt(i));
+         for (int p = literals.firstOutput(q); p != -1;
+              p = literals.nextOutput[p]) {
+            int k = literals.output[p];
+            if (sc.literalStamp[k] != sc.epoch) {
+               sc.literalStamp[k] = sc.epoch;
+               for (int r : byLiteral[k]) { consider(r, x, sc); }
+            }
+         }
+      }
+      // ... under x's first char
+      int[] rules = byFirst.get(x.charAt(0));
+      if (rules != null) {
+         for (int r : rules) { consider(r, x, sc); }
+      }
+      // ... and under neither
+      for (int j = 0; j != unkeyed.length && minLength[unkeyed[j]] <= n; j++) {
+         consider(unkeyed[j], x, sc);
+      }
+      int[] result = new int[sc.found.sizeOf()];
+      for (int j = 0; j != result.length; j++) { result[j] = sc.found.get(j); }
+      Arrays.sort(result);
+      return result;
+   }
+
+   /* Returns, in increasing order, the numbers of the expressions of which
+   ** x is a member.  Each expression is compiled (to a RegExprPattern) the
+   ** first time it is a candidate, and kept.
+   */
+   public int[] matches(CharSequence x) {
+      int[] candidates = candidates(x);
+      int m = 0;
+      for (int r : candidates) {
+         if (pattern(r).matches(x)) { candidates[m++] = r; }
+      }
+      return Arrays.copyOf(candidates, m);
+   }
+
+   // private
+   // -------
+
+   /* Adds expression r to the candidates for x, unless it is there already
+   ** or its summary rules it out.
+   */
+   private void consider(int r, CharSequence x, Scratch sc) {
+      if (sc.ruleStamp[r] == sc.epoch) { return; }
+      sc.ruleStamp[r] = sc.epoch;
+      final int n = x.length();
+      if (n < minLength[r] || n > maxLength[r]) { return; }
+      if (first[r] != null && !RegExprCharClass.contains(first[r], x.charAt(0))) {
+         return;
+      }
+      sc.found.pushInt(r);
+   }
+
+   private RegExprPattern pattern(int r) {
+      RegExprPattern p = patterns.get(r);
+      if (p == null) {
+         // another thread may compile it too; either result will do
+         p = RegExprPattern.compile(exprs[r], cache);
+         patterns.set(r, p);
+      }
+      return p;
+   }
+
+   /* The summary of an expression, computed node by node, each node's
+   ** from those of its operands:
+   **
+   **    - first: the chars with which a non-empty member can begin, as a
+   **      range set, or null if that is not known (any char may);
+   **    - literals: literals one of which every member contains, or null
+   **      if none are known.  Of two choices, the one whose shortest
+   **      literal is longer is taken, as it is likely to be rarer.
+   */
+   private static final class Summary {
+      final char[] first;
+      final String[] literals;
+
+      Summary(RegExprFlat r) {
+         final int from = r.firstNode(), n = r.rootNode() - from + 1;
+         char[][] firsts = new char[n][];
+         String[][] lits = new String[n][];
+         boolean[] nullable = new boolean[n];     // has member ""
+         for (int i = 0; i != n; i++) {
+            int v = from + i;
+            int a = -1, b = -1;
+            switch (r.kind(v)) {
+               case RegExprFlat.UNION:
+               case RegExprFlat.CONCAT:
+                  a = r.operand(v) - from;
+                  b = r.secondOperand(v) - from;
+                  break;
+               case RegExprFlat.STAR:
+               case RegExprFlat.REPEAT:
+               case RegExprFlat.CAPTURE:
+                  a = r.operand(v) - from;
+                  break;
+               default:
+                  break;
+            }
+            switch (r.kind(v)) {
+               case RegExprFlat.WORD: {
+                  String w = r.word(v);
+                  nullable[i] = w.isEmpty();
+                  firsts[i] = w.isEmpty() ? NO_CHARS
+                                          : new char[] { w.charAt(0), w.charAt(0) };
+                  lits[i] = w.isEmpty() ? null : new String[] { w };
+                  break;
+               }
+               case RegExprFlat.NULL_SET:
+                  firsts[i] = NO_CHARS;
+                  break;
+               case RegExprFlat.CLASS:
+               case RegExprFlat.NEGATED_CLASS:
+                  firsts[i] = r.members(v);
+                  break;
+               case RegExprFlat.UNION:
+                  nullable[i] = nullable[a] || nullable[b];
+                  firsts[i] = union(firsts[a], firsts[b]);
+                  if (lits[a] != null && lits[b] != null &&
+                      lits[a].length + lits[b].length <= MAX_ALTERNATIVES) {
+                     lits[i] = Arrays.copyOf(lits[a], lits[a].length + lits[b].length);
+                     System.arraycopy(lits[b], 0, lits[i], lits[a].length,
+                                      lits[b].length);
+                  }
+                  break;
+               case RegExprFlat.CONCAT:
+                  nullable[i] = nullable[a] && nullable[b];
+                  firsts[i] = nullable[a] ? union(firsts[a], firsts[b]) : firsts[a];
+                  lits[i] = lits[a] == null ? lits[b] :
+                            lits[b] == null ? lits[a] :
+                            shortest(lits[b]) > shortest(lits[a]) ? lits[b] : lits[a];
+                  break;
+               case RegExprFlat.STAR:
+                  nullable[i] = true;
+                  firsts[i] = firsts[a];
+                  break;
+               case RegExprFlat.REPEAT:
+                  nullable[i] = r.repeatMin(v) == 0 || nullable[a];
+                  firsts[i] = r.repeatMax(v) == 0 ? NO_CHARS : firsts[a];
+                  lits[i] = r.repeatMin(v) == 0 ? null : lits[a];
+                  break;
+               case RegExprFlat.CAPTURE:
+                  nullable[i] = nullable[a];
+                  firsts[i] = firsts[a];
+                  lits[i] = lits[a];
+                  break;
+               default: {
+                  RegularExpression e = r.other(v);
+                  nullable[i] = e.minLength() == 0;
+                  if (e instanceof RegExprDictionary) {
+                     RegExprDictionary d = (RegExprDictionary)e;
+                     firsts[i] = firstChars(d);
+                     if (d.size() <= MAX_ALTERNATIVES && d.minLength() != 0) {
+                        lits[i] = d.words().toArray(new String[0]);
+                     }
+                  }
+               }
+            }
+         }
+         first = firsts[n - 1];
+         literals = lits[n - 1];
+      }
+   }
+
+   /* Returns the first chars of the non-empty words of d, as a range set.
+   */
+   private static char[] firstChars(RegExprDictionary d) {
+      List<String> words = d.words();
+      char[] pairs = new char[2 * words.size()];
+      int m = 0;
+      for (String w : words) {
+         if (!w.isEmpty()) {
+            pairs[m++] = w.charAt(0);
+            pairs[m++] = w.charAt(0);
+         }
+      }
+      return RegExprCharClass.normalize(Arrays.copyOf(pairs, m));
+   }
+
+   private static char[] union(char[] a, char[] b) {
+      if (a == null || b == null) { return null; }
+      char[] pairs = Arrays.copyOf(a, a.length + b.length);
+      System.arraycopy(b, 0, pairs, a.length, b.length);
+      return RegExprCharClass.normalize(pairs);
+   }
+
+   private static int count(char[] set) {
+      int n = 0;
+      for (int j = 0; j != set.length; j += 2) { n += set[j + 1] - set[j] + 1; }
+      return n;
+   }
+
+   private static int shortest(String[] words) {
+      int min = Integer.MAX_VALUE;
+      for (String w : words) { min = Math.min(min, w.length()); }
+      return min;
+   }
+
+   private static int[] toArray(IntStack s) {
+      int[] result = new int[s.sizeOf()];
+      for (int j = 0; j != result.length; j++) { result[j] = s.get(j); }
+      return result;
+   }
+
+   /* An Aho-Corasick automaton for a set of literals: a trie of the
+   ** literals, in compressed-row form (the edges of node q are
+   ** labels[first[q]..first[q+1]), in increasing order, and the
+   ** corresponding targets), with failure links, so that one left-to-right
+   ** scan of an input finds every occurrence of every literal.  Node 0 is
+   ** the root.
+   */
+   private static final class Literals {
+      final int[] first;
+      final char[] labels;
+      final int[] targets;
+      final int[] fail;         // the node of the longest proper suffix
+      final int[] output;       // the literal that ends at a node, or -1
+      final int[] nextOutput;   // the next node on the failure chain with
+                                // an output, or -1
+
+      Literals(List<String> words) {
+         // the trie, with its edges keyed by (node << 16) | label
+         Map<Long, Integer> edges = new HashMap<Long, Integer>();
+         int numNodes = 1;
+         int[] ends = new int[words.size()];     // the node literal k ends at
+         for (int k = 0; k != words.size(); k++) {
+            String w = words.get(k);
+            int q = 0;
+            for (int i = 0; i != w.length(); i++) {
+               long key = ((long)q << 16) | w.charAt(i);
+               Integer t = edges.get(key);
+               if (t == null) {
+                  t = numNodes++;
+                  edges.put(key, t);
+               }
+               q = t;
+            }
+            ends[k] = q;
+         }
+         long[] keys = new long[edges.size()];
+         int m = 0;
+         for (long key : edges.keySet()) { keys[m++] = key; }
+         Arrays.sort(keys);
+         first = new int[numNodes + 1];
+         labels = new char[keys.length];
+         targets = new int[keys.length];
+         for (int j = 0; j != keys.length; j++) {
+            first[(int)(keys[j] >>> 16) + 1]++;
+            labels[j] = (char)keys[j];
+            targets[j] = edges.get(keys[j]);
+         }
+         for (int q = 0; q != numNodes; q++) { first[q + 1] += first[q]; }
+         output = new int[numNodes];
+         Arrays.fill(output, -1);
+         for (int k = 0; k != ends.length; k++) { output[ends[k]] = k; }
+         // failure links, breadth first, as a node's link is shallower
+         fail = new int[numNodes];
+         nextOutput = new int[numNodes];
+         nextOutput[0] = -1;
+         int[] queue = new int[numNodes];
+         int head = 0, tail = 0;
+         queue[tail++] = 0;
+         while (head != tail) {
+            int q = queue[head++];
+            for (int j = first[q]; j != first[q + 1]; j++) {
+               int t = targets[j];
+               fail[t] = q == 0 ? 0 : step(fail[q], labels[j]);
+               nextOutput[t] = output[fail[t]] != -1 ? fail[t]
+                                                     : nextOutput[fail[t]];
+               queue[tail++] = t;
+            }
+         }
+      }
+
+      /* Returns the node reached from node q on c.
+      */
+      int step(int q, char c) {
+         while (true) {
+            int t = child(q, c);
+            if (t != -1) { return t; }
+            if (q == 0) { return 0; }
+            q = fail[q];
+         }
+      }
+
+      /* Returns node q if a literal ends there, else the next node on its
+      ** failure chain at which one does, or -1.
+      */
+      int firstOutput(int q) { return output[q] != -1 ? q : nextOutput[q]; }
+
+      private int child(int q, char c) {
+         int low = first[q], high = first[q + 1] - 1;
+         while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (labels[mid] < c) { low = mid + 1; }
+            else if (labels[mid] > c) { high = mid - 1; }
+            else { return targets[mid]; }
+         }
+         return -1;
+      }
+   }
+
+   /* The scratch space of one thread: an expression (or a literal) has
+   ** been seen for the current input iff its stamp is the current epoch.
+   */
+   private static final class Scratch {
+      final int[] ruleStamp;
+      final int[] literalStamp;
+      final IntStack found = new IntStack();
+      int epoch;
+
+      Scratch(int numRules, int numLiterals) {
+         ruleStamp = new int[numRules];
+         literalStamp = new int[numLiterals];
+      }
+
+      void begin() {
+         found.clear();
+         if (++epoch == 0) {      // wrapped around: forget everything
+            Arrays.fill(ruleStamp, 0);
+            Arrays.fill(literalStamp, 0);
+            epoch = 1;
+         }
+      }
+   }
+
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+import java.util.Random;
+
+/* An instance of this class wraps another regular expression, behaving
+** exactly like it while recording, in a RegExprStats object, the outcome,
+** input length, and latency of every membership test.  Recording is off
+** until it is switched on (and it can be switched off again at any time)
+** through the stats object, either directly or via JMX; while it is off,
+** isMember() costs only one extra volatile read.
+**
+** Typical use:
+**    RegExprInstrumented r = RegExprInstrumented.instrument("users", expr);
+**    r.stats().setEnabled(true);
+*/
+public class RegExprInstrumented extends RegularExpression {
+
+   // instance variables
+   // ------------------
+
+   private final RegularExpression r;
+   private final RegExprStats stats;
+
+   // constructors
+   // ------------
+
+   /* Establishes this regular expression as one that behaves like r and
+   ** records its membership tests in the given stats object.
+   */
+   public RegExprInstrumented(RegularExpression r, RegExprStats stats) {
+      this.r = r;
+      this.stats = stats;
+   }
+
+   /* Returns an instrumented version of r whose statistics are registered
+   ** via JMX under the given name.
+   */
+   public static RegExprInstrumented instrument(String name,
+                                                RegularExpression r) {
+      RegExprStats stats = new RegExprStats(name, r);
+      stats.register();
+      return new RegExprInstrumented(r, stats);
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the statistics object in which this expression records.
+   */
+   public RegExprStats stats() { return stats; }
+
+   /* Returns the (uninstrumented) regular expression wrapped by this one.
+   */
+   public RegularExpression unwrap() { return r; }
+
+   @Override
+   public boolean isMember(String x, RegExprMatchContext ctx) {
+      if (!stats.isEnabled()) { return r.isMember(x, ctx); }
+      long start = System.nanoTime();
+      boolean result = r.isMember(x, ctx);
+      stats.recordMatch(x.length(), result, System.nanoTime() - start);
+      return result;
+   }
+
+   @Override
+   public boolean isFinite() { return r.isFinite(); }
+
+   @Override
+   public boolean isEmpty() { return r.isEmpty(); }
+
+   @Override
+   public int minLength() { return r.minLength(); }
+
+   @Override
+   public int maxLength() { return r.maxLength(); }
+
+   @Override
+   public String randomMember(Random rand) { return r.randomMember(rand); }
+
+   @Override
+   public String toString() { return r.toString(); }
+
+   /* Returns the reverse of the wrapped expression, uninstrumented.
+   */
+   @Override
+   public RegularExpression reverse() { return r.reverse(); }
+
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) { return r.compile(nfa, next); }
+
+}
\ No newline at end of file
@@ -0,0 +1,105 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* An instance of this class records a distribution of non-negative long
+** values (typically latencies in nanoseconds) in the manner of an
+** HdrHistogram: values below SUB_COUNT are counted exactly, and larger
+** values fall into buckets whose width is a fixed fraction (1/SUB_COUNT)
+** of their magnitude.  Recording is a single atomic increment, so any
+** number of threads may record concurrently without locking.
+*/
+public class RegExprLatencyHistogram {
+
+   // class constants
+   // ---------------
+
+   private static final int SUB_BITS = 5;
+   private static final int SUB_COUNT = 1 << SUB_BITS;   // 32
+   private static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+   // instance variables
+   // ------------------
+
+   private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+   // mutators
+   // --------
+
+   /* Records one occurrence of the given value (negative values are
+   ** recorded as zero).
+   */
+   public void record(long value) {
+      counts.incrementAndGet(indexOf(Math.max(0, value)));
+   }
+
+   /* Discards all recorded values.
+   */
+   public void clear() {
+      for (int i = 0; i != NUM_BUCKETS; i++) { counts.set(i, 0); }
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the number of values recorded.
+   */
+   public long count() {
+      long total = 0;
+      for (int i = 0; i != NUM_BUCKETS; i++) { total = total + counts.get(i); }
+      return total;
+   }
+
+   /* Returns (an upper bound, accurate to within 1/SUB_COUNT, of) the
+   ** smallest recorded value v such that at least the given fraction of
+   ** the recorded values are <= v, or zero if nothing has been recorded.
+   ** pre: 0 <= fraction <= 1
+   */
+   public long valueAtFraction(double fraction) {
+      long[] snapshot = new long[NUM_BUCKETS];
+      long total = 0;
+      for (int i = 0; i != NUM_BUCKETS; i++) {
+         snapshot[i] = counts.get(i);
+         total = total + snapshot[i];
+      }
+      if (total == 0) { return 0; }
+      long target = Math.max(1, (long)Math.ceil(fraction * total));
+      long seen = 0;
+      for (int i = 0; i != NUM_BUCKETS; i++) {
+         seen = seen + snapshot[i];
+         if (seen >= target) { return highestValueIn(i); }
+      }
+      return highestValueIn(NUM_BUCKETS - 1);
+   }
+
+   /* Returns (an upper bound of) the largest recorded value, or zero if
+   ** nothing has been recorded.
+   */
+   public long maxValue() {
+      for (int i = NUM_BUCKETS - 1; i >= 0; i--) {
+         if (counts.get(i) != 0) { return highestValueIn(i); }
+      }
+      return 0;
+   }
+
+   // private
+   // -------
+
+   /* Returns the index of the bucket into which v falls.
+   ** pre: v >= 0
+   */
+   private static int indexOf(long v) {
+      if (v < SUB_COUNT) { return (int)v; }
+      int shift = (63 - Long.numberOfLeadingZeros(v)) - SUB_BITS;
+      int sub = (int)(v >>> shift);   // SUB_COUNT <= sub < 2*SUB_COUNT
+      return (shift + 1) * SUB_COUNT + (sub - SUB_COUNT);
+   }
+
+   /* Returns the largest value that falls into bucket i.
+   */
+   private static long highestValueIn(int i) {
+      if (i < SUB_COUNT) { return i; }
+      int shift = i / SUB_COUNT - 1;
+      long sub = i % SUB_COUNT + SUB_COUNT;
+      return ((sub + 1) << shift) - 1;
+   }
+
+}
\ No newline at end of file
@@ -0,0 +1,349 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/* An instance of this class is a DFA built lazily, while matching: a
+** state, and each of its transitions, is computed from the NFA the
+** first time some input needs it, and then kept.  Unlike RegExprDfa it
+** never builds states that no input reaches, so it suits expressions
+** whose full DFA would be too large, and it costs nothing up front.
+**
+** One instance is meant to be shared by all the threads matching against
+** an expression, so that each state is computed once, by whichever
+** thread first needs it, and then used by all of them; there are no
+** locks.  DFA states are interned in a ConcurrentHashMap (so that two
+** threads computing the same state agree on its number), and the
+** transition table is a set of AtomicIntegerArrays, whose entries (0
+** until known) are filled in with compareAndSet().  A thread that reads
+** a transition filled in by another also sees the state it leads to, as
+** a state is published before its number.  The table grows by adding
+** arrays, never by copying, so a reader never sees a table being
+** replaced.
+**
+** The number of states is bounded by a budget.  Once it is used up, an
+** input that needs a new state goes on from there by simulating the NFA
+** (for the rest of that input only), so matching stays correct and
+** linear, just slower.  Such a transition is marked OVER_BUDGET in the
+** table, so that later inputs go straight to the simulation instead of
+** computing the missing state again.  An NFA with counters (see RegExprNfa) is always
+** simulated, as its states alone do not determine what it accepts.
+*/
+public class RegExprLazyDfa implements RegExprEngine {
+
+   public static final int DEAD = 0;
+
+   // a table entry for a transition to a state beyond the budget
+   private static final int OVER_BUDGET = -1;
+
+   private static final int CHUNK_SHIFT = 8;      // 256 states per array
+   private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+   private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+   // instance variables
+   // ------------------
+
+   private final RegExprNfa nfa;
+   private final RegExprAlphabet alphabet;
+   private final int numClasses;
+   private final int maxStates;
+   private final int start;
+   private final boolean counting;      // the NFA has counters
+
+   private final ConcurrentHashMap<RegExprDfa.StateSet, Integer> ids =
+      new ConcurrentHashMap<RegExprDfa.StateSet, Integer>();
+   private final AtomicInteger nextId = new AtomicInteger();
+   private final AtomicReferenceArray<State> states;
+   // chunks[s >> CHUNK_SHIFT] holds the rows of states s; an entry is
+   // 1 + the target state, 0 if not yet known, or OVER_BUDGET
+   private final AtomicReferenceArray<AtomicIntegerArray> chunks;
+
+   private final ThreadLocal<Scratch> scratch;
+
+   // constructor
+   // -----------
+
+   /* Establishes this automaton as the lazy DFA equivalent to the given
+   ** NFA, with at most maxStates states.
+   ** pre: maxStates >= 2
+   */
+   public RegExprLazyDfa(RegExprNfa nfa, int maxStates) {
+      this.nfa = nfa;
+      this.alphabet = new RegExprAlphabet(nfa);
+      this.numClasses = alphabet.size();
+      this.maxStates = maxStates;
+      this.states = new AtomicReferenceArray<State>(maxStates);
+      this.chunks = new AtomicReferenceArray<AtomicIntegerArray>(
+                       (maxStates + CHUNK_SIZE - 1) >> CHUNK_SHIFT);
+      this.scratch = ThreadLocal.withInitial(() -> new Scratch(nfa.size()));
+      this.counting = nfa.numCounters() != 0;
+      intern(new State(new int[0], false));       // DEAD
+      Scratch sc = scratch.get();
+      sc.current.clear();
+      nfa.addClosure(sc.current, nfa.start, sc.stack);
+      this.start = intern(toState(sc.current));
+   }
+
+   /* Returns the lazy DFA for the given regular expression.
+   */
+   public static RegExprLazyDfa build(RegularExpression r, int maxStates) {
+      return new RegExprLazyDfa(RegExprNfa.compile(r), maxStates);
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the number of states computed so far.
+   */
+   public int numStates() { return ids.size(); }
+
+   public int maxStates() { return maxStates; }
+
+   public int numClasses() { return numClasses; }
+
+   @Override
+   public boolean matches(CharSequence x) {
+      if (counting) { return nfa.accepts(x); }
+      int s = start;
+      final int n = x.length();
+      for (int i = 0; i != n; i++) {
+         int k = alphabet.classOf(x.charAt(i));
+         int e = chunks.get(s >> CHUNK_SHIFT)
+                       .getAcquire((s & CHUNK_MASK) * numClasses + k);
+         if (e == OVER_BUDGET) { return simulate(s, x, i); }
+         int t = e - 1;
+         if (t < 0) {
+            t = transition(s, k);
+            if (t < 0) { return simulate(s, x, i); }
+         }
+         if (t == DEAD) { return false; }
+         s = t;
+      }
+      return states.get(s).accepting;
+   }
+
+   /* As matches(x), but counts what it does into the given profile.
+   */
+   boolean matches(CharSequence x, Profile p) {
+      if (counting) {
+         p.fellBack = true;
+         return nfa.accepts(x);
+      }
+      int s = start;
+      p.visit(s);
+      final int n = x.length();
+      for (int i = 0; i != n; i++) {
+         int k = alphabet.classOf(x.charAt(i));
+         int e = chunks.get(s >> CHUNK_SHIFT)
+                       .getAcquire((s & CHUNK_MASK) * numClasses + k);
+         int t = e - 1;
+         p.steps++;
+         if (e == OVER_BUDGET) {
+            p.hits++;
+            p.fellBack = true;
+            return simulate(s, x, i);
+         }
+         if (t >= 0) { p.hits++; }
+         else {
+            p.misses++;
+            int before = numStates();
+            t = transition(s, k);
+            p.created += numStates() - before;
+            if (t < 0) {
+               p.fellBack = true;
+               return simulate(s, x, i);
+            }
+         }
+         p.visit(t);
+         if (t == DEAD) { return false; }
+         s = t;
+      }
+      return states.get(s).accepting;
+   }
+
+   /* Reports whether state s is accepting.
+   */
+   boolean isAccepting(int s) { return states.get(s).accepting; }
+
+   /* Returns the number of NFA states that state s stands for.
+   */
+   int width(int s) { return states.get(s).members.length; }
+
+   @Override
+   public String name() { return "lazy-dfa"; }
+
+   @Override
+   public String describe() {
+      return name() + " (" + numStates() + " of at most " + maxStates +
+             " states, " + numClasses + " classes)";
+   }
+
+   // private
+   // -------
+
+   /* Returns the state reached from state s on class k, computing it (and
+   ** recording it) if need be, or -1 if that would need a new state and
+   ** the budget is used up (which is recorded too, as OVER_BUDGET).
+   */
+   private int transition(int s, int k) {
+      Scratch sc = scratch.get();
+      char c = alphabet.start(k);
+      sc.current.clear();
+      for (int q : states.get(s).members) {
+         if (nfa.consumes(q, c)) {
+            nfa.addClosure(sc.current, nfa.out1[q], sc.stack);
+         }
+      }
+      int t = intern(toState(sc.current));
+      // another thread may have recorded it already, with the same value
+      // (or, having lost a race for the last number, as OVER_BUDGET)
+      chunks.get(s >> CHUNK_SHIFT)
+            .compareAndSet((s & CHUNK_MASK) * numClasses + k, 0,
+                           t >= 0 ? t + 1 : OVER_BUDGET);
+      return t;
+   }
+
+   /* Returns the number of the given state, numbering it if it is new, or
+   ** -1 if it is new and the budget is used up.  A new state, and its row
+   ** of the table, are published before its number, so any thread that
+   ** finds the number can use the state.  Numbers are reserved by
+   ** compareAndSet(), never beyond the budget, so nextId cannot overflow
+   ** however many inputs find the budget used up.  If two threads number
+   ** the same new state at once, the number in the map wins, and the
+   ** other is never used.
+   */
+   private int intern(State state) {
+      Integer id = ids.get(state.set);
+      if (id != null) { return id; }
+      int fresh;
+      do {
+         fresh = nextId.get();
+         if (fresh >= maxStates) { return -1; }
+      } while (!nextId.compareAndSet(fresh, fresh + 1));
+      states.set(fresh, state);
+      int c = fresh >> CHUNK_SHIFT;
+      if (chunks.get(c) == null) {
+         chunks.compareAndSet(c, null,
+                              new AtomicIntegerArray(CHUNK_SIZE * numClasses));
+      }
+      Integer prior = ids.putIfAbsent(state.set, fresh);
+      return prior == null ? fresh : prior;
+   }
+
+   /* Returns the DFA state for the CHAR, SET and MATCH states in set.
+   */
+   private State toState(RegExprSparseSet set) {
+      int[] members = new int[set.size()];
+      int n = 0;
+      boolean accepting = false;
+      for (int i = 0; i != set.size(); i++) {
+         int q = set.get(i);
+         if (nfa.kind[q] == RegExprNfa.MATCH) { accepting = true; }
+         if (nfa.isConsuming(q) || nfa.kind[q] == RegExprNfa.MATCH) {
+            members[n++] = q;
+         }
+      }
+      members = Arrays.copyOf(members, n);
+      Arrays.sort(members);
+      return new State(members, accepting);
+   }
+
+   /* Reports whether x[from..) takes the NFA from the states of DFA state
+   ** s to a MATCH state.
+   */
+   private boolean simulate(int s, CharSequence x, int from) {
+      Scratch sc = scratch.get();
+      RegExprSparseSet current = sc.current, next = sc.next;
+      current.clear();
+      for (int q : states.get(s).members) { current.add(q); }
+      for (int i = from; i != x.length()  &&  current.size() != 0; i++) {
+         char c = x.charAt(i);
+         next.clear();
+         for (int j = 0; j != current.size(); j++) {
+            int q = current.get(j);
+            if (nfa.consumes(q, c)) {
+               nfa.addClosure(next, nfa.out1[q], sc.stack);
+            }
+         }
+         RegExprSparseSet tmp = current;
+         current = next;
+         next = tmp;
+      }
+      for (int j = 0; j != current.size(); j++) {
+         if (nfa.kind[current.get(j)] == RegExprNfa.MATCH) { return true; }
+      }
+      return false;
+   }
+
+   /* Counts of the work done by matches(x, profile): transitions taken
+   ** (steps), of which found in the table (hits) or computed (misses),
+   ** the states thereby created, the number of times each state was
+   ** entered, and whether the budget ran out.  A profile may accumulate
+   ** the counts of many calls.
+   */
+   static final class Profile {
+      long steps, hits, misses, created;
+      boolean fellBack;
+      int[] visits = new int[16];
+
+      void visit(int s) {
+         if (s >= visits.length) {
+            visits = Arrays.copyOf(visits, Math.max(2 * visits.length, s + 1));
+         }
+         visits[s]++;
+      }
+
+      /* Adds the counts of another profile to this one's.
+      */
+      void add(Profile other) {
+         steps += other.steps;
+         hits += other.hits;
+         misses += other.misses;
+         created += other.created;
+         fellBack = fellBack || other.fellBack;
+         for (int s = 0; s != other.visits.length; s++) {
+            if (other.visits[s] != 0) {
+               visit(s);
+               visits[s] += other.visits[s] - 1;
+            }
+         }
+      }
+
+      /* Returns the number of distinct states entered.
+      */
+      int statesVisited() {
+         int n = 0;
+         for (int v : visits) { if (v != 0) { n++; } }
+         return n;
+      }
+   }
+
+   /* A DFA state: the NFA states it stands for, and whether one of them
+   ** is a MATCH state.
+   */
+   private static final class State {
+      final RegExprDfa.StateSet set;
+      final int[] members;
+      final boolean accepting;
+
+      State(int[] members, boolean accepting) {
+         this.set = new RegExprDfa.StateSet(members);
+         this.members = members;
+         this.accepting = accepting;
+      }
+   }
+
+   /* The scratch space of one thread.
+   */
+   private static final class Scratch {
+      final RegExprSparseSet current, next;
+      final IntStack stack = new IntStack();
+
+      Scratch(int n) {
+         current = new RegExprSparseSet(n);
+         next = new RegExprSparseSet(n);
+      }
+   }
+
+}
\ No newline at end of file
@@ -0,0 +1,234 @@
+import java.util.List;
+
+/* An instance of this class is a lexical analyzer generated from an
+** ordered list of rules, each a token kind and a RegularExpression.  All
+** the rules are compiled into one DFA, which splits an input into tokens
+** in a single left-to-right pass: at each position the token is the
+** longest prefix of the rest of the input that is a member of some rule's
+** language (maximal munch), and its kind is that of the first such rule
+** in the list (priority).  E.g., with the rules
+**
+**    IF     if
+**    IDENT  [a-z].[a-z0-9]*
+**    SPACE  [ ]*.[ ]
+**
+** "if iffy" is IF, SPACE, IDENT.
+**
+** Tokens are reported, like those of RegExprTokenizer, as a stream of
+** (kind, start, end) triples in an int[].  Rules of kind SKIP are matched
+** but not reported (e.g., whitespace).  A char at which no rule matches a
+** non-empty prefix is reported as a one-char token of kind ERROR, and the
+** analysis goes on after it.
+**
+** Finding the longest match means running the DFA past the end of the
+** token until it dies, and then resuming after the token.  With rules for
+** which the DFA dies soon after the end of every token (the usual case)
+** that lookahead is short.  With others (e.g., a and a*.b on aaaa...a) the
+** same lookahead would be repeated from every token, which is quadratic;
+** so, as in Reps' maximal-munch algorithm, the (state, position) pairs
+** passed after the last accepting one are remembered as failures, and a
+** later run stops on reaching one.  Each pair fails at most once, so the
+** pass takes O(|x| * numStates()) time at worst, and linear time usually.
+*/
+public class RegExprLexer {
+
+   public static final int END = RegExprTokenizer.END_CODE;  // ends a stream
+   public static final int ERROR = -2;
+   public static final int SKIP = -3;
+
+   public static final int TOKEN_WIDTH = RegExprTokenizer.TOKEN_WIDTH;
+
+   private static final int DEFAULT_MAX_STATES = 1 << 16;
+
+   // instance variables
+   // ------------------
+
+   private final RegExprDfa dfa;
+   private final int[] kindOfRule;
+
+   // constructors
+   // ------------
+
+   /* Establishes this lexer for the rules (kinds[i], rules[i]), in order
+   ** of priority.  Throws IllegalArgumentException if the combined DFA
+   ** would have more than maxStates states.
+   ** pre: kinds.length == rules.length && each kinds[i] >= 0 or is SKIP
+   */
+   public RegExprLexer(int[] kinds, RegularExpression[] rules, int maxStates) {
+      RegExprNfa.Builder b = new RegExprNfa.Builder();
+      int[] matchOf = new int[rules.length];
+      int[] startOf = new int[rules.length];
+      for (int i = 0; i != rules.length; i++) {
+         matchOf[i] = b.addMatch();
+         startOf[i] = b.compile(rules[i], matchOf[i]);
+      }
+      int start = rules.length == 0 ? b.addFail() : startOf[rules.length - 1];
+      for (int i = rules.length - 2; i >= 0; i--) {
+         start = b.addSplit(startOf[i], start);
+      }
+      RegExprNfa nfa = b.build(start);
+      int[] tags = new int[nfa.size()];
+      for (int i = 0; i != rules.length; i++) { tags[matchOf[i]] = i; }
+      dfa = RegExprDfa.build(nfa, maxStates, tags);
+      if (dfa == null) {
+         throw new IllegalArgumentException(
+            "Lexer DFA would have more than " + maxStates + " states");
+      }
+      kindOfRule = kinds.clone();
+   }
+
+   public RegExprLexer(int[] kinds, RegularExpression[] rules) {
+      this(kinds, rules, DEFAULT_MAX_STATES);
+   }
+
+   /* Establishes this lexer for the given rules, whose kinds are their
+   ** positions in the list.
+   */
+   public RegExprLexer(List<RegularExpression> rules) {
+      this(identity(rules.size()),
+           rules.toArray(new RegularExpression[0]), DEFAULT_MAX_STATES);
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the number of states of the combined DFA.
+   */
+   public int numStates() { return dfa.numStates(); }
+
+   /* Returns the tokens of x as a stream of (kind, start, end) triples,
+   ** TOKEN_WIDTH ints per token, the last of which has kind END (and
+   ** start = end = x.length()).
+   */
+   public int[] tokenize(CharSequence x) {
+      IntStack out = new IntStack(TOKEN_WIDTH * 16);
+      tokenize(x, 0, x.length(), out);
+      out.pushInt(END);
+      out.pushInt(x.length());
+      out.pushInt(x.length());
+      int[] stream = new int[out.sizeOf()];
+      for (int i = 0; i != stream.length; i++) { stream[i] = out.get(i); }
+      return stream;
+   }
+
+   /* Appends to out the (kind, start, end) triples of the tokens of
+   ** x[from..to), without an END triple, and returns the number of tokens
+   ** appended.  Positions are relative to x.  Reusing one stack for many
+   ** inputs (after clear()ing it) avoids allocating per input.
+   */
+   public int tokenize(CharSequence x, int from, int to, IntStack out) {
+      final RegExprDfa d = dfa;
+      final int numClasses = d.numClasses;
+      final int[] table = d.table;
+      final RegExprAlphabet alphabet = d.alphabet;
+      Failures failed = null;     // created when the first pair fails
+      int count = 0;
+      int i = from;
+      while (i != to) {
+         // run the DFA as far as it goes, noting the last accepting state
+         int s = d.start;
+         int lastEnd = -1, lastRule = -1, lastState = s;
+         int j = i;
+         while (j != to) {
+            int t = table[s * numClasses + alphabet.classOf(x.charAt(j))];
+            if (t == RegExprDfa.DEAD ||
+                (failed != null && failed.contains(t, j + 1))) {
+               break;
+            }
+            s = t;
+            j++;
+            if (d.accepting[s]) {
+               lastEnd = j;
+               lastRule = d.tags[s];
+               lastState = s;
+            }
+         }
+         // no pair passed after the last accepting one leads to another
+         int k = lastEnd == -1 ? i : lastEnd;
+         if (k != j) {
+            if (failed == null) { failed = new Failures(); }
+            int t = lastEnd == -1 ? d.start : lastState;
+            while (k != j) {
+               t = table[t * numClasses + alphabet.classOf(x.charAt(k))];
+               k++;
+               failed.add(t, k);
+            }
+         }
+         int kind, end;
+         if (lastEnd == -1) {
+            kind = ERROR;
+            end = i + 1;
+         }
+         else {
+            kind = kindOfRule[lastRule];
+            end = lastEnd;
+         }
+         if (kind != SKIP) {
+            out.pushInt(kind);
+            out.pushInt(i);
+            out.pushInt(end);
+            count++;
+         }
+         i = end;
+      }
+      return count;
+   }
+
+   // private
+   // -------
+
+   /* A set of (DFA state, position) pairs, hashed with open addressing.
+   */
+   private static final class Failures {
+      private long[] keys = new long[64];     // 0 marks a free slot
+      private int size = 0;
+
+      boolean contains(int s, int pos) {
+         long key = key(s, pos);
+         int mask = keys.length - 1;
+         for (int h = hash(key) & mask; keys[h] != 0; h = (h + 1) & mask) {
+            if (keys[h] == key) { return true; }
+         }
+         return false;
+      }
+
+      void add(int s, int pos) {
+         if (2 * (size + 1) > keys.length) { grow(); }
+         if (insert(keys, key(s, pos))) { size++; }
+      }
+
+      private void grow() {
+         long[] bigger = new long[2 * keys.length];
+         for (long key : keys) {
+            if (key != 0) { insert(bigger, key); }
+         }
+         keys = bigger;
+      }
+
+      private static boolean insert(long[] table, long key) {
+         int mask = table.length - 1;
+         int h = hash(key) & mask;
+         while (table[h] != 0) {
+            if (table[h] == key) { return false; }
+            h = (h + 1) & mask;
+         }
+         table[h] = key;
+         return true;
+      }
+
+      // s is never DEAD (0), so a key is never 0
+      private static long key(int s, int pos) { return ((long)s << 32) | pos; }
+
+      private static int hash(long key) {
+         long h = key * 0x9E3779B97F4A7C15L;
+         return (int)(h >>> 32);
+      }
+   }
+
+   private static int[] identity(int n) {
+      int[] result = new int[n];
+      for (int i = 0; i != n; i++) { result[i] = i; }
+      return result;
+   }
+
+}
\ No newline at end of file
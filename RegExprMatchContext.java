@@ -0,0 +1,128 @@
+/* An instance of this class bounds the work done by the recursive
+** (backtracking) isMember() methods of the RegularExpression classes.
+** Each recursive call charges one step to the context; once the step
+** budget is used up, the deadline has passed, or cancel() has been
+** called (e.g., from another thread), the next step throws a
+** RegExprBudgetExceededException, unwinding the whole search.
+**
+** A context is used by one membership test at a time; reset() prepares
+** it for reuse (restarting the step count and the timeout).  The shared
+** UNBOUNDED context imposes no limits, keeps no state, and ignores
+** cancel().
+*/
+public class RegExprMatchContext {
+
+   /* A context with no budget and no deadline.
+   */
+   public static final RegExprMatchContext UNBOUNDED =
+      new RegExprMatchContext(Long.MAX_VALUE, 0, false, false);
+
+   /* The step budget of RegularExpression.isMember(String), after which
+   ** it falls back on the NFA.
+   */
+   public static final long DEFAULT_MAX_STEPS = 10_000L;
+
+   /* The deadline and the cancellation flag are consulted only once per
+   ** this many steps, as System.nanoTime() is much costlier than a step.
+   */
+   private static final int CHECK_INTERVAL_MASK = 255;
+
+   // instance variables
+   // ------------------
+
+   private final long maxSteps;       // step budget
+   private final long timeoutNanos;   // 0 means no deadline
+   private final boolean fallBack;    // retry on the NFA when exhausted?
+   private final boolean limited;     // false only for UNBOUNDED
+
+   private long steps;
+   private long deadline;             // in System.nanoTime() terms
+   private volatile boolean cancelled;
+
+   // constructors
+   // ------------
+
+   /* Establishes this context as one allowing at most maxSteps steps and
+   ** (if timeoutNanos > 0) at most timeoutNanos nanoseconds, starting now.
+   ** If fallBack is true, RegularExpression.isMemberBounded() answers an
+   ** exhausted query using the linear-time RegExprNfa instead of failing.
+   */
+   public RegExprMatchContext(long maxSteps, long timeoutNanos,
+                              boolean fallBack) {
+      this(maxSteps, timeoutNanos, fallBack, true);
+   }
+
+   /* Establishes this context as one allowing at most maxSteps steps,
+   ** with no deadline and no fallback.
+   */
+   public RegExprMatchContext(long maxSteps) { this(maxSteps, 0, false); }
+
+   private RegExprMatchContext(long maxSteps, long timeoutNanos,
+                               boolean fallBack, boolean limited) {
+      this.maxSteps = maxSteps;
+      this.timeoutNanos = timeoutNanos;
+      this.fallBack = fallBack;
+      this.limited = limited;
+      reset();
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the number of steps charged since construction or the most
+   ** recent reset().
+   */
+   public long steps() { return steps; }
+
+   /* Reports whether exhausted queries should be retried on the NFA.
+   */
+   public boolean fallsBack() { return fallBack; }
+
+   // mutators
+   // --------
+
+   /* Restarts the step count and the timeout, and clears cancellation.
+   */
+   public void reset() {
+      steps = 0;
+      deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+      cancelled = false;
+   }
+
+   /* Requests that the search using this context stop at its next check.
+   ** May be called from any thread.
+   */
+   public void cancel() {
+      if (limited) { cancelled = true; }
+   }
+
+   /* Charges one step to this context.
+   ** Throws RegExprBudgetExceededException if the budget is exhausted, the
+   ** deadline has passed, or the search has been cancelled.
+   */
+   public void step() {
+      if (limited) {
+         steps++;
+         if (steps > maxSteps) {
+            throw new RegExprBudgetExceededException(
+               RegExprBudgetExceededException.Reason.STEPS, steps);
+         }
+         if ((steps & CHECK_INTERVAL_MASK) == 0) { checkTimeAndCancel(); }
+      }
+   }
+
+   // private
+   // -------
+
+   private void checkTimeAndCancel() {
+      if (cancelled) {
+         throw new RegExprBudgetExceededException(
+            RegExprBudgetExceededException.Reason.CANCELLED, steps);
+      }
+      if (deadline != 0  &&  System.nanoTime() - deadline > 0) {
+         throw new RegExprBudgetExceededException(
+            RegExprBudgetExceededException.Reason.DEADLINE, steps);
+      }
+   }
+
+}
\ No newline at end of file
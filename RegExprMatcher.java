@@ -0,0 +1,207 @@
+import java.util.Arrays;
+
+/* An instance of this class performs membership tests against one
+** RegExprPattern.  It owns the scratch space that the tests need (two
+** sets of NFA states and a stack for computing closures), allocated once,
+** at its full size, when the matcher is created and merely reset before
+** each test, so that matches() never allocates.
+**
+** matchGroups() also reports the substrings matched by the pattern's
+** capturing groups (see RegExprCapture).  It is a Pike VM: the NFA is
+** simulated as by matches(), but each state in the current set carries
+** the capture positions of the highest-priority path that reached it, so
+** the time is O(|x| * size() * slots) however ambiguous the pattern is.
+** The per-state capture rows are allocated with the matcher as well.
+** Where a group could match in several ways, the one chosen is that of
+** the preferred path: the left alternative of a union, and, for a star
+** or repetition, as many iterations as possible, the group reporting the
+** last one.  For a pattern whose NFA has counters, both methods simulate
+** it on configurations (see RegExprNfa.Config) instead, which allocates.
+**
+** A matcher is not thread-safe; see RegExprPattern for how to share one
+** pattern among threads.
+*/
+public final class RegExprMatcher {
+
+   // instance variables
+   // ------------------
+
+   private final RegExprPattern pattern;
+   private final RegExprNfa nfa;
+   private final RegExprSparseSet current, next;
+   private final IntStack stack;
+
+   // capture state: a row of 'width' slots per NFA state, in each of two
+   // thread lists, the working row of the path being followed, and the
+   // result of the last call of matchGroups()
+   private final int width;
+   private int[] currentCaps, nextCaps;
+   private final int[] caps;
+   private final int[] groups;
+   private CharSequence input;     // null unless the last call matched
+
+   // constructor
+   // -----------
+
+   RegExprMatcher(RegExprPattern pattern) {
+      this.pattern = pattern;
+      this.nfa = pattern.nfa();
+      int n = nfa.size();
+      current = new RegExprSparseSet(n);
+      next = new RegExprSparseSet(n);
+      // Each SPLIT state pushes its two successors, and each SAVE state
+      // its successor and a two-int restore record, only when first
+      // reached, so a closure never has more than 3n+1 ints on the stack.
+      stack = new IntStack(3 * n + 1);
+      width = nfa.numSlots;
+      currentCaps = new int[n * width];
+      nextCaps = new int[n * width];
+      caps = new int[width];
+      groups = new int[width];
+      input = null;
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the pattern against which this matcher tests.
+   */
+   public RegExprPattern pattern() { return pattern; }
+
+   /* Reports whether the given string is a member of the language described
+   ** by this matcher's pattern.
+   */
+   public boolean matches(CharSequence x) {
+      return nfa.accepts(x, current, next, stack);
+   }
+
+   /* Reports whether the given string is a member of the language described
+   ** by this matcher's pattern and, if so, records the positions at which
+   ** its groups begin and end, for start(), end() and group().
+   */
+   public boolean matchGroups(CharSequence x) {
+      input = null;
+      if (nfa.numCounters() != 0) {
+         int[] row = nfa.run(x);
+         if (row == null) { return false; }
+         System.arraycopy(row, 0, groups, 0, width);
+         groups[0] = 0;
+         groups[1] = x.length();
+         input = x;
+         return true;
+      }
+      RegExprSparseSet cur = current, nxt = next;
+      Arrays.fill(caps, -1);
+      cur.clear();
+      addThread(cur, currentCaps, nfa.start, 0);
+      final int n = x.length();
+      for (int i = 0; i != n  &&  !cur.isEmpty(); i++) {
+         char c = x.charAt(i);
+         nxt.clear();
+         for (int k = 0; k != cur.size(); k++) {
+            int s = cur.get(k);
+            if (nfa.consumes(s, c)) {
+               System.arraycopy(currentCaps, s * width, caps, 0, width);
+               addThread(nxt, nextCaps, nfa.out1[s], i + 1);
+            }
+         }
+         RegExprSparseSet temp = cur;
+         cur = nxt;
+         nxt = temp;
+         int[] tempCaps = currentCaps;
+         currentCaps = nextCaps;
+         nextCaps = tempCaps;
+      }
+      for (int k = 0; k != cur.size(); k++) {
+         int s = cur.get(k);
+         if (nfa.kind[s] == RegExprNfa.MATCH) {
+            System.arraycopy(currentCaps, s * width, groups, 0, width);
+            groups[0] = 0;
+            groups[1] = n;
+            input = x;
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /* Returns the number of capturing groups in the pattern.
+   */
+   public int groupCount() { return width / 2 - 1; }
+
+   /* Returns the position at which group g began in the string last matched
+   ** by matchGroups(), or -1 if the group took no part in the match.
+   ** Throws IllegalStateException if the last call of matchGroups() did not
+   ** succeed.
+   ** pre: 0 <= g <= groupCount()
+   */
+   public int start(int g) {
+      checkMatched();
+      return groups[2 * g];
+   }
+
+   /* Returns the position following the end of group g in the string last
+   ** matched by matchGroups(), or -1 if the group took no part in the match.
+   ** Throws IllegalStateException as for start().
+   ** pre: 0 <= g <= groupCount()
+   */
+   public int end(int g) {
+      checkMatched();
+      return groups[2 * g + 1];
+   }
+
+   /* Returns the substring matched by group g in the string last matched by
+   ** matchGroups(), or null if the group took no part in the match.
+   ** Throws IllegalStateException as for start().
+   ** pre: 0 <= g <= groupCount()
+   */
+   public String group(int g) {
+      checkMatched();
+      int from = groups[2 * g], to = groups[2 * g + 1];
+      return from < 0 || to < 0 ? null : input.subSequence(from, to).toString();
+   }
+
+   // private
+   // -------
+
+   /* Adds to the given thread list the state s and every state reachable
+   ** from it without consuming a character, in priority order, giving each
+   ** CHAR, SET or MATCH state added the capture row of the path by which it
+   ** was first reached.  The working row 'caps' holds the captures of the
+   ** path being followed: a SAVE state sets its slot to pos and pushes a
+   ** record, -(slot + 1) above the old value, that restores it when the
+   ** paths through the SAVE state are exhausted.
+   */
+   private void addThread(RegExprSparseSet list, int[] rows, int s, int pos) {
+      stack.clear();
+      stack.pushInt(s);
+      while (!stack.isEmpty()) {
+         int t = stack.popInt();
+         if (t < 0) {
+            caps[-t - 1] = stack.popInt();
+         }
+         else if (list.add(t)) {
+            int k = nfa.kind[t];
+            if (k == RegExprNfa.SPLIT) {
+               stack.pushInt(nfa.out2[t]);
+               stack.pushInt(nfa.out1[t]);
+            }
+            else if (k == RegExprNfa.SAVE) {
+               int slot = nfa.lo[t];
+               stack.pushInt(caps[slot]);
+               stack.pushInt(-slot - 1);
+               caps[slot] = pos;
+               stack.pushInt(nfa.out1[t]);
+            }
+            else {
+               System.arraycopy(caps, 0, rows, t * width, width);
+            }
+         }
+      }
+   }
+
+   private void checkMatched() {
+      if (input == null) { throw new IllegalStateException("No match"); }
+   }
+
+}
\ No newline at end of file
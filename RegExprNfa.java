@@ -0,0 +1,770 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/* An instance of this class is a Thompson NFA compiled from a regular
+** expression.  Its states are numbered 0..size()-1 and stored in parallel
+** arrays; each state is one of
+**    CHAR  -- consumes one character c with lo <= c <= hi, then goes to out1
+**    SET   -- consumes one character in the range set set[s] (sorted,
+**             disjoint [lo..hi] pairs, as in RegExprCharClass), then goes
+**             to out1; a character class is one such state, however many
+**             ranges it has
+**    SPLIT -- goes, without consuming anything, to both out1 and out2
+**    SAVE  -- goes, without consuming anything, to out1, recording the
+**             current position in capture slot lo[s] (see RegExprCapture
+**             and RegExprMatcher.matchGroups())
+**    MATCH -- the (single) accepting state
+**    FAIL  -- has no transitions (compiled from the null set)
+**
+** and, for a counted repetition r{n,m} whose bounds are too large to
+** unroll cheaply (see Builder.compileRepeat()), one of
+**
+**    COUNT_RESET -- sets counter c to 0, then goes to out1
+**    COUNT_TEST  -- goes to out1 (another iteration) if c < m, and to out2
+**                   (leaving the loop, and dropping c) if c >= n
+**    COUNT_INCR  -- adds 1 to c (saturating at m, or at n for r{n,}), then
+**                   goes to out1 (the COUNT_TEST)
+**
+** where c, the number of the counter, is (hi[s] << 16) | lo[s], and n
+** and m are counterMin[c] and counterMax[c].  An NFA with counters is
+** simulated on configurations -- a state together with the values of
+** the counters of the loops it is in -- rather than on states (see
+** Config); it is as fast as the unrolled NFA would be, and as small as
+** the expression.  The engines that work on sets of states alone
+** (RegExprBitNfa, the table of RegExprLazyDfa, acceptsWithin()) do not
+** take NFAs with counters; RegExprDfa determinizes configurations.
+**
+** accepts() simulates the NFA on all paths at once, so it runs in time
+** O(|x| * size()) no matter how ambiguous the expression is; it is the
+** linear-time alternative to the recursive isMember() methods.
+**
+** Compilation is done backwards: each node of the expression tree is told
+** the state its language should be followed by and returns the state at
+** which its language begins (see RegularExpression.compile()).
+*/
+public class RegExprNfa {
+
+   // state kinds
+   // -----------
+
+   public static final int CHAR = 0;
+   public static final int SPLIT = 1;
+   public static final int MATCH = 2;
+   public static final int FAIL = 3;
+   public static final int SET = 4;
+   public static final int SAVE = 5;
+   public static final int COUNT_RESET = 6;
+   public static final int COUNT_TEST = 7;
+   public static final int COUNT_INCR = 8;
+
+   static final int[] NO_COUNTS = new int[0];
+
+   // instance variables
+   // ------------------
+
+   final int[] kind;
+   final int[] out1, out2;
+   final char[] lo, hi;
+   final char[][] set;       // null except for SET states
+   final int start;
+   final int numSlots;       // 2 * (1 + the highest capture group number)
+   final int[] counterMin, counterMax;   // counterMax[c] may be UNBOUNDED
+
+   // constructor
+   // -----------
+
+   private RegExprNfa(Builder b, int start) {
+      kind = Arrays.copyOf(b.kind, b.size);
+      out1 = Arrays.copyOf(b.out1, b.size);
+      out2 = Arrays.copyOf(b.out2, b.size);
+      lo = Arrays.copyOf(b.lo, b.size);
+      hi = Arrays.copyOf(b.hi, b.size);
+      set = Arrays.copyOf(b.set, b.size);
+      this.start = start;
+      counterMin = Arrays.copyOf(b.counterMin, b.numCounters);
+      counterMax = Arrays.copyOf(b.counterMax, b.numCounters);
+      int slots = 2;
+      for (int s = 0; s != kind.length; s++) {
+         if (kind[s] == SAVE) { slots = Math.max(slots, (lo[s] | 1) + 1); }
+      }
+      numSlots = slots;
+   }
+
+   /* Returns the NFA for the given regular expression.
+   */
+   public static RegExprNfa compile(RegularExpression r) {
+      return compile(r, null);
+   }
+
+   /* Returns the NFA for the given regular expression, reusing (and adding
+   ** to) the fragments in the given cache, if it is not null.
+   */
+   public static RegExprNfa compile(RegularExpression r,
+                                    RegExprCompileCache cache) {
+      Builder b = new Builder(cache);
+      int match = b.addMatch();
+      return b.build(b.compile(r, match));
+   }
+
+   /* Returns the NFA for the given regular expression with every counted
+   ** repetition unrolled, so without counters, however large it is.
+   */
+   static RegExprNfa compileUnrolled(RegularExpression r) {
+      Builder b = new Builder(null, false);
+      int match = b.addMatch();
+      return b.build(b.compile(r, match));
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the number of states of this NFA.
+   */
+   public int size() { return kind.length; }
+
+   /* Returns the start state.
+   */
+   public int start() { return start; }
+
+   /* Returns the number of capture groups, not counting group 0.
+   */
+   public int groupCount() { return numSlots / 2 - 1; }
+
+   /* Returns the number of counters (see COUNT_RESET).
+   */
+   public int numCounters() { return counterMin.length; }
+
+   /* Reports whether the given string is accepted by this NFA.
+   */
+   public boolean accepts(CharSequence x) {
+      RegExprSparseSet current = new RegExprSparseSet(size());
+      RegExprSparseSet next = new RegExprSparseSet(size());
+      IntStack stack = new IntStack();
+      return accepts(x, current, next, stack);
+   }
+
+   /* Reports whether the given string is accepted by this NFA, using the
+   ** given (empty or not) sets and stack as scratch space.
+   ** pre: current.capacity() >= size() && next.capacity() >= size()
+   */
+   boolean accepts(CharSequence x, RegExprSparseSet current,
+                   RegExprSparseSet next, IntStack stack) {
+      if (numCounters() != 0) { return run(x) != null; }
+      current.clear();
+      addClosure(current, start, stack);
+      final int n = x.length();
+      for (int i = 0; i != n  &&  !current.isEmpty(); i++) {
+         char c = x.charAt(i);
+         next.clear();
+         for (int k = 0; k != current.size(); k++) {
+            int s = current.get(k);
+            if (consumes(s, c)) {
+               addClosure(next, out1[s], stack);
+            }
+         }
+         RegExprSparseSet temp = current;
+         current = next;
+         next = temp;
+      }
+      return containsMatch(current);
+   }
+
+   /* Reports whether the given string is within k edits (insertions,
+   ** deletions or substitutions of one char) of a string accepted by this
+   ** NFA.  This is the NFA simulation run on the product of the NFA with a
+   ** Levenshtein automaton for x: each state in the current set carries
+   ** the least number of edits with which it is reached, and is kept only
+   ** while that is at most k.  Reading a char c, a state s that consumes c
+   ** passes its count on to its successors; otherwise, at the cost of one
+   ** edit, s passes it on anyway (c substituted), or stays (c inserted);
+   ** and a state may pass its count plus one on to its successors without
+   ** reading anything (a char deleted).  The time is O(|x| * k * size()).
+   ** Throws UnsupportedOperationException if this NFA has counters (see
+   ** RegExprPattern.isMemberWithin(), which compiles another without).
+   ** pre: k >= 0
+   */
+   public boolean acceptsWithin(CharSequence x, int k) {
+      if (numCounters() != 0) {
+         throw new UnsupportedOperationException(
+            "acceptsWithin() on an NFA with counters");
+      }
+      final int n = size();
+      RegExprSparseSet current = new RegExprSparseSet(n);
+      RegExprSparseSet next = new RegExprSparseSet(n);
+      RegExprSparseSet closure = new RegExprSparseSet(n);
+      int[] cost = new int[n], nextCost = new int[n];
+      IntStack stack = new IntStack();
+      relax(current, cost, start, 0, closure, stack);
+      addDeletions(current, cost, k, closure, stack);
+      for (int i = 0; i != x.length()  &&  !current.isEmpty(); i++) {
+         char c = x.charAt(i);
+         next.clear();
+         for (int j = 0; j != current.size(); j++) {
+            int s = current.get(j);
+            int e = cost[s];
+            if (e < k) { relaxState(next, nextCost, s, e + 1); }
+            if (consumes(s, c)) {
+               relax(next, nextCost, out1[s], e, closure, stack);
+            }
+            else if (e < k  &&  isConsuming(s)) {
+               relax(next, nextCost, out1[s], e + 1, closure, stack);
+            }
+         }
+         addDeletions(next, nextCost, k, closure, stack);
+         RegExprSparseSet temp = current;
+         current = next;
+         next = temp;
+         int[] tempCost = cost;
+         cost = nextCost;
+         nextCost = tempCost;
+      }
+      return containsMatch(current);
+   }
+
+   /* Reports whether state s has a transition on the given char.
+   */
+   boolean consumes(int s, char c) {
+      if (kind[s] == CHAR) { return lo[s] <= c  &&  c <= hi[s]; }
+      else if (kind[s] == SET) { return RegExprCharClass.contains(set[s], c); }
+      else { return false; }
+   }
+
+   /* Reports whether state s consumes a character (i.e., is a CHAR or SET
+   ** state).
+   */
+   boolean isConsuming(int s) { return kind[s] == CHAR || kind[s] == SET; }
+
+   /* Adds to the given set the state s and every state reachable from it
+   ** without consuming a character.  Counters are ignored: a COUNT_TEST
+   ** state is followed like a SPLIT (so, for an NFA with counters, the
+   ** set may be too large).
+   */
+   void addClosure(RegExprSparseSet set, int s, IntStack stack) {
+      stack.clear();
+      stack.pushInt(s);
+      while (!stack.isEmpty()) {
+         int t = stack.popInt();
+         if (set.add(t)) {
+            if (kind[t] == SPLIT || kind[t] == COUNT_TEST) {
+               stack.pushInt(out2[t]);
+               stack.pushInt(out1[t]);
+            }
+            else if (kind[t] == SAVE || kind[t] == COUNT_RESET ||
+                     kind[t] == COUNT_INCR) {
+               stack.pushInt(out1[t]);
+            }
+         }
+      }
+   }
+
+   // configurations
+   // --------------
+
+   /* A configuration of an NFA with counters: a state, the values of the
+   ** counters of the loops that it is in, as (counter, value) pairs in
+   ** increasing order of counter, and the capture row of the path by
+   ** which it was reached, which is not part of its identity.
+   */
+   static final class Config {
+      final int state;
+      final int[] counts;
+      final int[] caps;       // may be null
+      private final int hash;
+
+      Config(int state, int[] counts, int[] caps) {
+         this.state = state;
+         this.counts = counts;
+         this.caps = caps;
+         this.hash = 31 * state + Arrays.hashCode(counts);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof Config)) { return false; }
+         Config other = (Config)o;
+         return state == other.state && Arrays.equals(counts, other.counts);
+      }
+
+      @Override
+      public int hashCode() { return hash; }
+   }
+
+   /* Returns the number of counter c of COUNT_RESET, COUNT_TEST or
+   ** COUNT_INCR state s.
+   */
+   int counterOf(int s) { return (hi[s] << 16) | lo[s]; }
+
+   /* Appends to list, in priority order, the CHAR, SET and MATCH
+   ** configurations reachable without consuming a character from
+   ** (s, counts), with the captures of caps (unless that is null) and the
+   ** current position pos, and adds every configuration passed through to
+   ** seen, skipping those already there.  This is addClosure() for NFAs
+   ** with counters, and also that of RegExprMatcher.matchGroups().
+   */
+   void addClosure(List<Config> list, HashSet<Config> seen, int s,
+                   int[] counts, int[] caps, int pos) {
+      ArrayDeque<Config> stack = new ArrayDeque<Config>();
+      stack.push(new Config(s, counts, caps));
+      while (!stack.isEmpty()) {
+         Config q = stack.pop();
+         if (!seen.add(q)) { continue; }
+         int t = q.state;
+         int k = kind[t];
+         if (k == SPLIT) {
+            stack.push(new Config(out2[t], q.counts, q.caps));
+            stack.push(new Config(out1[t], q.counts, q.caps));
+         }
+         else if (k == SAVE) {
+            int[] c = q.caps;
+            if (c != null) {
+               c = c.clone();
+               c[lo[t]] = pos;
+            }
+            stack.push(new Config(out1[t], q.counts, c));
+         }
+         else if (k == COUNT_RESET) {
+            stack.push(new Config(out1[t], with(q.counts, counterOf(t), 0),
+                                  q.caps));
+         }
+         else if (k == COUNT_INCR) {
+            int c = counterOf(t);
+            int cap = counterMax[c] == RegExprRepeat.UNBOUNDED
+                      ? counterMin[c] : counterMax[c];
+            int v = Math.min(valueOf(q.counts, c) + 1, cap);
+            stack.push(new Config(out1[t], with(q.counts, c, v), q.caps));
+         }
+         else if (k == COUNT_TEST) {
+            int c = counterOf(t);
+            int v = valueOf(q.counts, c);
+            // pushed last, so followed first: another iteration
+            if (v >= counterMin[c]) {
+               stack.push(new Config(out2[t], without(q.counts, c), q.caps));
+            }
+            if (counterMax[c] == RegExprRepeat.UNBOUNDED || v < counterMax[c]) {
+               stack.push(new Config(out1[t], q.counts, q.caps));
+            }
+         }
+         else { list.add(q); }
+      }
+   }
+
+   /* Simulates this NFA, which may have counters, on x, following the
+   ** configurations of all paths at once, as accepts() does with states,
+   ** and the captures of the preferred one, as RegExprMatcher does.
+   ** Returns the capture row of the preferred accepting path, or null if
+   ** x is not accepted.
+   */
+   int[] run(CharSequence x) {
+      List<Config> current = new ArrayList<Config>();
+      List<Config> next = new ArrayList<Config>();
+      HashSet<Config> seen = new HashSet<Config>();
+      int[] caps = new int[numSlots];
+      Arrays.fill(caps, -1);
+      addClosure(current, seen, start, NO_COUNTS, caps, 0);
+      final int n = x.length();
+      for (int i = 0; i != n  &&  !current.isEmpty(); i++) {
+         char c = x.charAt(i);
+         next.clear();
+         seen.clear();
+         for (Config q : current) {
+            if (consumes(q.state, c)) {
+               addClosure(next, seen, out1[q.state], q.counts, q.caps, i + 1);
+            }
+         }
+         List<Config> temp = current;
+         current = next;
+         next = temp;
+      }
+      for (Config q : current) {
+         if (kind[q.state] == MATCH) { return q.caps; }
+      }
+      return null;
+   }
+
+   private static int valueOf(int[] counts, int c) {
+      for (int i = 0; i != counts.length; i += 2) {
+         if (counts[i] == c) { return counts[i + 1]; }
+      }
+      return 0;
+   }
+
+   /* Returns counts with counter c set to v.
+   */
+   private static int[] with(int[] counts, int c, int v) {
+      int i = 0;
+      while (i != counts.length && counts[i] < c) { i += 2; }
+      if (i != counts.length && counts[i] == c) {
+         if (counts[i + 1] == v) { return counts; }
+         int[] result = counts.clone();
+         result[i + 1] = v;
+         return result;
+      }
+      int[] result = new int[counts.length + 2];
+      System.arraycopy(counts, 0, result, 0, i);
+      result[i] = c;
+      result[i + 1] = v;
+      System.arraycopy(counts, i, result, i + 2, counts.length - i);
+      return result;
+   }
+
+   /* Returns counts without counter c.
+   */
+   private static int[] without(int[] counts, int c) {
+      for (int i = 0; i != counts.length; i += 2) {
+         if (counts[i] == c) {
+            int[] result = new int[counts.length - 2];
+            System.arraycopy(counts, 0, result, 0, i);
+            System.arraycopy(counts, i + 2, result, i, counts.length - i - 2);
+            return result;
+         }
+      }
+      return counts;
+   }
+
+   /* Gives each CHAR, SET or MATCH state in the closure of s a cost of at
+   ** most e in (set, cost), using closure as scratch space.
+   */
+   private void relax(RegExprSparseSet set, int[] cost, int s, int e,
+                      RegExprSparseSet closure, IntStack stack) {
+      closure.clear();
+      addClosure(closure, s, stack);
+      for (int j = 0; j != closure.size(); j++) {
+         int t = closure.get(j);
+         if (isConsuming(t) || kind[t] == MATCH) {
+            relaxState(set, cost, t, e);
+         }
+      }
+   }
+
+   private static void relaxState(RegExprSparseSet set, int[] cost, int t,
+                                  int e) {
+      if (set.add(t)) { cost[t] = e; }
+      else if (e < cost[t]) { cost[t] = e; }
+   }
+
+   /* Adds to (set, cost) the states reached by deleting chars: for each
+   ** cost e < k in turn, each consuming state of cost e passes e + 1 on
+   ** to its successors (which can only have, or come to have, a cost
+   ** greater than e, and so are dealt with at a later turn).
+   */
+   private void addDeletions(RegExprSparseSet set, int[] cost, int k,
+                             RegExprSparseSet closure, IntStack stack) {
+      for (int e = 0; e < k; e++) {
+         for (int j = 0; j != set.size(); j++) {
+            int s = set.get(j);
+            if (cost[s] == e  &&  isConsuming(s)) {
+               relax(set, cost, out1[s], e + 1, closure, stack);
+            }
+         }
+      }
+   }
+
+   /* Reports whether the given set of states includes the match state.
+   */
+   boolean containsMatch(RegExprSparseSet set) {
+      for (int k = 0; k != set.size(); k++) {
+         if (kind[set.get(k)] == MATCH) { return true; }
+      }
+      return false;
+   }
+
+
+   /* An instance of this class accumulates the states of an NFA under
+   ** construction.  RegularExpression.compile() implementations add states
+   ** through it, and compile their subexpressions via compile(r, next).
+   */
+   public static class Builder {
+
+      private static final int INIT_CAPACITY = 16;
+
+      /* A counted repetition is unrolled if that takes at most this many
+      ** copies of its operand, and otherwise compiled with a counter.
+      */
+      public static final int UNROLL_LIMIT = 16;
+
+      /* Cache points (see compile()) nest at most this deep, so that no
+      ** state is copied into the cache more than this many times.
+      */
+      private static final int MAX_CACHE_DEPTH = 2;
+
+      int[] kind = new int[INIT_CAPACITY];
+      int[] out1 = new int[INIT_CAPACITY];
+      int[] out2 = new int[INIT_CAPACITY];
+      char[] lo = new char[INIT_CAPACITY];
+      char[] hi = new char[INIT_CAPACITY];
+      char[][] set = new char[INIT_CAPACITY][];
+      int size = 0;
+      int[] counterMin = new int[0];
+      int[] counterMax = new int[0];
+      int numCounters = 0;
+
+      private final RegExprCompileCache cache;   // may be null
+      private final boolean counting;             // may use counters
+      private RegularExpression parent;     // of the expression compiling
+      private int cacheDepth;               // cache points being compiled
+      int cacheHits, cacheMisses;           // lookups by this builder
+
+      public Builder() { this(null); }
+
+      public Builder(RegExprCompileCache cache) { this(cache, true); }
+
+      Builder(RegExprCompileCache cache, boolean counting) {
+         this.cache = cache;
+         this.counting = counting;
+      }
+
+      /* Returns the start state of the NFA fragment for r, which is to be
+      ** followed by state next.  If r is a cache point, the fragment is
+      ** copied from the cache if possible, and otherwise compiled and then
+      ** offered to the cache.  The cache points are the whole expression,
+      ** the alternatives of a union, the factors of a concatenation (a
+      ** union or concatenation within one of its own kind is not one, so
+      ** that a chain of them is one list of alternatives or factors) and
+      ** the body of a repetition, nested at most MAX_CACHE_DEPTH deep, so
+      ** that an edit to one factor or alternative recompiles just that one
+      ** and its enclosing cache points.  Caching every subtree would copy
+      ** the states of a deep tree once per ancestor.  Words and character
+      ** classes are never cache points, as copying them is no cheaper than
+      ** compiling them.
+      */
+      public int compile(RegularExpression r, int next) {
+         boolean point = cache != null && cacheDepth < MAX_CACHE_DEPTH &&
+                         !(r instanceof RegExprWord) &&
+                         !(r instanceof RegExprCharClass) &&
+                         (parent == null ||
+                          parent instanceof RegExprRepeat ||
+                          parent instanceof RegExprUnion &&
+                             !(r instanceof RegExprUnion) ||
+                          parent instanceof RegExprConcat &&
+                             !(r instanceof RegExprConcat));
+         RegularExpression outer = parent;
+         parent = r;
+         int start;
+         if (!point) {
+            start = r.compile(this, next);
+         }
+         else {
+            RegExprCompileCache.Fragment f = cache.get(r);
+            if (f != null) {
+               cacheHits++;
+               start = splice(f, next);
+            }
+            else {
+               cacheMisses++;
+               int mark = size;
+               cacheDepth++;
+               start = r.compile(this, next);
+               cacheDepth--;
+               if (size - mark >= RegExprCompileCache.MIN_STATES &&
+                   !hasCounters(mark)) {
+                  cache.put(r, extract(mark, start, next));
+               }
+            }
+         }
+         parent = outer;
+         return start;
+      }
+
+      /* Returns the start state of min to max copies (max may be
+      ** RegExprRepeat.UNBOUNDED) of the fragment that body.applyAsInt(t)
+      ** compiles, followed by state t, the whole followed by state next.
+      ** If that takes at most UNROLL_LIMIT copies, the copies are made:
+      ** min of them followed by max - min nested optional ones,
+      ** (r(r(...)?)?)?, or, if max is UNBOUNDED, by a loop as for r*.
+      ** Otherwise there is one copy, in a loop controlled by a counter.
+      */
+      public int compileRepeat(int min, int max, IntUnaryOperator body,
+                               int next) {
+         int copies = max == RegExprRepeat.UNBOUNDED ? min + 1 : max;
+         if (counting && copies > UNROLL_LIMIT) {
+            int c = addCounter(min, max);
+            int test = newState(COUNT_TEST);
+            setCounter(test, c);
+            out2[test] = next;
+            int incr = newState(COUNT_INCR);
+            setCounter(incr, c);
+            out1[incr] = test;
+            int first = body.applyAsInt(incr);   // may grow out1
+            out1[test] = first;
+            int reset = newState(COUNT_RESET);
+            setCounter(reset, c);
+            out1[reset] = test;
+            return reset;
+         }
+         int s;
+         if (max == RegExprRepeat.UNBOUNDED) {
+            s = addSplit(-1, next);
+            setOut1(s, body.applyAsInt(s));
+         }
+         else {
+            s = next;
+            for (int k = min; k != max; k++) {
+               s = addSplit(body.applyAsInt(s), next);
+            }
+         }
+         for (int k = 0; k != min; k++) {
+            s = body.applyAsInt(s);
+         }
+         return s;
+      }
+
+      /* Adds a state consuming any character in [l..h], going to out.
+      */
+      public int addChar(char l, char h, int out) {
+         int s = newState(CHAR);
+         lo[s] = l;
+         hi[s] = h;
+         out1[s] = out;
+         return s;
+      }
+
+      /* Adds a state consuming any character in the given range set (sorted,
+      ** disjoint [lo..hi] pairs, which are not copied), going to out.
+      */
+      public int addSet(char[] ranges, int out) {
+         int s = newState(SET);
+         set[s] = ranges;
+         out1[s] = out;
+         return s;
+      }
+
+      /* Adds a state going to out, recording the position in capture slot
+      ** 'slot' (2g for the start of group g, 2g+1 for its end).
+      */
+      public int addSave(int slot, int out) {
+         int s = newState(SAVE);
+         lo[s] = (char)slot;
+         out1[s] = out;
+         return s;
+      }
+
+      /* Adds a state going (preferably) to a, and also to b.
+      */
+      public int addSplit(int a, int b) {
+         int s = newState(SPLIT);
+         out1[s] = a;
+         out2[s] = b;
+         return s;
+      }
+
+      public int addMatch() { return newState(MATCH); }
+
+      public int addFail() { return newState(FAIL); }
+
+      /* Redirects the first (or only) transition of state s to t.
+      */
+      public void setOut1(int s, int t) { out1[s] = t; }
+
+      /* Returns the number of states added so far.
+      */
+      public int size() { return size; }
+
+      /* Returns the NFA consisting of the states added so far.
+      */
+      public RegExprNfa build(int start) { return new RegExprNfa(this, start); }
+
+      /* Appends a copy of the given fragment, with its exits leading to
+      ** state next, and returns the copy's start state.
+      */
+      private int splice(RegExprCompileCache.Fragment f, int next) {
+         final int base = size;
+         final int n = f.size();
+         ensureCapacity(base + n);
+         System.arraycopy(f.kind, 0, kind, base, n);
+         System.arraycopy(f.lo, 0, lo, base, n);
+         System.arraycopy(f.hi, 0, hi, base, n);
+         System.arraycopy(f.set, 0, set, base, n);
+         for (int i = 0; i != n; i++) {
+            out1[base + i] = relocate(f.out1[i], base, next);
+            out2[base + i] = relocate(f.out2[i], base, next);
+         }
+         size = base + n;
+         return relocate(f.start, base, next);
+      }
+
+      /* Returns a fragment consisting of states [mark, size), which begin at
+      ** state start and otherwise lead only to state next.
+      */
+      private RegExprCompileCache.Fragment extract(int mark, int start,
+                                                   int next) {
+         final int n = size - mark;
+         int[] fOut1 = new int[n];
+         int[] fOut2 = new int[n];
+         for (int i = 0; i != n; i++) {
+            fOut1[i] = unlocate(out1[mark + i], mark, next);
+            fOut2[i] = unlocate(out2[mark + i], mark, next);
+         }
+         return new RegExprCompileCache.Fragment(
+            Arrays.copyOfRange(kind, mark, size), fOut1, fOut2,
+            Arrays.copyOfRange(lo, mark, size), Arrays.copyOfRange(hi, mark, size),
+            Arrays.copyOfRange(set, mark, size),
+            unlocate(start, mark, next));
+      }
+
+      private int addCounter(int min, int max) {
+         if (numCounters == counterMin.length) {
+            int len = Math.max(4, 2 * numCounters);
+            counterMin = Arrays.copyOf(counterMin, len);
+            counterMax = Arrays.copyOf(counterMax, len);
+         }
+         counterMin[numCounters] = min;
+         counterMax[numCounters] = max;
+         return numCounters++;
+      }
+
+      private void setCounter(int s, int c) {
+         lo[s] = (char)c;
+         hi[s] = (char)(c >>> 16);
+      }
+
+      /* Reports whether states [mark, size) include counter states, whose
+      ** counters are numbered for this builder, so that they cannot be
+      ** cached.
+      */
+      private boolean hasCounters(int mark) {
+         for (int s = mark; s != size; s++) {
+            if (kind[s] >= COUNT_RESET) { return true; }
+         }
+         return false;
+      }
+
+      private static int relocate(int t, int base, int next) {
+         if (t == RegExprCompileCache.NEXT) { return next; }
+         else if (t < 0) { return t; }
+         else { return base + t; }
+      }
+
+      private static int unlocate(int t, int mark, int next) {
+         if (t == next) { return RegExprCompileCache.NEXT; }
+         else if (t < 0) { return t; }
+         else { return t - mark; }
+      }
+
+      private void ensureCapacity(int n) {
+         if (n > kind.length) {
+            int len = Math.max(n, 2 * kind.length);
+            kind = Arrays.copyOf(kind, len);
+            out1 = Arrays.copyOf(out1, len);
+            out2 = Arrays.copyOf(out2, len);
+            lo = Arrays.copyOf(lo, len);
+            hi = Arrays.copyOf(hi, len);
+            set = Arrays.copyOf(set, len);
+         }
+      }
+
+      private int newState(int k) {
+         ensureCapacity(size + 1);
+         kind[size] = k;
+         out1[size] = -1;
+         out2[size] = -1;
+         set[size] = null;
+         size = size + 1;
+         return size - 1;
+      }
+   }
+
+}
\ No newline at end of file
@@ -6,7 +6,10 @@ import java.util.Random;
 public class RegExprNullSet extends RegularExpression {
 
    @Override
-   public boolean isMember(String x) { return false; }
+   public boolean isMember(String x, RegExprMatchContext ctx) { 
+      ctx.step();
+      return false; 
+   }
 
    @Override
    public boolean isFinite() { return true; }
@@ -26,7 +29,16 @@ public class RegExprNullSet extends RegularExpression {
    @Override
    public String toString() { return "" + RegExprSymbols.NULL_SET; }
    
+   @Override
+   public boolean equals(Object o) { return o instanceof RegExprNullSet; }
+
+   @Override
+   public int hashCode() { return RegExprNullSet.class.hashCode(); }
+
    @Override
    public RegularExpression reverse() { return this; }
 
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) { return nfa.addFail(); }
+
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* An instance of this class is a copy of a RegExprDfa whose transition
+** table is kept outside the Java heap, in a direct buffer, so that a
+** very large table is neither scanned nor copied by the garbage collector.
+** The matching loop reads the table where it lies.  Only the (small)
+** alphabet and the accepting flags stay on the heap.
+**
+** The table's memory is released by close(), rather than whenever the
+** collector gets around to it; using the automaton after that throws
+** IllegalStateException.  close() waits for matches in progress on other
+** threads to finish before releasing the memory, so an instance may be
+** shared among threads and closed by any of them.  (If this JVM does not
+** allow direct buffers to be freed explicitly, close() only drops the
+** buffer, and the memory is released when it is collected.)
+*/
+public class RegExprOffHeapDfa implements AutoCloseable {
+
+   public static final int DEAD = RegExprDfa.DEAD;
+
+   /* sun.misc.Unsafe.invokeCleaner(ByteBuffer), or null if unavailable.
+   */
+   private static final Object UNSAFE;
+   private static final Method INVOKE_CLEANER;
+
+   static {
+      Object unsafe = null;
+      Method invokeCleaner = null;
+      try {
+         Class<?> c = Class.forName("sun.misc.Unsafe");
+         Field f = c.getDeclaredField("theUnsafe");
+         f.setAccessible(true);
+         unsafe = f.get(null);
+         invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+      }
+      catch (ReflectiveOperationException | RuntimeException e) {
+         unsafe = null;
+         invokeCleaner = null;
+      }
+      UNSAFE = unsafe;
+      INVOKE_CLEANER = invokeCleaner;
+   }
+
+   // instance variables
+   // ------------------
+
+   private final RegExprAlphabet alphabet;
+   private final int numClasses;
+   private final boolean[] accepting;
+   private final int start;
+   private final long bytes;           // the size of the table
+   private ByteBuffer memory;          // null once closed
+   private IntBuffer table;            // table.get(s * numClasses + k)
+   private volatile boolean closed = false;
+   private final AtomicInteger users = new AtomicInteger();
+
+   // constructor
+   // -----------
+
+   /* Establishes this automaton as an off-heap copy of the given DFA.
+   ** Throws IllegalArgumentException if its table takes more than
+   ** Integer.MAX_VALUE bytes, the most a direct buffer can hold.
+   */
+   public RegExprOffHeapDfa(RegExprDfa dfa) {
+      bytes = 4L * dfa.table.length;
+      if (bytes > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException(
+            "DFA table of " + dfa.table.length + " entries (" + bytes +
+            " bytes) is too large for a direct buffer");
+      }
+      alphabet = dfa.alphabet;
+      numClasses = dfa.numClasses;
+      accepting = dfa.accepting.clone();
+      start = dfa.start;
+      memory = ByteBuffer.allocateDirect((int)bytes)
+                         .order(ByteOrder.nativeOrder());
+      table = memory.asIntBuffer();
+      table.put(dfa.table);
+   }
+
+   /* Returns the off-heap DFA for the given regular expression, or null if
+   ** it would have more than maxStates states.
+   */
+   public static RegExprOffHeapDfa build(RegularExpression r, int maxStates) {
+      RegExprDfa dfa = RegExprDfa.build(r, maxStates);
+      return dfa == null ? null : new RegExprOffHeapDfa(dfa);
+   }
+
+   // observers
+   // ---------
+
+   public int numStates() { return accepting.length; }
+
+   public int numClasses() { return numClasses; }
+
+   /* Returns the number of bytes of off-heap memory held (0 once closed).
+   */
+   public long offHeapBytes() { return closed ? 0 : bytes; }
+
+   public boolean isClosed() { return closed; }
+
+   /* Reports whether the given string is accepted.
+   ** Throws IllegalStateException if this automaton has been closed.
+   */
+   public boolean accepts(CharSequence x) {
+      acquire();
+      try {
+         final IntBuffer t = table;
+         int s = start;
+         final int n = x.length();
+         for (int i = 0; i != n  &&  s != DEAD; i++) {
+            s = t.get(s * numClasses + alphabet.classOf(x.charAt(i)));
+         }
+         return accepting[s];
+      }
+      finally {
+         users.decrementAndGet();
+      }
+   }
+
+   // mutator
+   // -------
+
+   /* Releases the off-heap table, once no match is in progress.  Closing
+   ** an automaton that is already closed has no effect.
+   */
+   @Override
+   public void close() {
+      synchronized (this) {
+         if (closed) { return; }
+         closed = true;
+      }
+      while (users.get() != 0) { Thread.onSpinWait(); }
+      ByteBuffer m = memory;
+      memory = null;
+      table = null;
+      if (INVOKE_CLEANER != null) {
+         try {
+            INVOKE_CLEANER.invoke(UNSAFE, m);
+         }
+         catch (ReflectiveOperationException e) {
+            // leave it to the collector
+         }
+      }
+   }
+
+   // private
+   // -------
+
+   /* Registers a match in progress, which close() will wait for.
+   */
+   private void acquire() {
+      users.incrementAndGet();
+      if (closed) {
+         users.decrementAndGet();
+         throw new IllegalStateException("RegExprOffHeapDfa is closed");
+      }
+   }
+
+}
\ No newline at end of file
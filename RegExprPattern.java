@@ -0,0 +1,127 @@
+/* An instance of this class is a compiled, immutable form of a regular
+** expression, in the manner of java.util.regex.Pattern.  Compiling does
+** all of the work that depends only on the expression; the work that
+** depends on the input string is done by a RegExprMatcher, which owns the
+** scratch space needed for it.
+**
+** A pattern may be shared freely among threads.  Each thread should use
+** its own matcher (obtained via matcher()), or simply call matches(),
+** which uses a matcher cached for the calling thread.  Either way, a
+** steady-state membership test neither allocates nor synchronizes.
+*/
+public final class RegExprPattern {
+
+   // instance variables
+   // ------------------
+
+   private final RegularExpression expr;
+   private final RegExprNfa nfa;
+   private final ThreadLocal<RegExprMatcher> perThread;
+   // built on first use by isMemberWithin(); a race builds them twice,
+   // which is harmless, as they are immutable
+   private volatile RegExprBitNfa bits;
+   private volatile boolean bitsTried;
+   private volatile RegExprNfa unrolled;     // nfa without its counters
+   private final int cacheHits, cacheMisses;  // of the compile cache
+
+   // constructor
+   // -----------
+
+   private RegExprPattern(RegularExpression expr, RegExprCompileCache cache) {
+      this.expr = expr;
+      RegExprNfa.Builder b = new RegExprNfa.Builder(cache);
+      int match = b.addMatch();
+      this.nfa = b.build(b.compile(expr, match));
+      this.cacheHits = b.cacheHits;
+      this.cacheMisses = b.cacheMisses;
+      this.perThread = ThreadLocal.withInitial(this::matcher);
+   }
+
+   /* Returns the compiled form of the given regular expression.
+   */
+   public static RegExprPattern compile(RegularExpression r) {
+      return new RegExprPattern(r, null);
+   }
+
+   /* Returns the compiled form of the given regular expression, reusing
+   ** the compiled forms of subexpressions found in the given cache (and
+   ** adding to it).
+   */
+   public static RegExprPattern compile(RegularExpression r,
+                                        RegExprCompileCache cache) {
+      return new RegExprPattern(r, cache);
+   }
+
+   /* Returns the compiled form of the regular expression described by the
+   ** given string.
+   ** Throws IllegalArgumentException if !RegExprBuilder.isValid(s).
+   */
+   public static RegExprPattern compile(String s) {
+      if (!RegExprBuilder.isValid(s)) {
+         throw new IllegalArgumentException("Invalid regular expression: " + s);
+      }
+      return new RegExprPattern(RegExprBuilder.parse(s), null);
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the regular expression from which this pattern was compiled.
+   */
+   public RegularExpression expression() { return expr; }
+
+   /* Reports whether the given string is within k edits (insertions,
+   ** deletions or substitutions of one char) of a member of the language.
+   ** A pattern of at most 64 positions is matched bit-parallel (see
+   ** RegExprBitNfa.matchesWithin()), any other by the NFA, or, if that has
+   ** counters, by one compiled with its repetitions unrolled.
+   ** pre: k >= 0
+   */
+   public boolean isMemberWithin(CharSequence x, int k) {
+      if (!bitsTried) {
+         bits = RegExprBitNfa.build(nfa);
+         bitsTried = true;
+      }
+      RegExprBitNfa b = bits;
+      if (b != null) { return b.matchesWithin(x, k); }
+      if (nfa.numCounters() == 0) { return nfa.acceptsWithin(x, k); }
+      RegExprNfa u = unrolled;
+      if (u == null) {
+         u = RegExprNfa.compileUnrolled(expr);
+         unrolled = u;
+      }
+      return u.acceptsWithin(x, k);
+   }
+
+   /* Returns the NFA that this pattern's matchers simulate.
+   */
+   RegExprNfa nfa() { return nfa; }
+
+   /* Returns the number of fragments of this pattern that compiling it
+   ** found in the compile cache.
+   */
+   public int compileCacheHits() { return cacheHits; }
+
+   /* Returns the number of fragments of this pattern that compiling it
+   ** looked for in the compile cache but did not find.
+   */
+   public int compileCacheMisses() { return cacheMisses; }
+
+   /* Returns the number of capturing groups in this pattern.
+   */
+   public int groupCount() { return nfa.groupCount(); }
+
+   /* Returns a new matcher for this pattern.  A matcher may be used for
+   ** any number of membership tests, but by only one thread at a time.
+   */
+   public RegExprMatcher matcher() { return new RegExprMatcher(this); }
+
+   /* Reports whether the given string is a member of the language described
+   ** by this pattern, using the calling thread's matcher.
+   */
+   public boolean matches(CharSequence x) { return perThread.get().matches(x); }
+
+   @Override
+   public String toString() { return expr.toString(); }
+
+}
\ No newline at end of file
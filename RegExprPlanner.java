@@ -0,0 +1,404 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/* An instance of this class chooses, for each regular expression given
+** to it, the engine that should test membership in its language most
+** cheaply, going by the shape of the expression tree:
+**
+**    a word                   equals: compare the string with it
+**    an empty language        empty: reject everything
+**    a union of words         dictionary: a minimal acyclic DFA
+**    few positions, with      bit-parallel: a RegExprBitNfa
+**      no nested stars
+**    otherwise                dfa: a RegExprDfa, if it fits the budget
+**    and failing that         lazy-dfa: a RegExprLazyDfa, which builds
+**                               only the states that inputs reach
+**
+** A star-free or singly-starred expression small enough for the bit-
+** parallel engine is matched at nearly DFA speed without the risk of a
+** large determinization; beyond that, a DFA is built only within the
+** planner's budgets of states and of table memory (states x alphabet
+** classes x 4 bytes), which bounds both the work of planning and the
+** memory held per pattern.  The DFA construction gives up as soon as it
+** passes the budget, so an expression whose DFA would explode costs no
+** more to plan than the budget allows, and it is not even begun if the
+** DFA's size, estimated from the tree (e.g., [a-c]{70} needs some 70
+** states), is over the budget.  The lazy DFA keeps to the same budget of
+** states, simulating the NFA for inputs that would need more.  An NFA
+** with counter states (see RegExprNfa) can only be simulated, so the
+** lazy DFA is built instead from the NFA with its repetitions unrolled,
+** if that has no more than MAX_UNROLLED_POSITIONS positions.
+**
+** Planning never recurses on the depth of the tree: its shape is found
+** with explicit stacks, and a tree deeper than MAX_RECURSIVE_DEPTH is
+** compiled from its flat form (RegExprFlat).
+**
+** Each engine's describe() reports what was chosen and why, e.g.,
+**
+**    dfa (212 states, 9 classes): size 41, infinite, star depth 2
+*/
+public final class RegExprPlanner {
+
+   public static final int DEFAULT_MAX_STATES = 1 << 12;
+   public static final long DEFAULT_MAX_BYTES = 1L << 22;
+
+   // the largest unrolled NFA (in chars and classes) for a lazy DFA
+   public static final int MAX_UNROLLED_POSITIONS = 1 << 16;
+
+   // the deepest nesting of stars left to the bit-parallel engine
+   private static final int MAX_BIT_PARALLEL_STAR_DEPTH = 1;
+
+   // the deepest tree compiled by RegExprNfa.Builder's recursive walk
+   private static final int MAX_RECURSIVE_DEPTH = 1000;
+
+   // instance variables
+   // ------------------
+
+   private final int maxStates;
+   private final long maxBytes;
+
+   // constructors
+   // ------------
+
+   /* Establishes this planner with the given DFA budgets: at most
+   ** maxStates states and maxBytes bytes of transition table.
+   ** pre: maxStates > 0 && maxBytes > 0
+   */
+   public RegExprPlanner(int maxStates, long maxBytes) {
+      this.maxStates = maxStates;
+      this.maxBytes = maxBytes;
+   }
+
+   public RegExprPlanner() { this(DEFAULT_MAX_STATES, DEFAULT_MAX_BYTES); }
+
+   // observers
+   // ---------
+
+   public int maxStates() { return maxStates; }
+
+   public long maxBytes() { return maxBytes; }
+
+   /* Returns an engine for the language of the given regular expression.
+   */
+   public RegExprEngine plan(RegularExpression r) { return plan(r, null); }
+
+   /* Returns an engine for the language of the given regular expression,
+   ** compiling its NFA (if it needs one) with the given compile cache, if
+   ** it is not null.
+   */
+   Plan plan(RegularExpression r, RegExprCompileCache cache) {
+      RegularExpression e = unwrap(r);
+      Shape shape = new Shape(e);
+
+      if (e instanceof RegExprWord) {
+         final String word = ((RegExprWord)e).word();
+         return new Plan("equals", x -> word.contentEquals(x),
+                         "length " + word.length(), "a single word");
+      }
+      if (shape.empty) {
+         return new Plan("empty", x -> false, "", "empty language");
+      }
+      RegExprDictionary dictionary = null;
+      if (e instanceof RegExprDictionary) {
+         dictionary = (RegExprDictionary)e;
+      }
+      else if (shape.words != null) {
+         dictionary = RegExprDictionary.of(shape.words);
+      }
+      if (dictionary != null) {
+         return new Plan("dictionary", dictionary::contains,
+                         dictionary.size() + " words, " +
+                         dictionary.numStates() + " states",
+                         "a union of words");
+      }
+
+      RegularExpression source = shape.height > MAX_RECURSIVE_DEPTH ?
+                                 RegExprFlat.of(e) : e;
+      RegExprNfa.Builder builder = new RegExprNfa.Builder(cache);
+      int match = builder.addMatch();
+      RegExprNfa nfa = builder.build(builder.compile(source, match));
+      if (shape.starDepth <= MAX_BIT_PARALLEL_STAR_DEPTH) {
+         RegExprBitNfa bits = RegExprBitNfa.build(nfa);
+         if (bits != null) {
+            return compiled(new Plan(bits.name(), bits::matches,
+                                     bits.numPositions() + " positions",
+                                     shape.toString()), builder, null);
+         }
+      }
+
+      int numClasses = new RegExprAlphabet(nfa).size();
+      int budget = (int)Math.min(maxStates, maxBytes / (4L * numClasses));
+      boolean tried = budget >= 1 && shape.dfaEstimate <= budget;
+      RegExprDfa dfa = tried ? RegExprDfa.build(nfa, budget) : null;
+      if (dfa != null) {
+         return compiled(new Plan("dfa", dfa::accepts,
+                                  dfa.numStates() + " states, " + numClasses +
+                                  " classes", shape.toString()), builder, null);
+      }
+
+      String reason = shape + ", DFA " + (tried ? "" : "estimated ") +
+                      "over budget (" + budget + " states)";
+      RegExprNfa lazyNfa = nfa;
+      if (nfa.numCounters() != 0) {
+         if (shape.unrolledPositions <= MAX_UNROLLED_POSITIONS) {
+            lazyNfa = RegExprNfa.compileUnrolled(source);
+            reason += ", repetitions unrolled";
+         }
+         else {
+            reason += ", NFA with counters simulated";
+         }
+      }
+      RegExprLazyDfa lazy = new RegExprLazyDfa(lazyNfa, Math.max(budget, 2));
+      return compiled(new Plan(lazy.name(), lazy::matches,
+                               lazyNfa.size() + " NFA states", reason),
+                      builder, lazy);
+   }
+
+   // private
+   // -------
+
+   /* Records in plan p what compiling its NFA with builder b found in the
+   ** compile cache, and its lazy DFA, if it is one.
+   */
+   private static Plan compiled(Plan p, RegExprNfa.Builder b,
+                                RegExprLazyDfa lazy) {
+      p.cacheHits = b.cacheHits;
+      p.cacheMisses = b.cacheMisses;
+      p.lazyDfa = lazy;
+      return p;
+   }
+
+   /* Strips what does not affect membership from the top of r: the
+   ** instrumentation wrapper and capturing groups.
+   */
+   private static RegularExpression unwrap(RegularExpression r) {
+      while (true) {
+         if (r instanceof RegExprInstrumented) {
+            r = ((RegExprInstrumented)r).unwrap();
+         }
+         else if (r instanceof RegExprCapture) {
+            r = ((RegExprCapture)r).body();
+         }
+         else {
+            return r;
+         }
+      }
+   }
+
+   /* The features of an expression tree that the plan depends on, found
+   ** in one walk that visits each node after its operands, with explicit
+   ** stacks, as trees built from long concatenations and unions are deep.
+   ** Whether the language is finite or empty is worked out in the same
+   ** walk, by the rules of the node classes' isFinite() and isEmpty(), so
+   ** that only the leaves are asked.
+   **
+   ** The estimate of the DFA's size counts a state per char of a word or
+   ** per class, adds them along a concatenation, takes the larger of the
+   ** alternatives of a union, and multiplies them by the count of a
+   ** counted repetition: so about right for words and counted
+   ** repetitions, and low for the unions under stars whose DFAs explode,
+   ** which the construction's budget still catches.
+   */
+   private static final class Shape {
+      int size = 0;            // nodes
+      int starDepth;           // deepest nesting of unbounded repetitions
+      int literals = 0;        // chars in words
+      int height;              // nodes on the longest path from the root
+      boolean finite, empty;
+      int dfaEstimate;         // states, at most Integer.MAX_VALUE
+      int unrolledPositions;   // chars and classes with repetitions unrolled
+      List<String> words = new ArrayList<String>();   // null unless r is a
+                                                      // union of words
+
+      Shape(RegularExpression r) {
+         Stack<RegularExpression> nodes = new StackViaArray<RegularExpression>();
+         IntStack visited = new IntStack();      // 1 once the operands are done
+         Stack<Facts> done = new StackViaArray<Facts>();
+         nodes.push(r);
+         visited.pushInt(0);
+         while (!nodes.isEmpty()) {
+            RegularExpression e = nodes.pop();
+            if (visited.popInt() == 0) {
+               size++;
+               if (e instanceof RegExprWord) {
+                  String w = ((RegExprWord)e).word();
+                  literals += w.length();
+                  if (words != null) { words.add(w); }
+               }
+               else if (!(e instanceof RegExprUnion ||
+                          e instanceof RegExprInstrumented)) {
+                  words = null;
+               }
+               RegularExpression[] operands = operands(e);
+               if (operands.length == 0) {
+                  done.push(new Facts(e));
+                  continue;
+               }
+               nodes.push(e);
+               visited.pushInt(1);
+               for (int i = operands.length - 1; i >= 0; i--) {
+                  nodes.push(operands[i]);
+                  visited.pushInt(0);
+               }
+            }
+            else if (operands(e).length == 2) {
+               Facts b = done.pop();
+               done.push(new Facts(e, done.pop(), b));
+            }
+            else {
+               done.push(new Facts(e, done.pop(), null));
+            }
+         }
+         Facts f = done.pop();
+         starDepth = f.starDepth;
+         height = f.height;
+         finite = f.finite;
+         empty = f.empty;
+         dfaEstimate = RegularExpression.addLengths(f.states, 1);
+         unrolledPositions = f.positions;
+         if (words != null && words.size() < 2) { words = null; }
+      }
+
+      private static final RegularExpression[] NO_OPERANDS =
+         new RegularExpression[0];
+
+      private static RegularExpression[] operands(RegularExpression e) {
+         if (e instanceof RegExprUnion) {
+            RegExprUnion u = (RegExprUnion)e;
+            return new RegularExpression[] { u.first(), u.second() };
+         }
+         else if (e instanceof RegExprConcat) {
+            RegExprConcat c = (RegExprConcat)e;
+            return new RegularExpression[] { c.first(), c.second() };
+         }
+         else if (e instanceof RegExprStar) {
+            return new RegularExpression[] { ((RegExprStar)e).body() };
+         }
+         else if (e instanceof RegExprRepeat) {
+            return new RegularExpression[] { ((RegExprRepeat)e).body() };
+         }
+         else if (e instanceof RegExprCapture) {
+            return new RegularExpression[] { ((RegExprCapture)e).body() };
+         }
+         else if (e instanceof RegExprInstrumented) {
+            return new RegularExpression[] { ((RegExprInstrumented)e).unwrap() };
+         }
+         return NO_OPERANDS;
+      }
+
+      @Override
+      public String toString() {
+         return "size " + size + ", " + (finite ? "finite" : "infinite") +
+                ", star depth " + starDepth + ", " + literals + " literal chars" +
+                ", est. " + dfaEstimate + " DFA states";
+      }
+   }
+
+   /* What Shape finds out about one node, from what it found about its
+   ** operands.  Lengths and counts saturate at Integer.MAX_VALUE.
+   */
+   private static final class Facts {
+      boolean finite, empty;
+      boolean onlyEmptyWord;     // the language is at most { "" }
+      int states;                // the DFA estimate, less one
+      int positions;             // chars and classes, unrolled
+      int height = 1;
+      int starDepth;
+
+      /* The facts of leaf e.
+      */
+      Facts(RegularExpression e) {
+         finite = e.isFinite();
+         empty = e.isEmpty();
+         onlyEmptyWord = empty || (finite && e.maxLength() == 0);
+         if (e instanceof RegExprWord) {
+            states = positions = ((RegExprWord)e).word().length();
+         }
+         else if (e instanceof RegExprDictionary) {
+            states = positions = ((RegExprDictionary)e).numStates();
+         }
+         else {
+            states = positions = 1;
+         }
+      }
+
+      /* The facts of e, whose operands' are a and (if it has two) b.
+      */
+      Facts(RegularExpression e, Facts a, Facts b) {
+         height = 1 + Math.max(a.height, b == null ? 0 : b.height);
+         starDepth = Math.max(a.starDepth, b == null ? 0 : b.starDepth);
+         finite = a.finite;
+         empty = a.empty;
+         onlyEmptyWord = a.onlyEmptyWord;
+         states = a.states;
+         positions = a.positions;
+         if (e instanceof RegExprUnion) {
+            finite = a.finite && b.finite;
+            empty = a.empty && b.empty;
+            onlyEmptyWord = a.onlyEmptyWord && b.onlyEmptyWord;
+            states = Math.max(a.states, b.states);
+            positions = RegularExpression.addLengths(a.positions, b.positions);
+         }
+         else if (e instanceof RegExprConcat) {
+            empty = a.empty || b.empty;
+            finite = empty || (a.finite && b.finite);
+            onlyEmptyWord = empty || (a.onlyEmptyWord && b.onlyEmptyWord);
+            states = RegularExpression.addLengths(a.states, b.states);
+            positions = RegularExpression.addLengths(a.positions, b.positions);
+         }
+         else if (e instanceof RegExprStar) {
+            starDepth++;
+            empty = false;
+            finite = onlyEmptyWord;
+         }
+         else if (e instanceof RegExprRepeat) {
+            RegExprRepeat rep = (RegExprRepeat)e;
+            boolean unbounded = rep.max() == RegExprRepeat.UNBOUNDED;
+            if (unbounded) { starDepth++; }
+            empty = rep.min() > 0 && a.empty;
+            finite = empty || rep.max() == 0 || a.onlyEmptyWord ||
+                     (!unbounded && a.finite);
+            onlyEmptyWord = empty || rep.max() == 0 || a.onlyEmptyWord;
+            int copies = unbounded ? rep.min() + 1 : rep.max();
+            states = a.onlyEmptyWord ? 0 :
+                     RegularExpression.multiplyLength(
+                        unbounded ? Math.max(rep.min(), 1) : rep.max(), a.states);
+            positions = RegularExpression.multiplyLength(copies, a.positions);
+         }
+      }
+   }
+
+   /* An engine that tests membership with a given predicate.  For
+   ** RegExprProfiler, it also records the compile-cache lookups made in
+   ** compiling its NFA and, if it is a lazy DFA, the RegExprLazyDfa.
+   */
+   static final class Plan implements RegExprEngine {
+      private final String name;
+      private final Predicate<CharSequence> test;
+      private final String description;
+      int cacheHits, cacheMisses;
+      RegExprLazyDfa lazyDfa;           // null unless the engine is one
+
+      Plan(String name, Predicate<CharSequence> test,
+           String size, String reason) {
+         this.name = name;
+         this.test = test;
+         this.description = name + (size.isEmpty() ? "" : " (" + size + ")") +
+                            ": " + reason;
+      }
+
+      @Override
+      public boolean matches(CharSequence x) { return test.test(x); }
+
+      @Override
+      public String name() { return name; }
+
+      @Override
+      public String describe() { return description; }
+
+      @Override
+      public String toString() { return description; }
+   }
+
+}
\ No newline at end of file
@@ -0,0 +1,207 @@
+import java.util.Arrays;
+import java.util.List;
+
+/* An instance of this class explains membership tests against one
+** regular expression, for the profile command of RegExprApp: for each
+** input it reports
+**
+**    - the engine RegExprPlanner chooses, why, and its time, and how
+**      many of the fragments of its NFA were found in the compile cache
+**      (RegExprCompileCache) rather than compiled;
+**    - the number of recursive isMember() calls of the expression tree
+**      (cut off after MAX_TREE_STEPS), and their time;
+**    - what a lazy DFA (RegExprLazyDfa) did: the states it created and
+**      entered, and how many of its transitions were found in its table
+**      (cache hits) rather than computed from the NFA (misses).
+**
+** If the engine chosen is a lazy DFA, that is the one profiled (and its
+** time includes the profiling).  Otherwise a lazy DFA is run alongside,
+** as a shadow, and reported as such: its counts show how the expression
+** would fare if the DFA went over budget, not what the engine did.  The
+** lazy DFA is kept from one input to the next, as it would be in
+** production, so later inputs find more of its states already built.
+** Over a batch of inputs, the profiler also reports how often each DFA
+** state was entered: a few hot states with many NFA states each are a
+** sign of an expression that is expensive to simulate, and a budget that
+** runs out, of one whose DFA explodes.
+*/
+public class RegExprProfiler {
+
+   public static final long MAX_TREE_STEPS = 10_000_000L;
+
+   private static final int HISTOGRAM_ROWS = 10;
+   private static final int BAR_WIDTH = 30;
+
+   // instance variables
+   // ------------------
+
+   private final RegularExpression regExpr;
+   private final RegExprPlanner.Plan engine;
+   private final RegExprLazyDfa dfa;
+   private final boolean shadow;        // dfa is not the engine
+
+   // constructors
+   // ------------
+
+   /* Establishes this profiler for r, compiling it with the given compile
+   ** cache (e.g., one shared by the expressions of a batch).
+   */
+   public RegExprProfiler(RegularExpression r, RegExprCompileCache cache) {
+      regExpr = r;
+      engine = new RegExprPlanner().plan(r, cache);
+      shadow = engine.lazyDfa == null;
+      dfa = shadow ? RegExprLazyDfa.build(r, RegExprPlanner.DEFAULT_MAX_STATES)
+                   : engine.lazyDfa;
+   }
+
+   public RegExprProfiler(RegularExpression r) {
+      this(r, new RegExprCompileCache());
+   }
+
+   // observers
+   // ---------
+
+   /* Returns the report on testing x for membership, one or more lines.
+   */
+   public String profile(String x) {
+      Run run = new Run(x);
+      StringBuilder b = new StringBuilder();
+      b.append("The string " + RegExprApp.PAD + x + RegExprApp.PAD + " is " +
+               (run.member ? "" : "NOT ") + "a member.\n");
+      b.append(String.format("  engine:   %s; %d ns\n",
+                             engine.describe(), run.engineNanos));
+      appendCompile(b);
+      if (run.treeSteps < 0) {
+         b.append(String.format("  isMember: gave up after %d calls; %d ns\n",
+                                MAX_TREE_STEPS, run.treeNanos));
+      }
+      else {
+         b.append(String.format("  isMember: %d calls; %d ns\n",
+                                run.treeSteps, run.treeNanos));
+      }
+      appendDfa(b, run.profile, 1);
+      return b.toString();
+   }
+
+   /* Returns the report on testing each of the given strings, with the
+   ** totals and a histogram of the DFA states entered.
+   */
+   public String profile(List<String> inputs) {
+      RegExprLazyDfa.Profile total = new RegExprLazyDfa.Profile();
+      long engineNanos = 0, treeNanos = 0, treeSteps = 0;
+      int members = 0, gaveUp = 0;
+      for (String x : inputs) {
+         Run run = new Run(x);
+         if (run.member) { members++; }
+         engineNanos += run.engineNanos;
+         treeNanos += run.treeNanos;
+         if (run.treeSteps < 0) { gaveUp++; } else { treeSteps += run.treeSteps; }
+         total.add(run.profile);
+      }
+      int n = Math.max(inputs.size(), 1);
+      StringBuilder b = new StringBuilder();
+      b.append(String.format("%d strings, of which %d are members.\n",
+                             inputs.size(), members));
+      b.append(String.format("  engine:   %s; %d ns (%d ns per string)\n",
+                             engine.describe(), engineNanos, engineNanos / n));
+      appendCompile(b);
+      b.append(String.format("  isMember: %d calls; %d ns (%d ns per string)",
+                             treeSteps, treeNanos, treeNanos / n));
+      if (gaveUp != 0) {
+         b.append(String.format("; gave up on %d strings after %d calls",
+                                gaveUp, MAX_TREE_STEPS));
+      }
+      b.append('\n');
+      appendDfa(b, total, n);
+      appendHistogram(b, total);
+      return b.toString();
+   }
+
+   // private
+   // -------
+
+   private void appendCompile(StringBuilder b) {
+      if (engine.cacheHits + engine.cacheMisses == 0) {
+         b.append("  compile:  no NFA compiled\n");
+      }
+      else {
+         b.append(String.format("  compile:  %d compile-cache hits, %d misses\n",
+                                engine.cacheHits, engine.cacheMisses));
+      }
+   }
+
+   private void appendDfa(StringBuilder b, RegExprLazyDfa.Profile p, int n) {
+      String label = shadow ? "  lazy DFA (shadow run, not the engine):\n    "
+                            : "  lazy DFA: ";
+      b.append(String.format("%s%d states entered, %d created " +
+                             "(%d in all); %d transitions: %d cache hits, " +
+                             "%d misses\n",
+                             label, p.statesVisited(), p.created,
+                             dfa.numStates(), p.steps, p.hits, p.misses));
+      if (p.fellBack) {
+         b.append(String.format("  lazy DFA: budget of %d states used up; " +
+                                "the NFA was simulated instead\n",
+                                dfa.maxStates()));
+      }
+   }
+
+   /* Appends the HISTOGRAM_ROWS states entered most often.
+   */
+   private void appendHistogram(StringBuilder b, RegExprLazyDfa.Profile p) {
+      Integer[] order = new Integer[p.visits.length];
+      long all = 0;
+      for (int s = 0; s != order.length; s++) {
+         order[s] = s;
+         all += p.visits[s];
+      }
+      if (all == 0) { return; }
+      final int[] visits = p.visits;
+      Arrays.sort(order, (s, t) -> Integer.compare(visits[t], visits[s]));
+      b.append("  hot states:\n");
+      for (int i = 0; i != Math.min(HISTOGRAM_ROWS, order.length); i++) {
+         int s = order[i];
+         if (visits[s] == 0) { break; }
+         double share = (double)visits[s] / all;
+         char[] bar = new char[(int)Math.ceil(share * BAR_WIDTH)];
+         Arrays.fill(bar, '#');
+         String what = s == RegExprLazyDfa.DEAD ? "dead" :
+                       (dfa.isAccepting(s) ? "accepting, " : "") +
+                       dfa.width(s) + " NFA states";
+         b.append(String.format("    %5d %10d %5.1f%% %-" + BAR_WIDTH +
+                                "s %s\n", s, visits[s], 100 * share,
+                                new String(bar), what));
+      }
+   }
+
+   /* The measurements of one membership test.
+   */
+   private final class Run {
+      final boolean member;
+      final long engineNanos;
+      final long treeSteps;          // -1 if cut off
+      final long treeNanos;
+      final RegExprLazyDfa.Profile profile = new RegExprLazyDfa.Profile();
+
+      Run(String x) {
+         long t0 = System.nanoTime();
+         member = shadow ? engine.matches(x) : dfa.matches(x, profile);
+         engineNanos = System.nanoTime() - t0;
+
+         RegExprMatchContext ctx = new RegExprMatchContext(MAX_TREE_STEPS);
+         long steps;
+         t0 = System.nanoTime();
+         try {
+            regExpr.isMember(x, ctx);
+            steps = ctx.steps();
+         }
+         catch (RegExprBudgetExceededException e) {
+            steps = -1;
+         }
+         treeNanos = System.nanoTime() - t0;
+         treeSteps = steps;
+
+         if (shadow) { dfa.matches(x, profile); }
+      }
+   }
+
+}
\ No newline at end of file
@@ -0,0 +1,232 @@
+import java.util.Random;
+
+/* An instance of this class models a composite regular expression whose
+** main operator is counted repetition: r{n,m} describes the strings
+** formed by concatenating at least n and at most m members of L(r); in
+** r{n,} there is no upper bound, and r{n} abbreviates r{n,n}.
+**
+** The expression tree holds one node however large the bounds are; the
+** repetition is expanded only when compiling to an NFA.
+*/
+public class RegExprRepeat extends RegularExpression {
+
+   public static final int UNBOUNDED = -1;
+
+   private static final int MAX_MEMO_SLOTS = 1 << 16;
+
+   // instance variables
+   // ------------------
+
+   private RegularExpression r;
+   private final int min, max;   // max is UNBOUNDED in the case r{n,}
+   private final int hash;
+
+   // constructor
+   // -----------
+
+   /* Establishes this regular expression as r{min,max}.
+   ** pre: 0 <= min && (max == UNBOUNDED || min <= max)
+   */
+   public RegExprRepeat(RegularExpression regExpr, int min, int max) {
+      r = regExpr;
+      this.min = min;
+      this.max = max;
+      hash = 31 * (31 * (31 * RegExprRepeat.class.hashCode() + 
+                         regExpr.hashCode()) + min) + max;
+   }
+
+
+   // observers
+   // ---------
+
+   /* Returns r, the repeated expression.
+   */
+   RegularExpression body() { return r; }
+
+   /* Returns the lower bound, n.
+   */
+   int min() { return min; }
+
+   /* Returns the upper bound, m, or UNBOUNDED.
+   */
+   int max() { return max; }
+
+   /* Reports whether or not the given string is a member of the language
+   ** represented by this regular expression.
+   ** Rather than expanding the repetition, this keeps one counter: for
+   ** k = 1, 2, ..., it computes the set of positions p such that x[0..p)
+   ** is the concatenation of k members of L(r).  x is a member iff, for
+   ** some k with min <= k <= max, that set includes x.length().  Beyond
+   ** the lower bound only non-empty members of L(r) can add positions, so
+   ** the sets grow by at least one position per round or the search ends.
+   */
+   @Override
+   public boolean isMember(String x, RegExprMatchContext ctx) {
+      ctx.step();
+      final int n = x.length();
+      if (min == 0  &&  n == 0) { return true; }
+      Memo memo = new Memo(n);
+      boolean[] reach = new boolean[n + 1];
+      boolean[] seen = new boolean[n + 1];   // union of reach for k >= min
+      reach[0] = true;
+      for (int k = 1; max == UNBOUNDED || k <= max; k++) {
+         boolean[] next = new boolean[n + 1];
+         for (int i = 0; i <= n; i++) {
+            if (!reach[i]) { continue; }
+            for (int j = (k <= min ? i : i + 1); j <= n; j++) {
+               if (!next[j] && memberAt(x, i, j, memo, ctx)) {
+                  next[j] = true;
+               }
+            }
+         }
+         if (k >= min) {
+            if (next[n]) { return true; }
+            boolean grew = false;
+            for (int j = 0; j <= n; j++) {
+               if (next[j] && !seen[j]) { seen[j] = true; grew = true; }
+            }
+            if (!grew) { return false; }
+         }
+         else if (java.util.Arrays.equals(reach, next)) {
+            // A fixed point below the lower bound: further rounds up to
+            // min would reproduce it, so skip ahead.
+            k = min - 1;
+         }
+         reach = next;
+      }
+      return false;
+   }
+
+   @Override
+   public boolean isFinite() {
+      if (isEmpty() || max == 0) { return true; }   // r{0} is {lambda}
+      if (max == UNBOUNDED) {
+         return r.isEmpty() || (r.isFinite() && r.maxLength() == 0);
+      }
+      return r.isFinite();
+   }
+
+   @Override
+   public boolean isEmpty() { return min > 0 && r.isEmpty(); }
+
+   @Override
+   public int minLength() {
+      if (isEmpty()) { return -1; }
+      return min == 0 ? 0 : multiplyLength(min, r.minLength());
+   }
+
+   @Override
+   public int maxLength() {
+      if (isEmpty()) { return -1; }
+      if (r.isEmpty() || max == UNBOUNDED || max == 0) {
+         return 0;                                       // finite: {lambda}
+      }
+      return multiplyLength(max, r.maxLength());
+   }
+
+   @Override
+   public String randomMember(Random rand) {
+      final int MAX_EXTRA_REPETITIONS = 6;
+      if (r.isEmpty()) { return ""; }
+      int upper = max == UNBOUNDED ? min + MAX_EXTRA_REPETITIONS : max;
+      int k = min + rand.nextInt(upper - min + 1);
+      StringBuilder result = new StringBuilder();
+      for (int i = 0; i != k; i++) {
+         result.append(r.randomMember(rand));
+      }
+      return result.toString();
+   }
+
+   @Override
+   public String toString() {
+      String rImage = r.toString();
+      if (rImage.length() > 1) { 
+         rImage = '(' + rImage + ')';
+      }
+      StringBuilder b = new StringBuilder(rImage);
+      b.append(RegExprSymbols.LEFT_BRACE).append(min);
+      if (max != min) {
+         b.append(RegExprSymbols.BOUNDS_SEPARATOR);
+         if (max != UNBOUNDED) { b.append(max); }
+      }
+      return b.append(RegExprSymbols.RIGHT_BRACE).toString();
+   }
+
+   /* Two regular expressions are equal if they have the same structure
+   ** (not merely the same language).
+   */
+   @Override
+   public boolean equals(Object o) {
+      if (o == this) { return true; }
+      if (!(o instanceof RegExprRepeat)) { return false; }
+      RegExprRepeat other = (RegExprRepeat)o;
+      return hash == other.hash && min == other.min && max == other.max &&
+             r.equals(other.r);
+   }
+
+   @Override
+   public int hashCode() { return hash; }
+
+   @Override
+   public RegularExpression reverse() {
+      return new RegExprRepeat(r.reverse(), min, max);
+   }
+
+   /* Compiles r{n,m} by unrolling it, if the bounds are small, and
+   ** otherwise as one copy of r in a loop controlled by a counter; see
+   ** RegExprNfa.Builder.compileRepeat().  Unrolled copies of r after the
+   ** first are spliced from the compile cache when there is one.
+   */
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) {
+      return nfa.compileRepeat(min, max, t -> nfa.compile(r, t), next);
+   }
+
+   // private
+   // -------
+
+   private boolean memberAt(String x, int i, int j, Memo memo,
+                            RegExprMatchContext ctx) {
+      long key = (long)i * (x.length() + 1) + j;
+      int known = memo.get(key);
+      if (known != Memo.UNKNOWN) { return known == Memo.MEMBER; }
+      boolean member = r.isMember(x.substring(i, j), ctx);
+      memo.put(key, member);
+      return member;
+   }
+
+   /* The results of the tests x[i..j) in L(r) of one call of isMember(),
+   ** keyed by i * (|x| + 1) + j.  The table is direct-mapped into at most
+   ** MAX_MEMO_SLOTS slots, a result displacing any other in its slot, so
+   ** that a long x costs repeated tests rather than quadratic memory.
+   */
+   private static final class Memo {
+      static final int UNKNOWN = 0, MEMBER = 1, NOT_MEMBER = 2;
+
+      private final long[] keys;      // 1 + the key in each slot, or 0
+      private final boolean[] members;
+      private final int mask;
+
+      Memo(int n) {
+         long cells = (long)(n + 1) * (n + 1);
+         int size = Integer.highestOneBit(
+                       (int)Math.min(cells, MAX_MEMO_SLOTS) * 2 - 1);
+         keys = new long[size];
+         members = new boolean[size];
+         mask = size - 1;
+      }
+
+      int get(long key) {
+         int slot = (int)key & mask;
+         if (keys[slot] != key + 1) { return UNKNOWN; }
+         return members[slot] ? MEMBER : NOT_MEMBER;
+      }
+
+      void put(long key, boolean member) {
+         int slot = (int)key & mask;
+         keys[slot] = key + 1;
+         members[slot] = member;
+      }
+   }
+
+}
\ No newline at end of file
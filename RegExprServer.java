@@ -0,0 +1,291 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* RegExprServer.java
+** A server that keeps a store of named, compiled regular expressions
+** (RegExprPattern objects) and answers requests about them from any
+** number of local clients, so that the clients share one warm store
+** rather than each paying for JVM startup and compilation.  It listens
+** on 127.0.0.1 (TCP) or on a Unix-domain socket:
+**
+**    java RegExprApp -server [port]
+**    java RegExprApp -server unix:<socket path>
+**
+** The protocol is line-oriented; each request line gets exactly one
+** response line, and requests may be pipelined (responses are flushed
+** only when no further request is already waiting to be read).
+**
+**    REG <name> <regular expression>  ->  OK <image>  |  ERR ...
+**    DEL <name>                       ->  OK
+**    TEST <name> <string>             ->  YES  |  NO
+**    GEN <name> [seed]                ->  OK <random member>
+**    STATS <name> [on | off]          ->  OK <language and matching stats>
+**    LIST                             ->  OK <names>
+**    QUIT                             ->  BYE  (and the connection closes)
+**
+** Errors are reported as "ERR <message>".  Each connection is served by
+** its own (virtual, when the JVM supports them) thread.
+**
+** TEST runs a lazy DFA built from the pattern's NFA and shared by all the
+** connections (see RegExprLazyDfa).  Each pattern's stats, also published
+** through JMX, count the compile-cache lookups made by REG and, apart
+** from those, the transitions that TEST found in, or added to, the DFA's
+** table, and report the number of DFA states built.  The stats of TEST
+** are kept only once switched on, by STATS <name> on (or through JMX).
+*/
+public class RegExprServer {
+
+   public static final int DEFAULT_PORT = 2600;
+   private static final String UNIX_PREFIX = "unix:";
+   private static final int BUFFER_SIZE = 1 << 16;
+   private static final int MAX_DFA_STATES = 1 << 12;
+
+   /* A pattern in the store, together with the DFA that tests membership
+   ** in it and its matching statistics.
+   */
+   private static class Entry {
+      final RegExprPattern pattern;
+      final RegExprLazyDfa dfa;
+      final RegExprStats stats;
+
+      Entry(String name, RegExprPattern pattern) {
+         this.pattern = pattern;
+         this.dfa = new RegExprLazyDfa(pattern.nfa(), MAX_DFA_STATES);
+         this.stats = new RegExprStats(name, pattern.expression());
+         stats.recordCompileCacheHits(pattern.compileCacheHits());
+         stats.recordCompileCacheMisses(pattern.compileCacheMisses());
+         stats.recordDfaStates(dfa.numStates());
+      }
+   }
+
+   // instance variables
+   // ------------------
+
+   private final ConcurrentHashMap<String, Entry> store =
+      new ConcurrentHashMap<String, Entry>();
+   private final RegExprCompileCache cache = new RegExprCompileCache();
+
+   // main
+   // ----
+
+   public static void main(String[] args) throws IOException {
+      SocketAddress address;
+      if (args.length > 0  &&  args[0].startsWith(UNIX_PREFIX)) {
+         Path path = Path.of(args[0].substring(UNIX_PREFIX.length()));
+         Files.deleteIfExists(path);
+         address = UnixDomainSocketAddress.of(path);
+      }
+      else {
+         int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+         address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+      }
+      new RegExprServer().serve(address);
+   }
+
+   /* Accepts connections at the given address, forever, serving each one
+   ** on its own thread.
+   */
+   public void serve(SocketAddress address) throws IOException {
+      ServerSocketChannel server;
+      if (address instanceof UnixDomainSocketAddress) {
+         server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      }
+      else {
+         server = ServerSocketChannel.open();
+      }
+      ExecutorService executor = newPerConnectionExecutor();
+      try {
+         server.bind(address);
+         System.out.printf("Serving regular expressions at %s\n",
+                           server.getLocalAddress());
+         while (true) {
+            final SocketChannel client = server.accept();
+            executor.execute(() -> serveClient(client));
+         }
+      }
+      finally {
+         executor.shutdownNow();
+         server.close();
+         if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+         }
+      }
+   }
+
+   // private
+   // -------
+
+   /* Reads and answers requests from the given client until it sends
+   ** QUIT or closes the connection.
+   */
+   private void serveClient(SocketChannel client) {
+      Random rand = new Random();
+      try (SocketChannel ch = client;
+           BufferedReader in = new BufferedReader(
+              new InputStreamReader(Channels.newInputStream(ch),
+                                    StandardCharsets.UTF_8), BUFFER_SIZE);
+           BufferedWriter out = new BufferedWriter(
+              new OutputStreamWriter(Channels.newOutputStream(ch),
+                                     StandardCharsets.UTF_8), BUFFER_SIZE))
+      {
+         boolean keepGoing = true;
+         String line;
+         while (keepGoing  &&  (line = in.readLine()) != null) {
+            String response = respond(line, rand);
+            out.write(response);
+            out.newLine();
+            keepGoing = !response.equals("BYE");
+            if (!keepGoing || !in.ready()) { out.flush(); }
+         }
+      }
+      catch (IOException e) {
+         // The client went away; nothing more to do for it.
+      }
+   }
+
+   /* Returns the response to the given request line.
+   */
+   String respond(String line, Random rand) {
+      int sp = line.indexOf(' ');
+      String command = (sp == -1 ? line : line.substring(0, sp)).toUpperCase();
+      String rest = sp == -1 ? "" : line.substring(sp + 1);
+      int sp2 = rest.indexOf(' ');
+      String name = sp2 == -1 ? rest.trim() : rest.substring(0, sp2);
+      String arg = sp2 == -1 ? "" : rest.substring(sp2 + 1);
+
+      if (command.equals("QUIT")) { return "BYE"; }
+      else if (command.equals("LIST")) {
+         return "OK " + String.join(" ", new TreeSet<String>(store.keySet()));
+      }
+      else if (name.length() == 0) { return "ERR missing pattern name"; }
+      else if (command.equals("REG")) { return register(name, arg.trim()); }
+      else if (command.equals("DEL")) {
+         store.computeIfPresent(name, (k, old) -> {
+            old.stats.unregister();
+            return null;
+         });
+         return "OK";
+      }
+
+      Entry e = store.get(name);
+      if (command.equals("TEST") || command.equals("GEN") ||
+          command.equals("STATS"))
+      {
+         if (e == null) { return "ERR no such pattern " + name; }
+      }
+      if (command.equals("TEST")) {
+         if (!e.stats.isEnabled()) { return e.dfa.matches(arg) ? "YES" : "NO"; }
+         RegExprLazyDfa.Profile p = new RegExprLazyDfa.Profile();
+         long start = System.nanoTime();
+         boolean member = e.dfa.matches(arg, p);
+         e.stats.recordMatch(arg.length(), member, System.nanoTime() - start);
+         e.stats.recordDfaCacheHits(p.hits);
+         e.stats.recordDfaCacheMisses(p.misses);
+         e.stats.recordDfaStates(e.dfa.numStates());
+         return member ? "YES" : "NO";
+      }
+      else if (command.equals("GEN")) {
+         RegularExpression r = e.pattern.expression();
+         if (r.isEmpty()) { return "ERR language is empty"; }
+         Random rdm = rand;
+         if (arg.trim().length() != 0) {
+            try { rdm = new Random(Long.parseLong(arg.trim())); }
+            catch (NumberFormatException ex) { return "ERR bad seed"; }
+         }
+         return "OK " + r.randomMember(rdm);
+      }
+      else if (command.equals("STATS")) {
+         String onOff = arg.trim().toLowerCase();
+         if (onOff.equals("on") || onOff.equals("off")) {
+            e.stats.setEnabled(onOff.equals("on"));
+         }
+         else if (onOff.length() != 0) { return "ERR expected on or off"; }
+         return "OK " + describe(e);
+      }
+      else {
+         return "ERR unrecognized command " + command;
+      }
+   }
+
+   /* Compiles the given regular expression and stores it under the given
+   ** name, replacing any pattern already stored under that name.  The
+   ** swap in the store and the JMX registrations are made together under
+   ** the store's lock for the name, so that of racing REGs (and DELs) for
+   ** one name, the stats published are those of the entry that ends up
+   ** in the store.
+   */
+   private String register(String name, String rexprStr) {
+      if (rexprStr.length() == 0 || !RegExprBuilder.isValid(rexprStr)) {
+         return "ERR invalid syntax";
+      }
+      Entry fresh = new Entry(name, RegExprPattern.compile(
+                                       RegExprBuilder.parse(rexprStr), cache));
+      store.compute(name, (k, old) -> {
+         if (old != null) { old.stats.unregister(); }
+         try { fresh.stats.register(); }
+         catch (IllegalStateException ex) { /* the name is taken; JMX is optional */ }
+         return fresh;
+      });
+      return "OK " + fresh.pattern;
+   }
+
+   private static String describe(Entry e) {
+      RegularExpression r = e.pattern.expression();
+      RegExprStats.Snapshot s = e.stats.snapshot();
+      StringBuilder b = new StringBuilder();
+      b.append("image=").append(r);
+      if (r.isEmpty()) { b.append(" empty=true"); }
+      else {
+         b.append(" empty=false minLength=").append(r.minLength());
+         b.append(" finite=").append(r.isFinite());
+         if (r.isFinite()) { b.append(" maxLength=").append(r.maxLength()); }
+      }
+      b.append(" tests=").append(s.calls);
+      b.append(" members=").append(s.accepts);
+      b.append(" p99ns=").append(s.p99LatencyNanos);
+      b.append(" stats=").append(e.stats.isEnabled() ? "on" : "off");
+      b.append(String.format(" compileCacheHitRate=%.3f",
+                             s.compileCacheHitRate()));
+      b.append(String.format(" dfaCacheHitRate=%.3f", s.dfaCacheHitRate()));
+      b.append(" dfaStates=").append(s.dfaStates);
+      return b.toString();
+   }
+
+   /* Returns an executor that runs each task on a new virtual thread if
+   ** this JVM has them (Java 21 and later), and otherwise on a pooled
+   ** daemon platform thread.
+   */
+   private static ExecutorService newPerConnectionExecutor() {
+      try {
+         return (ExecutorService) Executors.class
+            .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }
+      catch (ReflectiveOperationException e) {
+         return Executors.newCachedThreadPool(task -> {
+            Thread t = new Thread(task, "RegExprServer-client");
+            t.setDaemon(true);
+            return t;
+         });
+      }
+   }
+
+}
\ No newline at end of file
@@ -0,0 +1,62 @@
+/* An instance of this class represents a set of ints drawn from the range
+** [0, capacity), supporting constant-time insertion, membership test, and
+** clearing, and iteration in insertion order (Briggs & Torczon).  It is
+** used by the automaton-based matchers to hold sets of NFA states.
+*/
+public class RegExprSparseSet {
+
+   // instance variables
+   // ------------------
+
+   private final int[] dense;    // dense[0..size) are the members, in order
+   private final int[] sparse;   // for each member m, dense[sparse[m]] == m
+   private int size;
+
+   // constructor
+   // -----------
+
+   /* Establishes this set to be empty, able to hold values in [0, capacity).
+   */
+   public RegExprSparseSet(int capacity) {
+      dense = new int[capacity];
+      sparse = new int[capacity];
+      size = 0;
+   }
+
+   // observers
+   // ---------
+
+   public int size() { return size; }
+
+   public boolean isEmpty() { return size == 0; }
+
+   public int capacity() { return dense.length; }
+
+   /* Returns the i-th member (in order of insertion).
+   ** pre: 0 <= i < size()
+   */
+   public int get(int i) { return dense[i]; }
+
+   public boolean contains(int m) {
+      int i = sparse[m];
+      return i < size && dense[i] == m;
+   }
+
+   // mutators
+   // --------
+
+   /* Inserts m into this set, if it is not already a member, and reports
+   ** whether it was inserted.
+   ** pre: 0 <= m < capacity()
+   */
+   public boolean add(int m) {
+      if (contains(m)) { return false; }
+      dense[size] = m;
+      sparse[m] = size;
+      size = size + 1;
+      return true;
+   }
+
+   public void clear() { size = 0; }
+
+}
\ No newline at end of file
@@ -12,6 +12,7 @@ public class RegExprStar extends RegularExpression {
    // -----------------
 
    private RegularExpression r;
+   private final int hash;
 
    // constructor
    // -----------
@@ -21,12 +22,17 @@ public class RegExprStar extends RegularExpression {
    */
    public RegExprStar(RegularExpression regExpr) { 
       r = regExpr;
+      hash = 31 * RegExprStar.class.hashCode() + regExpr.hashCode();
    }
 
 
    // observer
    // --------
 
+   /* Returns r, the operand.
+   */
+   RegularExpression body() { return r; }
+
    /* Reports whether or not the given string is a member of the language
    ** represented by this regular expression.
    ** A string x is in the language of regular expression r^* iff x is the
@@ -34,55 +40,42 @@ public class RegExprStar extends RegularExpression {
    ** y is a member of L(r), and z is a member of L(r^*).
    */
    @Override
-   public boolean isMember(String x) {
-      String partial = "";
-      String lookAhead = "";
+   public boolean isMember(String x, RegExprMatchContext ctx) {
+      boolean member = x.length() == 0;
       
-      if(r.isMember(x) || x.equals("N") || x.equals("")){
-         return true;
-      }
-      else{
-         for(int i = 1; i <= x.length()-1; i++){
-            partial = x.substring(0, i);
-            lookAhead = x.substring(0, i+1);
-            
-            
-            if(r.isMember(partial) && !r.isMember(lookAhead)){
-               if(i == x.length()-1){
-                  return true;
-               }
-               else{
-                  return r.isMember(x.substring(i));
-               }
-            }
+      ctx.step();
+      for(int i = 1; !member && i <= x.length(); i++){
+         if(r.isMember(x.substring(0, i), ctx) && 
+            isMember(x.substring(i), ctx)){
+            member = true;
          }
-         return false;
       }
+      return member;
    }
 
+   /* L(r*) is finite iff L(r) has no member other than the empty string,
+   ** in which case L(r*) = { lambda }.
+   */
    @Override
    public boolean isFinite() { 
-      return false;
+      return r.isEmpty() || (r.isFinite() && r.maxLength() == 0);
    }
 
+   /* L(r*) always has the empty string as a member.
+   */
    @Override
    public boolean isEmpty() { 
-      return r.isEmpty();
+      return false;
    }
 
    @Override
    public int minLength() { 
-      if(r.isEmpty()){
-         return -1;
-      }
-      else{
-         return 0;
-      }
+      return 0;
    }
 
    @Override
    public int maxLength() {
-      return -1;
+      return isFinite() ? 0 : -1;
    }
 
    @Override
@@ -108,8 +101,29 @@ public class RegExprStar extends RegularExpression {
       return rImage + RegExprSymbols.STAR_OP;
    }
    
+   /* Two regular expressions are equal if they have the same structure
+   ** (not merely the same language).
+   */
+   @Override
+   public boolean equals(Object o) {
+      if (o == this) { return true; }
+      if (!(o instanceof RegExprStar)) { return false; }
+      RegExprStar other = (RegExprStar)o;
+      return hash == other.hash && r.equals(other.r);
+   }
+
+   @Override
+   public int hashCode() { return hash; }
+   
    @Override
    public RegularExpression reverse() {
       return new RegExprStar(r.reverse());
    }
+
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) {
+      int loop = nfa.addSplit(-1, next);
+      nfa.setOut1(loop, nfa.compile(r, loop));
+      return loop;
+   }
 }
\ No newline at end of file
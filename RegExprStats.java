@@ -0,0 +1,264 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/* An instance of this class accumulates matching statistics for one
+** regular expression: the number of membership tests, how many of them
+** accepted/rejected, the number of characters examined, a histogram of
+** their latencies, and (as reported by whatever engine is in use) the
+** number of DFA states built and the hits and misses of two unrelated
+** caches: the compile cache (RegExprCompileCache) when the expression
+** was compiled, and the DFA's table of transitions when it was tested.
+**
+** Statistics are off until setEnabled(true) (e.g., through JMX): the
+** engines then skip the timing and counting per membership test.
+** All recording methods are lock-free and may be called concurrently.
+** The statistics can be read through snapshot() or, once register() has
+** been called, through JMX under the name
+**    RegExpr:type=Stats,name=<name>
+*/
+public class RegExprStats implements RegExprStatsMBean {
+
+   public static final String JMX_DOMAIN = "RegExpr";
+
+   // instance variables
+   // ------------------
+
+   private final String name;
+   private final String expression;
+   private volatile boolean enabled = false;
+   private volatile ObjectName objectName;
+
+   private final LongAdder calls = new LongAdder();
+   private final LongAdder accepts = new LongAdder();
+   private final LongAdder chars = new LongAdder();
+   private final LongAdder totalNanos = new LongAdder();
+   private final LongAdder compileCacheHits = new LongAdder();
+   private final LongAdder compileCacheMisses = new LongAdder();
+   private final LongAdder dfaCacheHits = new LongAdder();
+   private final LongAdder dfaCacheMisses = new LongAdder();
+   private final AtomicInteger dfaStates = new AtomicInteger();
+   private final RegExprLatencyHistogram latencies =
+      new RegExprLatencyHistogram();
+
+   // constructor
+   // -----------
+
+   /* Establishes this as an empty set of statistics for the regular
+   ** expression r, identified by the given name.
+   */
+   public RegExprStats(String name, RegularExpression r) {
+      this.name = name;
+      this.expression = r.toString();
+   }
+
+   // recording
+   // ---------
+
+   /* Records one membership test of a string of the given length that
+   ** took the given number of nanoseconds and had the given outcome.
+   */
+   public void recordMatch(int length, boolean accepted, long nanos) {
+      calls.increment();
+      if (accepted) { accepts.increment(); }
+      chars.add(length);
+      totalNanos.add(nanos);
+      latencies.record(nanos);
+   }
+
+   /* Records that compiling the expression found count fragments in the
+   ** compile cache.
+   */
+   public void recordCompileCacheHits(long count) { compileCacheHits.add(count); }
+
+   /* Records that compiling the expression had to compile count fragments
+   ** not in the compile cache.
+   */
+   public void recordCompileCacheMisses(long count) {
+      compileCacheMisses.add(count);
+   }
+
+   /* Records that a DFA found count transitions in its table.
+   */
+   public void recordDfaCacheHits(long count) { dfaCacheHits.add(count); }
+
+   /* Records that a DFA had to compute count transitions not in its table.
+   */
+   public void recordDfaCacheMisses(long count) { dfaCacheMisses.add(count); }
+
+   /* Records the number of DFA states that an engine has built so far.
+   */
+   public void recordDfaStates(int count) { dfaStates.set(count); }
+
+   // JMX registration
+   // ----------------
+
+   /* Registers this object with the platform MBean server.
+   */
+   public void register() {
+      try {
+         ObjectName on = new ObjectName(JMX_DOMAIN + ":type=Stats,name=" +
+                                        ObjectName.quote(name));
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         server.registerMBean(this, on);
+         objectName = on;
+      }
+      catch (JMException e) {
+         throw new IllegalStateException("Cannot register stats for " + name, e);
+      }
+   }
+
+   /* Unregisters this object from the platform MBean server, if it was
+   ** registered.
+   */
+   public void unregister() {
+      ObjectName on = objectName;
+      if (on != null) {
+         try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(on);
+         }
+         catch (JMException e) {
+            // already gone; nothing to do
+         }
+         objectName = null;
+      }
+   }
+
+   // observers (RegExprStatsMBean)
+   // -----------------------------
+
+   public String getName() { return name; }
+
+   public String getExpression() { return expression; }
+
+   public boolean isEnabled() { return enabled; }
+
+   public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+   public long getCalls() { return calls.sum(); }
+
+   public long getAccepts() { return accepts.sum(); }
+
+   public long getRejects() { return calls.sum() - accepts.sum(); }
+
+   public long getCharsProcessed() { return chars.sum(); }
+
+   public double getMeanLatencyNanos() {
+      long n = calls.sum();
+      return n == 0 ? 0.0 : (double) totalNanos.sum() / n;
+   }
+
+   public long getP50LatencyNanos() { return latencies.valueAtFraction(0.5); }
+
+   public long getP99LatencyNanos() { return latencies.valueAtFraction(0.99); }
+
+   public long getP999LatencyNanos() {
+      return latencies.valueAtFraction(0.999);
+   }
+
+   public long getMaxLatencyNanos() { return latencies.maxValue(); }
+
+   public long getCompileCacheHits() { return compileCacheHits.sum(); }
+
+   public long getCompileCacheMisses() { return compileCacheMisses.sum(); }
+
+   public double getCompileCacheHitRate() {
+      return hitRate(compileCacheHits.sum(), compileCacheMisses.sum());
+   }
+
+   public long getDfaCacheHits() { return dfaCacheHits.sum(); }
+
+   public long getDfaCacheMisses() { return dfaCacheMisses.sum(); }
+
+   public double getDfaCacheHitRate() {
+      return hitRate(dfaCacheHits.sum(), dfaCacheMisses.sum());
+   }
+
+   public int getDfaStates() { return dfaStates.get(); }
+
+   /* dfaStates is not zeroed: it is not a count of events but the size of
+   ** the DFA, which a reset leaves as it is.
+   */
+   public void reset() {
+      calls.reset();
+      accepts.reset();
+      chars.reset();
+      totalNanos.reset();
+      compileCacheHits.reset();
+      compileCacheMisses.reset();
+      dfaCacheHits.reset();
+      dfaCacheMisses.reset();
+      latencies.clear();
+   }
+
+   private static double hitRate(long hits, long misses) {
+      long total = hits + misses;
+      return total == 0 ? 0.0 : (double) hits / total;
+   }
+
+   /* Returns an immutable copy of the current values of these statistics.
+   */
+   public Snapshot snapshot() { return new Snapshot(this); }
+
+   @Override
+   public String toString() { return snapshot().toString(); }
+
+
+   /* An immutable point-in-time copy of a RegExprStats.
+   */
+   public static class Snapshot {
+
+      public final String name;
+      public final long calls, accepts, rejects, charsProcessed;
+      public final double meanLatencyNanos;
+      public final long p50LatencyNanos, p99LatencyNanos, p999LatencyNanos;
+      public final long maxLatencyNanos;
+      public final long compileCacheHits, compileCacheMisses;
+      public final long dfaCacheHits, dfaCacheMisses;
+      public final int dfaStates;
+
+      private Snapshot(RegExprStats s) {
+         name = s.name;
+         calls = s.getCalls();
+         accepts = s.getAccepts();
+         rejects = calls - accepts;
+         charsProcessed = s.getCharsProcessed();
+         meanLatencyNanos = s.getMeanLatencyNanos();
+         p50LatencyNanos = s.getP50LatencyNanos();
+         p99LatencyNanos = s.getP99LatencyNanos();
+         p999LatencyNanos = s.getP999LatencyNanos();
+         maxLatencyNanos = s.getMaxLatencyNanos();
+         compileCacheHits = s.getCompileCacheHits();
+         compileCacheMisses = s.getCompileCacheMisses();
+         dfaCacheHits = s.getDfaCacheHits();
+         dfaCacheMisses = s.getDfaCacheMisses();
+         dfaStates = s.getDfaStates();
+      }
+
+      public double compileCacheHitRate() {
+         return hitRate(compileCacheHits, compileCacheMisses);
+      }
+
+      public double dfaCacheHitRate() {
+         return hitRate(dfaCacheHits, dfaCacheMisses);
+      }
+
+      @Override
+      public String toString() {
+         return String.format(
+            "%s: calls=%d accepts=%d rejects=%d chars=%d " +
+            "latency(ns) mean=%.1f p50=%d p99=%d p99.9=%d max=%d " +
+            "compile cache hits=%d misses=%d " +
+            "dfa cache hits=%d misses=%d dfaStates=%d",
+            name, calls, accepts, rejects, charsProcessed,
+            meanLatencyNanos, p50LatencyNanos, p99LatencyNanos,
+            p999LatencyNanos, maxLatencyNanos,
+            compileCacheHits, compileCacheMisses,
+            dfaCacheHits, dfaCacheMisses, dfaStates);
+      }
+   }
+
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+/* The JMX management interface of RegExprStats.  Each registered instance
+** describes the matching activity of one (instrumented) regular expression.
+** Latencies are in nanoseconds.
+*/
+public interface RegExprStatsMBean {
+
+   String getName();
+
+   String getExpression();
+
+   boolean isEnabled();
+
+   void setEnabled(boolean enabled);
+
+   long getCalls();
+
+   long getAccepts();
+
+   long getRejects();
+
+   long getCharsProcessed();
+
+   double getMeanLatencyNanos();
+
+   long getP50LatencyNanos();
+
+   long getP99LatencyNanos();
+
+   long getP999LatencyNanos();
+
+   long getMaxLatencyNanos();
+
+   long getCompileCacheHits();
+
+   long getCompileCacheMisses();
+
+   double getCompileCacheHitRate();
+
+   long getDfaCacheHits();
+
+   long getDfaCacheMisses();
+
+   double getDfaCacheHitRate();
+
+   int getDfaStates();
+
+   /* Zeroes all of the counters and the latency histogram (but not
+   ** getDfaStates(), the size of the DFA).
+   */
+   void reset();
+
+}
\ No newline at end of file
@@ -8,5 +8,15 @@ public class RegExprSymbols {
    public static final char RIGHT_PAREN = ')';
    public static final char LAMBDA = 'L';
    public static final char NULL_SET = 'N';
+   public static final char LEFT_BRACE = '{';      // r{n}, r{n,}, r{n,m}
+   public static final char RIGHT_BRACE = '}';
+   public static final char BOUNDS_SEPARATOR = ',';
+   public static final char LEFT_BRACKET = '[';    // [a-z], [^0-9]
+   public static final char RIGHT_BRACKET = ']';
+   public static final char CLASS_NEGATION = '^';  // only first in a class
+   public static final char CLASS_RANGE = '-';     // only within a class
+   public static final char ANY_CHAR = '~';
+   public static final char CAPTURE_OPEN = '<';    // <r> is capturing group
+   public static final char CAPTURE_CLOSE = '>';
 
 }
\ No newline at end of file
@@ -2,28 +2,67 @@ import java.util.Iterator;
 
 /* An instance of this class finds successive tokens in a
 ** regular expression supplied to the constructor.
+**
+** Characters are classified by a lookup table (KIND_OF) rather than by
+** searching a string of operator symbols.  Clients that process many
+** expressions (e.g., RegExprBuilder) should use the static tokenize()
+** method, which produces the whole token sequence as a primitive int[]
+** stream of (kind, start, end) triples without creating any substrings.
 */
 public class RegExprTokenizer implements Iterator<String> {
 
-   private static final String OPERATORS =
-      "" + RegExprSymbols.UNION_OP + RegExprSymbols.CONCAT_OP +
-           RegExprSymbols.STAR_OP + RegExprSymbols.LEFT_PAREN +
-           RegExprSymbols.RIGHT_PAREN;
-
-   private static final String NON_LETTERS = 
-      OPERATORS + RegExprSymbols.LAMBDA + RegExprSymbols.NULL_SET;
-
-/*
-   private static final int NO_MORE_TOKENS_CODE = -1;
-   private static final int UNION_CODE = NON_LETTERS.indexOf(UNION_OPERATOR);
-   private static final int CONCAT_CODE = NON_LETTERS.indexOf(CONCAT_OPERATOR);
-   private static final int STAR_CODE = NON_LETTERS.indexOf(STAR_OPERATOR);
-   private static final int LEFT_PAREN_CODE = NON_LETTERS.indexOf(LEFT_PAREN);
-   private static final int RIGHT_PAREN_CODE = NON_LETTERS.indexOf(RIGHT_PAREN);
-   private static final int LAMBDA_CODE = NON_LETTERS.indexOf(LAMBDA);
-   private static final int NULL_SET_CODE = NON_LETTERS.indexOf(NULL_SET);
-   private static final int WORD_CODE = -2;
-*/
+   // token kinds
+   // -----------
+
+   public static final int END_CODE = -1;     // terminates a token stream
+   public static final int WORD_CODE = 0;
+   public static final int UNION_CODE = 1;
+   public static final int CONCAT_CODE = 2;
+   public static final int STAR_CODE = 3;
+   public static final int LEFT_PAREN_CODE = 4;
+   public static final int RIGHT_PAREN_CODE = 5;
+   public static final int LAMBDA_CODE = 6;
+   public static final int NULL_SET_CODE = 7;
+   public static final int REPEAT_CODE = 8;   // a whole "{...}" suffix
+   public static final int INVALID_CODE = 9;  // a stray '}' or ']'
+   public static final int CLASS_CODE = 10;   // a whole "[...]" class
+   public static final int ANY_CODE = 11;
+   public static final int CAPTURE_OPEN_CODE = 12;
+   public static final int CAPTURE_CLOSE_CODE = 13;
+
+   /* Number of ints occupied by each token in a token stream:
+   ** its kind, its starting position, and the position following its end.
+   */
+   public static final int TOKEN_WIDTH = 3;
+
+   private static final int WHITESPACE_CODE = -2;
+
+   /* KIND_OF[c] is the kind of the one-char token c (or WORD_CODE if c is
+   ** a letter, or WHITESPACE_CODE if c is whitespace), for each c < 128.
+   ** Characters beyond ASCII are letters unless they are whitespace.
+   */
+   private static final byte[] KIND_OF = new byte[128];
+
+   static {
+      for (int c = 0; c != KIND_OF.length; c++) {
+         KIND_OF[c] = (byte)(Character.isWhitespace(c) ? WHITESPACE_CODE
+                                                       : WORD_CODE);
+      }
+      KIND_OF[RegExprSymbols.UNION_OP] = UNION_CODE;
+      KIND_OF[RegExprSymbols.CONCAT_OP] = CONCAT_CODE;
+      KIND_OF[RegExprSymbols.STAR_OP] = STAR_CODE;
+      KIND_OF[RegExprSymbols.LEFT_PAREN] = LEFT_PAREN_CODE;
+      KIND_OF[RegExprSymbols.RIGHT_PAREN] = RIGHT_PAREN_CODE;
+      KIND_OF[RegExprSymbols.LAMBDA] = LAMBDA_CODE;
+      KIND_OF[RegExprSymbols.NULL_SET] = NULL_SET_CODE;
+      KIND_OF[RegExprSymbols.LEFT_BRACE] = REPEAT_CODE;
+      KIND_OF[RegExprSymbols.RIGHT_BRACE] = INVALID_CODE;
+      KIND_OF[RegExprSymbols.LEFT_BRACKET] = CLASS_CODE;
+      KIND_OF[RegExprSymbols.RIGHT_BRACKET] = INVALID_CODE;
+      KIND_OF[RegExprSymbols.ANY_CHAR] = ANY_CODE;
+      KIND_OF[RegExprSymbols.CAPTURE_OPEN] = CAPTURE_OPEN_CODE;
+      KIND_OF[RegExprSymbols.CAPTURE_CLOSE] = CAPTURE_CLOSE_CODE;
+   }
 
    // instance variables
    // ------------------
@@ -36,13 +75,90 @@ public class RegExprTokenizer implements Iterator<String> {
    // constructor
    // -----------
 
-   public RegExprTokenizer(String s) { 
+   public RegExprTokenizer(String s) {
       rexpr = s;
-      N = rexpr.length();   
+      N = rexpr.length();
       end = 0;
       findNextToken();
    }
 
+   // bulk tokenization
+   // -----------------
+
+   /* Returns the tokens of the given regular expression as a stream of
+   ** (kind, start, end) triples, TOKEN_WIDTH ints per token, the last of
+   ** which has kind END_CODE (and start = end = s.length()).
+   ** A repetition suffix is one token, from its '{' through its '}' (or
+   ** to the end of s, if there is no '}'), and so is a character class,
+   ** from its '[' through its ']' (see endOfClass()).
+   */
+   public static int[] tokenize(CharSequence s) {
+      final int n = s.length();
+      // Every token consumes at least one char, so this is always enough.
+      int[] stream = new int[TOKEN_WIDTH * (n + 1)];
+      int k = 0;
+      int i = 0;
+      while (i != n) {
+         int kind = kindOf(s.charAt(i));
+         if (kind == WHITESPACE_CODE) { i++; }
+         else {
+            int j = i + 1;
+            if (kind == WORD_CODE) {
+               while (j != n  &&  kindOf(s.charAt(j)) == WORD_CODE) { j++; }
+            }
+            else if (kind == REPEAT_CODE) {
+               j = endOfRepeat(s, j);
+            }
+            else if (kind == CLASS_CODE) {
+               j = endOfClass(s, j);
+            }
+            stream[k] = kind;
+            stream[k+1] = i;
+            stream[k+2] = j;
+            k = k + TOKEN_WIDTH;
+            i = j;
+         }
+      }
+      stream[k] = END_CODE;
+      stream[k+1] = n;
+      stream[k+2] = n;
+      return stream;
+   }
+
+   /* Returns the position following the '}' that closes the repetition
+   ** suffix whose contents begin at position j of s (or s.length(), if
+   ** there is no such '}').
+   */
+   static int endOfRepeat(CharSequence s, int j) {
+      final int n = s.length();
+      while (j != n  &&  s.charAt(j) != RegExprSymbols.RIGHT_BRACE) { j++; }
+      return j == n ? n : j + 1;
+   }
+
+   /* Returns the position following the ']' that closes the character
+   ** class whose contents begin at position j of s (or s.length(), if
+   ** there is no such ']').  A ']' that comes first in the class (after
+   ** the '^' of a negated class) stands for itself, as in "[]a]".
+   ** Within a class no character is special except ']' and, in some
+   ** positions, '^' and '-' (see RegExprBuilder.parseClass()).
+   */
+   static int endOfClass(CharSequence s, int j) {
+      final int n = s.length();
+      if (j != n  &&  s.charAt(j) == RegExprSymbols.CLASS_NEGATION) { j++; }
+      if (j != n  &&  s.charAt(j) == RegExprSymbols.RIGHT_BRACKET) { j++; }
+      while (j != n  &&  s.charAt(j) != RegExprSymbols.RIGHT_BRACKET) { j++; }
+      return j == n ? n : j + 1;
+   }
+
+   /* Returns the kind of token that begins with the given character,
+   ** or WHITESPACE_CODE if it is whitespace.
+   */
+   static int kindOf(char c) {
+      if (c < KIND_OF.length) { return KIND_OF[c]; }
+      else if (Character.isWhitespace(c)) { return WHITESPACE_CODE; }
+      else { return WORD_CODE; }
+   }
+
    // observers
    // ---------
 
@@ -62,79 +178,93 @@ public class RegExprTokenizer implements Iterator<String> {
    */
    public int nextEnd() { return end; }
 
+   /* Returns the kind (one of the ..._CODE constants) of the next token,
+   ** or END_CODE in the case !hasNext().
+   */
+   public int nextKind() { return nextTokenCode; }
+
 
    /* Reports whether the next token is a regular expression operator.
    ** pre: hasNext()
    */
    public boolean hasNextOperator() {
-      return start + 1 == end &&
-             OPERATORS.indexOf(rexpr.charAt(start)) != -1;
+      return nextTokenCode == UNION_CODE || nextTokenCode == CONCAT_CODE ||
+             nextTokenCode == STAR_CODE || nextTokenCode == LEFT_PAREN_CODE ||
+             nextTokenCode == RIGHT_PAREN_CODE || nextTokenCode == REPEAT_CODE ||
+             nextTokenCode == CAPTURE_OPEN_CODE ||
+             nextTokenCode == CAPTURE_CLOSE_CODE;
    }
 
    /* Reports whether the next token is the union operator.
    ** pre: hasNext()
    */
-   public boolean hasNextUnionOp() { 
-      return start + 1 == end  &&  
-             RegExprSymbols.UNION_OP == rexpr.charAt(start);
-   }  
+   public boolean hasNextUnionOp() { return nextTokenCode == UNION_CODE; }
 
    /* Reports whether the next token is the concatenation operator.
    ** pre: hasNext()
    */
-   public boolean hasNextConcatOp() {
-      return start + 1 == end  &&  
-             RegExprSymbols.CONCAT_OP == rexpr.charAt(start);
-   }
+   public boolean hasNextConcatOp() { return nextTokenCode == CONCAT_CODE; }
 
    /* Reports whether the next token is the Kleene/star operator.
    ** pre: hasNext()
    */
-   public boolean hasNextStarOp() {
-      return start + 1 == end  &&  
-             RegExprSymbols.STAR_OP == rexpr.charAt(start);
-   }
+   public boolean hasNextStarOp() { return nextTokenCode == STAR_CODE; }
 
    /* Reports whether the next token is a left parenthesis.
    ** pre: hasNext()
    */
-   public boolean hasNextLeftParen() {
-      return start + 1 == end  &&  
-             RegExprSymbols.LEFT_PAREN == rexpr.charAt(start);
-   }
+   public boolean hasNextLeftParen() { return nextTokenCode == LEFT_PAREN_CODE; }
 
    /* Reports whether the next token is a right parenthesis.
    ** pre: hasNext()
    */
    public boolean hasNextRightParen() {
-      return start + 1 == end  &&  
-             RegExprSymbols.RIGHT_PAREN == rexpr.charAt(start);
+      return nextTokenCode == RIGHT_PAREN_CODE;
    }
 
    /* Reports whether the next token is the symbol representing
    ** the null/empty set.
    ** pre: hasNext()
    */
-   public boolean hasNextNullSet() {
-      return start + 1 == end  &&  
-             RegExprSymbols.NULL_SET == rexpr.charAt(start);
-   }
+   public boolean hasNextNullSet() { return nextTokenCode == NULL_SET_CODE; }
 
    /* Reports whether the next token is the symbol representing the
    ** empty string (commonly represented by the Greek letter lambda).
    ** pre: hasNext()
    */
-   public boolean hasNextLambda() {
-      return start + 1 == end  &&  
-             RegExprSymbols.LAMBDA == rexpr.charAt(start);
-   }
+   public boolean hasNextLambda() { return nextTokenCode == LAMBDA_CODE; }
 
    /* Reports whether the next token is a sequence of (one or more) letters.
    ** (e.g., "b", "abbab") (in which the concatenation operators are implicit).
    ** pre: hasNext()
    */
-   public boolean hasNextWord() { 
-      return NON_LETTERS.indexOf(rexpr.charAt(start)) == -1;
+   public boolean hasNextWord() { return nextTokenCode == WORD_CODE; }
+
+   /* Reports whether the next token is a repetition suffix (e.g., "{2,5}").
+   ** pre: hasNext()
+   */
+   public boolean hasNextRepeatOp() { return nextTokenCode == REPEAT_CODE; }
+
+   /* Reports whether the next token opens a capturing group.
+   ** pre: hasNext()
+   */
+   public boolean hasNextCaptureOpen() {
+      return nextTokenCode == CAPTURE_OPEN_CODE;
+   }
+
+   /* Reports whether the next token closes a capturing group.
+   ** pre: hasNext()
+   */
+   public boolean hasNextCaptureClose() {
+      return nextTokenCode == CAPTURE_CLOSE_CODE;
+   }
+
+   /* Reports whether the next token is a character class (e.g., "[a-z]") or
+   ** the any-char wildcard.
+   ** pre: hasNext()
+   */
+   public boolean hasNextCharClass() {
+      return nextTokenCode == CLASS_CODE || nextTokenCode == ANY_CODE;
    }
 
    // observer/mutator
@@ -156,23 +286,21 @@ public class RegExprTokenizer implements Iterator<String> {
       start = end;
       advancePastWhiteSpace();
       end = start;
-      if (start == N) {  
-         // there are no more tokens; do nothing
+      if (start == N) {
+         nextTokenCode = END_CODE;
       }
       else {
-         char chAtStart = rexpr.charAt(start);
-         //System.out.printf("chAtStart is $%c$;", chAtStart);
-         nextTokenCode = NON_LETTERS.indexOf(chAtStart);
-         //System.out.println("nextTokenCode is %d.", chAtStart);
-         
-         if (nextTokenCode != -1) { // We have a one-char token
-            end = start + 1;
-         }
-         else {   // We have a word; find the end of it
-            end = start + 1;
+         nextTokenCode = kindOf(rexpr.charAt(start));
+         end = start + 1;
+         if (nextTokenCode == WORD_CODE) {
             advanceToEndOfWord();  // advance 'end' to end of current word
          }
-         //System.out.println("Next token is " + rexpr.substring(start,end));
+         else if (nextTokenCode == REPEAT_CODE) {
+            end = endOfRepeat(rexpr, end);
+         }
+         else if (nextTokenCode == CLASS_CODE) {
+            end = endOfClass(rexpr, end);
+         }
       }
    }
 
@@ -183,25 +311,8 @@ public class RegExprTokenizer implements Iterator<String> {
    ** character that is whitespace or a one-char token symbol.
    */
    private void advanceToEndOfWord() {
-      boolean keepGoing = true;
-      while (keepGoing) {
-         if (end == N) { keepGoing = false; }
-         else {
-            char ch = rexpr.charAt(end);
-            //System.out.printf("Processing character $%c$;", ch);
-            if (Character.isWhitespace(ch)) { 
-               //System.out.println("It is a whitespace char.");
-               keepGoing = false;
-            }
-            else if (isNonLetter(ch)) { 
-               //System.out.println("It is a non-letter token.");
-               keepGoing = false; 
-            }
-            else { 
-               //System.out.println("It is a letter.");
-               end = end + 1;
-            }
-         }
+      while (end != N  &&  kindOf(rexpr.charAt(end)) == WORD_CODE) {
+         end = end + 1;
       }
    }
 
@@ -210,13 +321,9 @@ public class RegExprTokenizer implements Iterator<String> {
    ** pre: 0 <= start < N
    */
    private void advancePastWhiteSpace() {
-      while (start != N  &&  Character.isWhitespace(rexpr.charAt(start))) {
+      while (start != N  &&  kindOf(rexpr.charAt(start)) == WHITESPACE_CODE) {
          start++;
       }
    }
 
-   private boolean isNonLetter(char c) {
-      return NON_LETTERS.indexOf(c) != -1;
-   }
-
 }
\ No newline at end of file
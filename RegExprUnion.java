@@ -15,6 +15,7 @@ public class RegExprUnion extends RegularExpression {
 
    private RegularExpression alpha, beta;  // This regular expression is 
                                            // alpha + beta
+   private final int hash;
 
    // constructor
    // -----------
@@ -26,63 +27,54 @@ public class RegExprUnion extends RegularExpression {
                        RegularExpression second) {
       alpha = first;
       beta = second;
+      hash = 31 * (31 * RegExprUnion.class.hashCode() + first.hashCode()) + 
+             second.hashCode();
    }
 
    // observer
    // --------
 
+   /* Returns alpha, the first operand.
+   */
+   RegularExpression first() { return alpha; }
+
+   /* Returns beta, the second operand.
+   */
+   RegularExpression second() { return beta; }
+
    /* Reports whether or not the given string is a member of the language
    ** represented by this regular expression.
    ** A string x is a member of L(alpha + beta) iff either x is a member of 
    ** L(alpha) or x is a member of L(beta).
    */
    @Override
-   public boolean isMember(String x) {
-      boolean member = false;
-      
-      if(alpha.isMember(x) || beta.isMember(x)){
-         member = true;
-      }
-      else if(x.equals("") || x.equals("N")){
-         member = true;
-      }
-     
-      return member;
+   public boolean isMember(String x, RegExprMatchContext ctx) {
+      ctx.step();
+      return alpha.isMember(x, ctx) || beta.isMember(x, ctx);
    }
 
+   /* L(alpha + beta) is finite iff both L(alpha) and L(beta) are.
+   ** (Scanning the image for a star operator is not enough now that
+   ** counted repetition r{n,} can also make a language infinite.)
+   */
    @Override
    public boolean isFinite() {
-      String newExpression = alpha.toString() + beta.toString();
-      boolean noStarFound = true;
-      
-      for(int i = 0; i < newExpression.length(); i++){
-         if(newExpression.charAt(i) == RegExprSymbols.STAR_OP){
-            noStarFound = false;
-         }
-      }
-      return noStarFound;
+      return alpha.isFinite() && beta.isFinite();
    }
 
    @Override
    public boolean isEmpty() {
-      String newExpression = alpha.toString() + beta.toString();
-      boolean empty = true;
-      
-      if(newExpression.length() > 0 || newExpression.equals("N") || newExpression.equals("NN")){
-         empty = false;
-      }
-      
-      return empty;
+      return alpha.isEmpty() && beta.isEmpty();
    }
 
    @Override
    public int minLength() {
       int length = 0;
       
-      if(alpha.toString().equals("N")){
+      if(alpha.isEmpty()){
          length = beta.minLength();
       }
-      else if(beta.toString().equals("N")){
+      else if(beta.isEmpty()){
          length = alpha.minLength();
       }
       else{
@@ -99,7 +91,7 @@ public class RegExprUnion extends RegularExpression {
 
    @Override
    public String randomMember(Random rand) {
-      if (rand.nextBoolean()) 
+      if (beta.isEmpty() || (!alpha.isEmpty() && rand.nextBoolean())) 
          { return alpha.randomMember(rand); }
       else
          { return beta.randomMember(rand); }
@@ -112,8 +104,30 @@ public class RegExprUnion extends RegularExpression {
              beta.toString() + ')';
    }
    
+   /* Two regular expressions are equal if they have the same structure
+   ** (not merely the same language).
+   */
+   @Override
+   public boolean equals(Object o) {
+      if (o == this) { return true; }
+      if (!(o instanceof RegExprUnion)) { return false; }
+      RegExprUnion other = (RegExprUnion)o;
+      return hash == other.hash && 
+             alpha.equals(other.alpha) && beta.equals(other.beta);
+   }
+
+   @Override
+   public int hashCode() { return hash; }
+   
    @Override
    public RegularExpression reverse() {
       return new RegExprUnion(alpha.reverse(), beta.reverse());
    }
+
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) {
+      int first = nfa.compile(alpha, next);
+      int second = nfa.compile(beta, next);
+      return nfa.addSplit(first, second);
+   }
 }
@@ -0,0 +1,321 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/* An instance of this class is a deterministic automaton over bytes that
+** accepts exactly the UTF-8 encodings of the strings accepted by a given
+** RegExprDfa.  It lets UTF-8 input (a byte[] or a ByteBuffer, heap or
+** direct) be matched where it lies, with no decoding into chars and no
+** copying.  Ill-formed UTF-8 (overlong forms, encoded surrogates, stray
+** continuation bytes, truncated sequences) is never accepted.
+**
+** Its states are those of the char DFA, with the same numbers (so DEAD is
+** DEAD, and the start state is the same), followed by "intermediate"
+** states that stand for a char DFA state together with the bytes read so
+** far of an incomplete multi-byte sequence.  Intermediate states are
+** built bottom up and identified by their rows, so that, e.g., all the
+** 3-byte sequences that lead to the same states share one state per
+** position however many lead bytes there are.  A code point outside the
+** BMP takes the char DFA through its surrogate pair.
+**
+** As in RegExprDfa, the transition table has one row per state, with a
+** column per byte class: bytes whose columns of the full 256-column table
+** are identical share a class.
+*/
+public class RegExprUtf8Dfa {
+
+   public static final int DEAD = RegExprDfa.DEAD;
+
+   private static final int CONTINUATIONS = 64;   // bytes 0x80..0xBF
+
+   // instance variables
+   // ------------------
+
+   private final int[] classOf;     // classOf[b & 0xFF] is the class of byte b
+   private final int numClasses;
+   private final int[] table;       // table[s * numClasses + k] = next state
+   private final boolean[] accepting;
+   private final int start;
+
+   // constructor
+   // -----------
+
+   private RegExprUtf8Dfa(int[] classOf, int numClasses, int[] table,
+                          boolean[] accepting, int start) {
+      this.classOf = classOf;
+      this.numClasses = numClasses;
+      this.table = table;
+      this.accepting = accepting;
+      this.start = start;
+   }
+
+   /* Returns the UTF-8 automaton equivalent to the given char DFA.
+   */
+   public static RegExprUtf8Dfa build(RegExprDfa dfa) {
+      return new Construction(dfa).run();
+   }
+
+   /* Returns the UTF-8 automaton for the given regular expression, or null
+   ** if its char DFA would have more than maxStates states.
+   */
+   public static RegExprUtf8Dfa build(RegularExpression r, int maxStates) {
+      RegExprDfa dfa = RegExprDfa.build(r, maxStates);
+      return dfa == null ? null : build(dfa);
+   }
+
+   // observers
+   // ---------
+
+   public int numStates() { return accepting.length; }
+
+   public int numClasses() { return numClasses; }
+
+   public int start() { return start; }
+
+   public boolean isAccepting(int s) { return accepting[s]; }
+
+   /* Returns the state reached from state s on byte b.
+   */
+   public int step(int s, byte b) {
+      return table[s * numClasses + classOf[b & 0xFF]];
+   }
+
+   /* Returns the state reached from state s on the bytes b[from..to).
+   */
+   public int run(int s, byte[] b, int from, int to) {
+      for (int i = from; i != to  &&  s != DEAD; i++) {
+         s = table[s * numClasses + classOf[b[i] & 0xFF]];
+      }
+      return s;
+   }
+
+   /* Reports whether the given bytes are the UTF-8 encoding of an accepted
+   ** string.
+   */
+   public boolean accepts(byte[] b) { return accepts(b, 0, b.length); }
+
+   /* Reports whether b[off..off+len) is the UTF-8 encoding of an accepted
+   ** string.
+   */
+   public boolean accepts(byte[] b, int off, int len) {
+      Objects.checkFromIndexSize(off, len, b.length);
+      return accepting[run(start, b, off, off + len)];
+   }
+
+   /* Reports whether the remaining bytes of the given buffer (from its
+   ** position to its limit) are the UTF-8 encoding of an accepted string.
+   ** The buffer's position is not changed.
+   */
+   public boolean accepts(ByteBuffer buf) {
+      return accepts(buf, buf.position(), buf.remaining());
+   }
+
+   /* Reports whether the bytes at indices [off..off+len) of the given
+   ** buffer are the UTF-8 encoding of an accepted string.  A heap buffer
+   ** is read through its backing array; a direct (or read-only) one by
+   ** absolute gets, which never move its position.
+   */
+   public boolean accepts(ByteBuffer buf, int off, int len) {
+      Objects.checkFromIndexSize(off, len, buf.limit());
+      if (buf.hasArray()) {
+         int base = buf.arrayOffset() + off;
+         return accepting[run(start, buf.array(), base, base + len)];
+      }
+      int s = start;
+      final int end = off + len;
+      for (int i = off; i != end  &&  s != DEAD; i++) {
+         s = table[s * numClasses + classOf[buf.get(i) & 0xFF]];
+      }
+      return accepting[s];
+   }
+
+
+   /* Builds the byte automaton.  Rows of the full 256-column table are
+   ** accumulated for the char DFA's states; the intermediate states' rows,
+   ** which are non-DEAD only on continuation bytes, are kept as 64-column
+   ** rows and interned, and a row that is entirely DEAD is not a state but
+   ** DEAD itself.
+   */
+   private static class Construction {
+
+      private final RegExprDfa dfa;
+      private final int n;                      // states of the char DFA
+      private final HashMap<Row, Integer> ids = new HashMap<Row, Integer>();
+      private final List<int[]> rows = new ArrayList<int[]>();
+      // the 4-byte leaf rows, by (state after the high surrogate, low bits)
+      private final HashMap<Long, Integer> leaves = new HashMap<Long, Integer>();
+
+      Construction(RegExprDfa dfa) {
+         this.dfa = dfa;
+         this.n = dfa.numStates();
+      }
+
+      RegExprUtf8Dfa run() {
+         int[][] full = new int[n][];
+         for (int d = 0; d != n; d++) {
+            full[d] = rowFor(d);
+         }
+         final int total = n + rows.size();
+
+         // byte classes: bytes with identical columns
+         int[] classOf = new int[256];
+         HashMap<Row, Integer> columns = new HashMap<Row, Integer>();
+         for (int b = 0; b != 256; b++) {
+            int[] column = new int[total];
+            for (int s = 0; s != n; s++) { column[s] = full[s][b]; }
+            if (b >= 0x80  &&  b < 0xC0) {
+               for (int i = 0; i != rows.size(); i++) {
+                  column[n + i] = rows.get(i)[b - 0x80];
+               }
+            }
+            Row key = new Row(column);
+            Integer k = columns.get(key);
+            if (k == null) {
+               k = columns.size();
+               columns.put(key, k);
+            }
+            classOf[b] = k;
+         }
+         final int numClasses = columns.size();
+
+         int[] table = new int[total * numClasses];
+         for (int b = 0; b != 256; b++) {
+            int k = classOf[b];
+            for (int s = 0; s != n; s++) {
+               table[s * numClasses + k] = full[s][b];
+            }
+            if (b >= 0x80  &&  b < 0xC0) {
+               for (int i = 0; i != rows.size(); i++) {
+                  table[(n + i) * numClasses + k] = rows.get(i)[b - 0x80];
+               }
+            }
+         }
+         boolean[] accepting = new boolean[total];
+         for (int d = 0; d != n; d++) { accepting[d] = dfa.isAccepting(d); }
+         return new RegExprUtf8Dfa(classOf, numClasses, table, accepting,
+                                   dfa.start());
+      }
+
+      /* Returns the 256-column row of char DFA state d.
+      */
+      private int[] rowFor(int d) {
+         int[] row = new int[256];
+         if (d == DEAD) { return row; }
+         for (int b = 0; b != 0x80; b++) {
+            row[b] = dfa.step(d, (char)b);
+         }
+         // 2-byte sequences: C2..DF, then one continuation
+         for (int lead = 0xC2; lead <= 0xDF; lead++) {
+            row[lead] = block(d, (lead & 0x1F) << 6);
+         }
+         // 3-byte sequences: E0..EF, excluding overlong forms and surrogates
+         for (int lead = 0xE0; lead <= 0xEF; lead++) {
+            int[] second = new int[CONTINUATIONS];
+            int lo = lead == 0xE0 ? 0x20 : 0;
+            int hi = lead == 0xED ? 0x1F : 0x3F;
+            for (int c2 = lo; c2 <= hi; c2++) {
+               second[c2] = block(d, ((lead & 0x0F) << 12) | (c2 << 6));
+            }
+            row[lead] = intern(second);
+         }
+         // 4-byte sequences: F0..F4, excluding overlong forms and code
+         // points beyond U+10FFFF; each is a surrogate pair for the DFA
+         for (int lead = 0xF0; lead <= 0xF4; lead++) {
+            int[] second = new int[CONTINUATIONS];
+            int lo = lead == 0xF0 ? 0x10 : 0;
+            int hi = lead == 0xF4 ? 0x0F : 0x3F;
+            for (int c2 = lo; c2 <= hi; c2++) {
+               int[] third = new int[CONTINUATIONS];
+               for (int c3 = 0; c3 != CONTINUATIONS; c3++) {
+                  int cp = ((lead & 0x07) << 18) | (c2 << 12) | (c3 << 6);
+                  int high = Character.highSurrogate(cp);
+                  third[c3] = leaf(dfa.step(d, (char)high), cp & 0x3C0);
+               }
+               second[c2] = intern(third);
+            }
+            row[lead] = intern(second);
+         }
+         return row;
+      }
+
+      /* Returns the state for the last byte of the sequences encoding the
+      ** chars [base..base+64), from char DFA state d.  Most such blocks lie
+      ** within one alphabet class, and so lead to a single state.
+      */
+      private int block(int d, int base) {
+         RegExprAlphabet alphabet = dfa.alphabet();
+         int[] last = new int[CONTINUATIONS];
+         if (alphabet.classOf((char)base) ==
+             alphabet.classOf((char)(base + CONTINUATIONS - 1)))
+         {
+            Arrays.fill(last, dfa.step(d, (char)base));
+         }
+         else {
+            for (int c = 0; c != CONTINUATIONS; c++) {
+               last[c] = dfa.step(d, (char)(base | c));
+            }
+         }
+         return intern(last);
+      }
+
+      /* Returns the state that completes a 4-byte sequence, given the char
+      ** DFA state e reached on its high surrogate and the bits of the low
+      ** surrogate that the third byte determines.
+      */
+      private int leaf(int e, int bits) {
+         Long key = (long)e << 16 | bits;
+         Integer id = leaves.get(key);
+         if (id != null) { return id; }
+         int[] last = new int[CONTINUATIONS];
+         if (e != DEAD) {
+            for (int c4 = 0; c4 != CONTINUATIONS; c4++) {
+               char low = (char)(Character.MIN_LOW_SURROGATE | bits | c4);
+               last[c4] = dfa.step(e, low);
+            }
+         }
+         int s = intern(last);
+         leaves.put(key, s);
+         return s;
+      }
+
+      /* Returns the intermediate state with the given continuation row,
+      ** creating it if need be, or DEAD if the row is entirely DEAD.
+      */
+      private int intern(int[] row) {
+         boolean dead = true;
+         for (int t : row) { dead = dead && t == DEAD; }
+         if (dead) { return DEAD; }
+         Row key = new Row(row);
+         Integer id = ids.get(key);
+         if (id != null) { return id; }
+         int s = n + rows.size();
+         rows.add(row);
+         ids.put(key, s);
+         return s;
+      }
+   }
+
+   /* An int[] usable as a hash key.
+   */
+   private static final class Row {
+      final int[] values;
+      private final int hash;
+
+      Row(int[] values) {
+         this.values = values;
+         this.hash = Arrays.hashCode(values);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         return o instanceof Row && Arrays.equals(values, ((Row)o).values);
+      }
+
+      @Override
+      public int hashCode() { return hash; }
+   }
+
+}
\ No newline at end of file
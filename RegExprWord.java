@@ -9,17 +9,28 @@ public class RegExprWord extends RegularExpression {
    // -----------------
 
    private String word;
+   private final int hash;
 
    // constructor
    // -----------
 
-   public RegExprWord(String s) { word = s; }
+   public RegExprWord(String s) { 
+      word = s; 
+      hash = 31 * RegExprWord.class.hashCode() + s.hashCode();
+   }
 
    // observers
    // ---------
 
+   /* Returns the word (the empty string, in the case of lambda).
+   */
+   String word() { return word; }
+
    @Override
-   public boolean isMember(String x) { return x.equals(word); }
+   public boolean isMember(String x, RegExprMatchContext ctx) {
+      ctx.step();
+      return x.equals(word);
+   }
 
    @Override
    public boolean isFinite() { return true; }
@@ -42,11 +53,31 @@ public class RegExprWord extends RegularExpression {
       else { return word; }
    }
 
+   /* Two regular expressions are equal if they have the same structure
+   ** (not merely the same language).
+   */
+   @Override
+   public boolean equals(Object o) {
+      return o instanceof RegExprWord && ((RegExprWord)o).word.equals(word);
+   }
+
+   @Override
+   public int hashCode() { return hash; }
+
    @Override
    public RegularExpression reverse() {
       return new RegExprWord(reverse(word));
    }
 
+   @Override
+   int compile(RegExprNfa.Builder nfa, int next) {
+      int s = next;
+      for (int i = word.length() - 1; i >= 0; i--) {
+         s = nfa.addChar(word.charAt(i), word.charAt(i), s);
+      }
+      return s;
+   }
+
    private String reverse(String w) {
       if (w.length() == 0) { return w; }
       else { return reverse(w.substring(1)) + w.charAt(0); }
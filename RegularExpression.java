@@ -2,13 +2,67 @@ import java.util.Random;
 
 public abstract class RegularExpression {
 
+   // instance variables
+   // ------------------
+
+   // the NFA that isMemberBounded() falls back on, built on first use
+   // (another thread may build it too; either will do)
+   private volatile RegExprNfa fallbackNfa;
+
    // observers
    // ---------
 
    /* Reports whether the given string is a member of the language
-   ** described by this regular expression.
+   ** described by this regular expression.  The recursive search is
+   ** allowed RegExprMatchContext.DEFAULT_MAX_STEPS steps; a string that
+   ** would take more (the search can take time exponential in its
+   ** length) is tested instead by the linear-time RegExprNfa.
+   */
+   public boolean isMember(String x) {
+      return isMemberBounded(x, new RegExprMatchContext(
+                                   RegExprMatchContext.DEFAULT_MAX_STEPS, 0,
+                                   true));
+   }
+
+   /* Reports whether the given string is a member of the language
+   ** described by this regular expression, charging each step of the
+   ** (recursive) search to the given context.
+   ** Throws RegExprBudgetExceededException if the context's step budget
+   ** or deadline is exhausted, or it is cancelled, before the answer is
+   ** known.
+   */
+   public abstract boolean isMember(String x, RegExprMatchContext ctx);
+
+   /* Like isMember(x, ctx), except that, if ctx.fallsBack(), a search that
+   ** exhausts ctx is answered instead by the linear-time RegExprNfa, which
+   ** is compiled once per expression and kept.  (ctx is reset() first.)
+   */
+   public boolean isMemberBounded(String x, RegExprMatchContext ctx) {
+      ctx.reset();
+      try {
+         return isMember(x, ctx);
+      }
+      catch (RegExprBudgetExceededException e) {
+         if (!ctx.fallsBack()) { throw e; }
+         RegExprNfa nfa = fallbackNfa;
+         if (nfa == null) {
+            nfa = RegExprNfa.compile(this);
+            fallbackNfa = nfa;
+         }
+         return nfa.accepts(x);
+      }
+   }
+
+   /* Reports whether the given string is within k edits (insertions,
+   ** deletions or substitutions of one char) of a member of the language
+   ** described by this regular expression.  The expression is compiled
+   ** for each call; to test many strings, use RegExprPattern's
+   ** isMemberWithin().
+   ** pre: k >= 0
    */
-   public abstract boolean isMember(String x); 
+   public boolean isMemberWithin(CharSequence x, int k) {
+      return RegExprPattern.compile(this).isMemberWithin(x, k);
+   }
 
    /* Reports whether the language described by this regular expression
    ** has finitely many members.
@@ -21,17 +75,34 @@ public abstract class RegularExpression {
    public abstract boolean isEmpty();
 
    /* Reports the length of a shortest length string that is a member
-   ** of the language described by this regular expression
+   ** of the language described by this regular expression (or
+   ** Integer.MAX_VALUE, if that is Integer.MAX_VALUE or more)
    ** pre: !isEmpty()
    */
    public abstract int minLength();
 
    /* Reports the length of a longest length string that is a member
-   ** of the language described by this regular expression.
+   ** of the language described by this regular expression (or
+   ** Integer.MAX_VALUE, if that is Integer.MAX_VALUE or more).
    ** pre: isFinite()
    */
    public abstract int maxLength();
 
+   /* Returns the sum of two lengths, saturating at Integer.MAX_VALUE.
+   ** pre: a >= 0 && b >= 0
+   */
+   static int addLengths(int a, int b) {
+      int sum = a + b;
+      return sum < 0 ? Integer.MAX_VALUE : sum;
+   }
+
+   /* Returns n times the given length, saturating at Integer.MAX_VALUE.
+   ** pre: n >= 0 && length >= 0
+   */
+   static int multiplyLength(int n, int length) {
+      return (int)Math.min((long)n * length, Integer.MAX_VALUE);
+   }
+
 
    // generator
    // ---------
@@ -46,4 +117,16 @@ public abstract class RegularExpression {
    ** the language described by this one.
    */
    public abstract RegularExpression reverse();
+
+
+   // compilation
+   // -----------
+
+   /* Adds to the given NFA builder states recognizing the language described
+   ** by this regular expression followed by whatever state 'next' recognizes,
+   ** and returns the state at which that begins.  The states added form a
+   ** contiguous block whose transitions lead only to states within the block
+   ** or to 'next'.  Subexpressions are to be compiled via nfa.compile().
+   */
+   abstract int compile(RegExprNfa.Builder nfa, int next);
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/* RegExprBench.java
+** Micro-benchmark harness for the hot paths of the regular expression
+** classes: parsing and syntax checking (RegExprBuilder), membership
+** testing on ordinary and pathological expressions, random member
+** generation, and reversal.  Inputs are generated by RegExprCorpus from
+** fixed seeds, so successive runs measure the same work.
+**
+**    java RegExprBench [-quick] [name-filter ...]
+**    mvn -B -Pbench verify          (from the top level, with -quick)
+**
+** It lives, with RegExprCorpus, in bench/, a module of its own built
+** against the core classes, so that neither is in the main jar.
+**
+** Each benchmark is warmed up and then measured over several rounds;
+** the mean and best times per operation are reported.  Every result is
+** folded into a volatile sink so that the JIT cannot discard the work.
+*/
+public class RegExprBench {
+
+   private static final long SEED = 260;
+   private static final int CORPUS_SIZE = 256;
+
+   private static long warmupNanos = 1_000_000_000L;
+   private static long roundNanos = 500_000_000L;
+   private static int rounds = 5;
+
+   private static volatile long sink;
+
+   /* A benchmarked operation; i is the iteration number, which operations
+   ** use to cycle through their inputs.
+   */
+   private interface Op {
+      long run(int i);
+   }
+
+   private static final List<String> names = new ArrayList<String>();
+   private static final List<Op> ops = new ArrayList<Op>();
+
+   private static void add(String name, Op op) {
+      names.add(name);
+      ops.add(op);
+   }
+
+   public static void main(String[] args) {
+      List<String> filters = new ArrayList<String>();
+      for (String arg : args) {
+         if (arg.equals("-quick")) {
+            warmupNanos = 200_000_000L;
+            roundNanos = 100_000_000L;
+            rounds = 3;
+         }
+         else { filters.add(arg); }
+      }
+      setUp();
+      System.out.printf("%-32s %14s %14s\n", "benchmark", "mean ns/op",
+                        "best ns/op");
+      for (int k = 0; k != ops.size(); k++) {
+         if (selected(names.get(k), filters)) {
+            measure(names.get(k), ops.get(k));
+         }
+      }
+   }
+
+   // benchmarks
+   // ----------
+
+   private static void setUp() {
+      final String normalSrc = "aba.(ba)* + bba";
+      final String nestedStarSrc = "((a + b)*)*.c";
+      final String longUnionSrc =
+         RegExprCorpus.wordUnion(200, 6, new Random(SEED));
+      final String longWordSrc =
+         RegExprCorpus.randomWord(2000, new Random(SEED));
+      final String longConcatSrc = "(a + b)*.(c + d).(a + b)*.(c + d).(a + b)*";
+      // the same language, spelled out and as character classes
+      final String letterUnionSrc =
+         "(a + b + c + d + e + f + g + h + i + j + k + l + m + n + o + p +" +
+         " q + r + s + t + u + v + w + x + y + z)*." +
+         "(0 + 1 + 2 + 3 + 4 + 5 + 6 + 7 + 8 + 9)";
+      final String charClassSrc = "[a-z]*.[0-9]";
+
+      final String[] sources =
+         { normalSrc, nestedStarSrc, longUnionSrc, longWordSrc, longConcatSrc,
+           letterUnionSrc, charClassSrc };
+      final String[] labels =
+         { "normal", "nestedStar", "longUnion", "longWord", "longConcat",
+           "letterUnion", "charClass" };
+
+      for (int j = 0; j != sources.length; j++) {
+         final String src = sources[j];
+         final RegularExpression r = RegExprBuilder.parse(src);
+         final List<String> inputs =
+            RegExprCorpus.mixed(r, CORPUS_SIZE, new Random(SEED));
+         final String label = labels[j];
+
+         add("isValid/" + label,
+             i -> RegExprBuilder.isValid(src) ? 1 : 0);
+         add("parse/" + label,
+             i -> RegExprBuilder.parse(src).hashCode());
+         add("isMember/" + label,
+             i -> r.isMember(inputs.get(i % CORPUS_SIZE)) ? 1 : 0);
+         final RegExprPattern pattern = RegExprPattern.compile(r);
+         add("patternMatches/" + label,
+             i -> pattern.matches(inputs.get(i % CORPUS_SIZE)) ? 1 : 0);
+         add("randomMember/" + label,
+             new Op() {
+                private final Random rand = new Random(SEED);
+                public long run(int i) {
+                   return r.randomMember(rand).length();
+                }
+             });
+         add("reverse/" + label,
+             i -> r.reverse().hashCode());
+      }
+
+      // long inputs on which a DFA stays in self-looping (accelerated)
+      // states: one left only on 'E', and one that loops on a and b
+      final String logLineSrc = "~*.ERROR.~*";
+      final String abRunSrc = "(a + b)*.c";
+      StringBuilder logLine = new StringBuilder();
+      while (logLine.length() < (1 << 16)) {
+         logLine.append("INFO served ").append(RegExprCorpus.randomWord(8,
+                        new Random(SEED + logLine.length()))).append(' ');
+      }
+      logLine.append("ERROR ").append(logLine.substring(0, 1 << 10));
+      StringBuilder abRun = new StringBuilder();
+      Random abRand = new Random(SEED);
+      for (int k = 0; k != (1 << 16); k++) {
+         abRun.append(abRand.nextBoolean() ? 'a' : 'b');
+      }
+      abRun.append('c');
+      final String[] scanSources = { logLineSrc, abRunSrc };
+      final String[] scanInputs = { logLine.toString(), abRun.toString() };
+      final String[] scanLabels = { "logLine", "abRun" };
+      for (int j = 0; j != scanSources.length; j++) {
+         final RegExprDfa dfa =
+            RegExprDfa.build(RegExprBuilder.parse(scanSources[j]), 1 << 10);
+         final String input = scanInputs[j];
+         add("dfaAccepts/" + scanLabels[j], i -> dfa.accepts(input) ? 1 : 0);
+      }
+
+      // a rulebase of ~*.<word>.~* rules, each with its own word, matched
+      // against lines that contain a word of one rule or of none
+      final int numRules = 1 << 14;
+      final Random ruleRand = new Random(SEED);
+      final List<RegularExpression> rules = new ArrayList<RegularExpression>();
+      final List<String> ruleWords = new ArrayList<String>();
+      for (int k = 0; k != numRules; k++) {
+         String w = RegExprCorpus.randomWord(8, ruleRand);
+         ruleWords.add(w);
+         rules.add(RegExprBuilder.parse("~*." + w + ".~*"));
+      }
+      final RegExprIndex index = new RegExprIndex(rules);
+      final List<String> lines = new ArrayList<String>();
+      for (int k = 0; k != CORPUS_SIZE; k++) {
+         String w = k % 2 == 0 ? ruleWords.get(ruleRand.nextInt(numRules))
+                               : RegExprCorpus.randomWord(8, ruleRand);
+         lines.add("INFO served " + RegExprCorpus.randomWord(16, ruleRand) +
+                   " " + w + " in 12 ms");
+      }
+      add("indexMatches/rulebase",
+          i -> index.matches(lines.get(i % CORPUS_SIZE)).length);
+   }
+
+   // private
+   // -------
+
+   private static boolean selected(String name, List<String> filters) {
+      if (filters.isEmpty()) { return true; }
+      for (String f : filters) {
+         if (name.contains(f)) { return true; }
+      }
+      return false;
+   }
+
+   /* Warms up and then times the given operation, printing the results.
+   */
+   private static void measure(String name, Op op) {
+      runFor(op, warmupNanos);
+      double best = Double.MAX_VALUE;
+      double total = 0;
+      for (int k = 0; k != rounds; k++) {
+         double nsPerOp = runFor(op, roundNanos);
+         total = total + nsPerOp;
+         best = Math.min(best, nsPerOp);
+      }
+      System.out.printf("%-32s %14.1f %14.1f\n", name, total / rounds, best);
+   }
+
+   /* Runs the given operation repeatedly, in batches of doubling size,
+   ** until at least the given time has elapsed, and returns the mean
+   ** number of nanoseconds per operation.
+   */
+   private static double runFor(Op op, long nanos) {
+      long acc = 0;
+      long count = 0;
+      int batch = 1;
+      long start = System.nanoTime();
+      long elapsed;
+      do {
+         for (int i = 0; i != batch; i++) {
+            acc = acc + op.run((int)(count + i));
+         }
+         count = count + batch;
+         if (batch < (1 << 20)) { batch = 2 * batch; }
+         elapsed = System.nanoTime() - start;
+      } while (elapsed < nanos);
+      sink = sink + acc;
+      return (double) elapsed / count;
+   }
+
+}
\ No newline at end of file
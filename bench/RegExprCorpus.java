@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/* RegExprCorpus.java
+** This class has static methods for generating corpora of input strings
+** for a regular expression, using randomMember() to produce realistic
+** members and small mutations of those to produce (mostly) non-members.
+** It is used by RegExprBench, and it can also be run on its own to write
+** a corpus to a file (or to standard output), one string per line:
+**
+**    java RegExprCorpus <regular expression> <count> [seed] [outfile]
+*/
+public class RegExprCorpus {
+
+   private static final long DEFAULT_SEED = 260;
+
+   /* Returns a list of 'count' pseudo-randomly generated members of the
+   ** language described by r.
+   ** pre: !r.isEmpty()
+   */
+   public static List<String> members(RegularExpression r, int count,
+                                      Random rand) {
+      List<String> result = new ArrayList<String>(count);
+      for (int i = 0; i != count; i++) {
+         result.add(r.randomMember(rand));
+      }
+      return result;
+   }
+
+   /* Returns a list of 'count' strings, each obtained from a pseudo-randomly
+   ** generated member of the language described by r by replacing, inserting,
+   ** or deleting one character.  Most, but not necessarily all, of them
+   ** are non-members.
+   ** pre: !r.isEmpty()
+   */
+   public static List<String> mutants(RegularExpression r, int count,
+                                      Random rand) {
+      List<String> result = new ArrayList<String>(count);
+      for (int i = 0; i != count; i++) {
+         result.add(mutate(r.randomMember(rand), rand));
+      }
+      return result;
+   }
+
+   /* Returns a list of 'count' strings, alternating between members and
+   ** mutants as produced by the two methods above.
+   ** pre: !r.isEmpty()
+   */
+   public static List<String> mixed(RegularExpression r, int count,
+                                    Random rand) {
+      List<String> result = new ArrayList<String>(count);
+      for (int i = 0; i != count; i++) {
+         String member = r.randomMember(rand);
+         result.add(i % 2 == 0 ? member : mutate(member, rand));
+      }
+      return result;
+   }
+
+   /* Returns the string obtained from s by replacing, inserting, or
+   ** deleting (chosen pseudo-randomly) one character.
+   */
+   public static String mutate(String s, Random rand) {
+      StringBuilder b = new StringBuilder(s);
+      int op = s.length() == 0 ? 1 : rand.nextInt(3);
+      char c = (char)('a' + rand.nextInt(26));
+      if (op == 0) {
+         int i = rand.nextInt(s.length());
+         b.setCharAt(i, b.charAt(i) == c ? (char)(c ^ 1) : c);
+      }
+      else if (op == 1) {
+         b.insert(rand.nextInt(s.length() + 1), c);
+      }
+      else {
+         b.deleteCharAt(rand.nextInt(s.length()));
+      }
+      return b.toString();
+   }
+
+   /* Returns the source text of a union of 'count' distinct words, each
+   ** of the given length, over the lower case letters other than those
+   ** that are special in the regular expression syntax.
+   */
+   public static String wordUnion(int count, int wordLength, Random rand) {
+      java.util.Set<String> words = new java.util.LinkedHashSet<String>();
+      while (words.size() != count) {
+         words.add(randomWord(wordLength, rand));
+      }
+      return String.join(" " + RegExprSymbols.UNION_OP + " ", words);
+   }
+
+   /* Returns a word of the given length over the lower case letters.
+   */
+   public static String randomWord(int length, Random rand) {
+      char[] w = new char[length];
+      for (int i = 0; i != length; i++) {
+         w[i] = (char)('a' + rand.nextInt(26));
+      }
+      return new String(w);
+   }
+
+   public static void main(String[] args) throws IOException {
+      if (args.length < 2) {
+         System.out.println("Usage: java RegExprCorpus <regular expression>" +
+                            " <count> [seed] [outfile]");
+         return;
+      }
+      if (!RegExprBuilder.isValid(args[0])) {
+         System.out.println("Invalid syntax");
+         return;
+      }
+      RegularExpression r = RegExprBuilder.parse(args[0]);
+      int count = Integer.parseInt(args[1]);
+      long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+      List<String> corpus = members(r, count, new Random(seed));
+
+      PrintWriter out;
+      if (args.length > 3) {
+         BufferedWriter w = Files.newBufferedWriter(Paths.get(args[3]));
+         out = new PrintWriter(w);
+      }
+      else {
+         out = new PrintWriter(System.out);
+      }
+      for (String s : corpus) { out.println(s); }
+      out.flush();
+      if (args.length > 3) { out.close(); }
+   }
+
+}
\ No newline at end of file